@@ -0,0 +1,119 @@
+package edu.colorado.cires.cmg.s3out;
+
+import edu.colorado.cires.cmg.s3out.PartSizeDecision.Reason;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chooses the size of upcoming parts by hill climbing on measured part upload throughput. After a few full-size parts have been measured at
+ * the current size, the size is doubled or halved within the configured bounds.  The direction is kept while throughput improves and reversed
+ * when it degrades. Independently of throughput, the size never drops below what is needed for the remaining part numbers to hold at least as
+ * many bytes as have already been written. The total size of a stream is not known in advance, so this bound is best-effort: it assumes the
+ * rest of the stream is no larger than what has been written, and a stream that grows faster than that can still run out of part numbers,
+ * in which case the part after the last one fails.
+ */
+class AdaptivePartSizer {
+
+  static final int MAX_PARTS = 10000;
+  private static final int SAMPLES_PER_STEP = 2;
+  private static final double TOLERANCE = 0.05;
+
+  private final int minPartSize;
+  private final int maxPartSize;
+  private final List<PartSizeDecision> decisions = new ArrayList<>();
+
+  private int partSize;
+  private int direction = 1;
+  private double previousThroughput;
+  private long sampleBytes;
+  private long sampleNanos;
+  private int samples;
+
+  AdaptivePartSizer(int minPartSize, int maxPartSize, int initialPartSize) {
+    this.minPartSize = minPartSize;
+    this.maxPartSize = maxPartSize;
+    partSize = Math.max(minPartSize, Math.min(maxPartSize, initialPartSize));
+    decisions.add(new PartSizeDecision(1, partSize, 0D, 0D, Reason.INITIAL));
+  }
+
+  /**
+   * Records the upload of a part. Only parts of the current size contribute to the measurement.
+   */
+  synchronized void recordUpload(int bytes, long nanos) {
+    if (bytes == partSize) {
+      sampleBytes += bytes;
+      sampleNanos += Math.max(1L, nanos);
+      samples++;
+    }
+  }
+
+  /**
+   * Returns the size to use for a part.
+   *
+   * @param partNumber the number of the part about to be filled
+   * @param bytesWritten the number of bytes already written to previous parts
+   * @throws IllegalStateException if the part number is beyond the S3 limit
+   */
+  synchronized int nextPartSize(int partNumber, long bytesWritten) {
+    if (partNumber > MAX_PARTS) {
+      throw new IllegalStateException("Part " + partNumber + " exceeds the S3 limit of " + MAX_PARTS + " parts, " + bytesWritten
+          + " bytes were written with a maximum part size of " + maxPartSize);
+    }
+    int size = partSize;
+    Reason reason = null;
+    double throughput = 0D;
+    double meanLatencyMillis = 0D;
+
+    if (samples >= SAMPLES_PER_STEP) {
+      throughput = sampleBytes * 1e9D / sampleNanos;
+      meanLatencyMillis = sampleNanos / 1e6D / samples;
+      if (previousThroughput > 0D && throughput < previousThroughput * (1D - TOLERANCE)) {
+        direction = -direction;
+      }
+      if (previousThroughput <= 0D || throughput < previousThroughput * (1D - TOLERANCE) || throughput > previousThroughput * (1D + TOLERANCE)) {
+        size = step(size);
+        reason = size > partSize ? Reason.GROW : Reason.SHRINK;
+      }
+      previousThroughput = throughput;
+      sampleBytes = 0L;
+      sampleNanos = 0L;
+      samples = 0;
+    }
+
+    long floor = minimumForPartLimit(partNumber, bytesWritten);
+    if (size < floor) {
+      size = (int) Math.min(maxPartSize, floor);
+      reason = Reason.PART_LIMIT;
+      direction = 1;
+    }
+
+    if (size != partSize) {
+      partSize = size;
+      decisions.add(new PartSizeDecision(partNumber, size, throughput, meanLatencyMillis, reason));
+    }
+    return size;
+  }
+
+  private int step(int size) {
+    long next = direction > 0 ? size * 2L : size / 2L;
+    next = Math.max(minPartSize, Math.min(maxPartSize, next));
+    if (next == size) {
+      // pinned at a bound, probe the other direction next time
+      direction = -direction;
+    }
+    return (int) next;
+  }
+
+  private long minimumForPartLimit(int partNumber, long bytesWritten) {
+    long remainingParts = MAX_PARTS - partNumber + 1L;
+    if (remainingParts <= 1L) {
+      return maxPartSize;
+    }
+    return (bytesWritten + remainingParts - 1L) / remainingParts;
+  }
+
+  synchronized List<PartSizeDecision> getDecisions() {
+    return Collections.unmodifiableList(new ArrayList<>(decisions));
+  }
+}
@@ -16,6 +16,9 @@ import software.amazon.awssdk.services.s3.model.UploadPartRequest;
  */
 public class AwsS3ClientMultipartUpload implements S3ClientMultipartUpload {
 
+  private static final String OCTET_STREAM = "application/octet-stream";
+  private static final UploadEvents EVENTS = UploadEvents.get();
+
   /**
    * Creates a new {@link Builder} to build a S3ClientMultipartUpload
    *
@@ -31,6 +34,7 @@ public class AwsS3ClientMultipartUpload implements S3ClientMultipartUpload {
   public static class Builder {
     private S3Client s3;
     private ContentTypeResolver contentTypeResolver = new DefaultContentTypeResolver();
+    private BandwidthLimiter bandwidthLimiter;
 
     private Builder() {
 
@@ -60,22 +64,37 @@ public class AwsS3ClientMultipartUpload implements S3ClientMultipartUpload {
       return this;
     }
 
+    /**
+     * Sets a {@link BandwidthLimiter} that meters the bytes of each part as they are sent, in chunks of 64 KiB. The limiter may be shared with
+     * other clients to limit their combined bandwidth.
+     * Default: no limit
+     *
+     * @param bandwidthLimiter the {@link BandwidthLimiter}
+     * @return this Builder
+     */
+    public Builder bandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+      this.bandwidthLimiter = bandwidthLimiter;
+      return this;
+    }
+
     /**
      * Builds a new {@link AwsS3ClientMultipartUpload}
      *
      * @return a new {@link AwsS3ClientMultipartUpload}
      */
     public AwsS3ClientMultipartUpload build() {
-      return new AwsS3ClientMultipartUpload(s3, contentTypeResolver);
+      return new AwsS3ClientMultipartUpload(s3, contentTypeResolver, bandwidthLimiter);
     }
   }
 
   private final S3Client s3;
   private final ContentTypeResolver contentTypeResolver;
+  private final BandwidthLimiter bandwidthLimiter;
 
-  private AwsS3ClientMultipartUpload(S3Client s3, ContentTypeResolver contentTypeResolver) {
+  private AwsS3ClientMultipartUpload(S3Client s3, ContentTypeResolver contentTypeResolver, BandwidthLimiter bandwidthLimiter) {
     this.s3 = s3;
     this.contentTypeResolver = contentTypeResolver;
+    this.bandwidthLimiter = bandwidthLimiter;
   }
 
   @Override
@@ -94,7 +113,15 @@ public class AwsS3ClientMultipartUpload implements S3ClientMultipartUpload {
 
     multipartUploadRequest.getObjectMetadata().ifPresent(objectMetadata -> objectMetadata.apply(builder));
 
-    return s3.createMultipartUpload(builder.build()).uploadId();
+    Object event = EVENTS.beginRequest();
+    String uploadId = null;
+    try {
+      uploadId = s3.createMultipartUpload(builder.build()).uploadId();
+      return uploadId;
+    } finally {
+      EVENTS.endRequest(event, "CreateMultipartUpload", multipartUploadRequest.getBucket(), multipartUploadRequest.getKey(), uploadId, 0, 0L,
+          uploadId != null);
+    }
   }
 
   @Override
@@ -105,13 +132,33 @@ public class AwsS3ClientMultipartUpload implements S3ClientMultipartUpload {
         .uploadId(uploadId)
         .partNumber(partNumber).build();
 
-    String etag = s3.uploadPart(uploadPartRequest, RequestBody.fromRemainingByteBuffer(buffer)).eTag();
+    final long bytes = buffer.remaining();
+    // the part is streamed from the caller's buffer rather than copied into the request, and each attempt streams from its own view of the
+    // buffer so retries start from the beginning of the part
+    final ByteBuffer part = buffer.duplicate();
+    RequestBody requestBody = RequestBody.fromContentProvider(() -> new ByteBufferInputStream(part.duplicate(), bandwidthLimiter), bytes,
+        OCTET_STREAM);
+
+    Object event = EVENTS.beginRequest();
+    boolean succeeded = false;
+    String etag;
+    try {
+      etag = s3.uploadPart(uploadPartRequest, requestBody).eTag();
+      succeeded = true;
+    } finally {
+      EVENTS.endRequest(event, "UploadPart", bucket, key, uploadId, partNumber, bytes, succeeded);
+    }
 
     return CompletedPart.builder().partNumber(partNumber).eTag(etag).build();
   }
 
   @Override
   public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    completeMultipartUploadWithETag(bucket, key, uploadId, completedParts);
+  }
+
+  @Override
+  public String completeMultipartUploadWithETag(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
     CompletedMultipartUpload completedMultipartUpload = CompletedMultipartUpload.builder()
         .parts(completedParts)
         .build();
@@ -124,15 +171,30 @@ public class AwsS3ClientMultipartUpload implements S3ClientMultipartUpload {
             .multipartUpload(completedMultipartUpload)
             .build();
 
-    s3.completeMultipartUpload(completeMultipartUploadRequest);
+    Object event = EVENTS.beginRequest();
+    boolean succeeded = false;
+    try {
+      String eTag = s3.completeMultipartUpload(completeMultipartUploadRequest).eTag();
+      succeeded = true;
+      return eTag;
+    } finally {
+      EVENTS.endRequest(event, "CompleteMultipartUpload", bucket, key, uploadId, 0, 0L, succeeded);
+    }
   }
 
   @Override
   public void abortMultipartUpload(String bucket, String key, String uploadId) {
-    s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
-        .bucket(bucket)
-        .key(key)
-        .uploadId(uploadId)
-        .build());
+    Object event = EVENTS.beginRequest();
+    boolean succeeded = false;
+    try {
+      s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+          .bucket(bucket)
+          .key(key)
+          .uploadId(uploadId)
+          .build());
+      succeeded = true;
+    } finally {
+      EVENTS.endRequest(event, "AbortMultipartUpload", bucket, key, uploadId, 0, 0L, succeeded);
+    }
   }
 }
@@ -0,0 +1,109 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+/**
+ * A {@link S3ClientRangeRead} that uses a {@link S3Client} to make ranged GET calls to the AWS S3 SDK.
+ */
+public class AwsS3ClientRangeRead implements S3ClientRangeRead {
+
+  /**
+   * Creates a new {@link Builder} to build a AwsS3ClientRangeRead
+   *
+   * @return a new Builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link AwsS3ClientRangeRead}
+   */
+  public static class Builder {
+
+    private S3Client s3;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3Client}.
+     * Required.
+     *
+     * @param s3 the {@link S3Client}
+     * @return this Builder
+     */
+    public Builder s3(S3Client s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link AwsS3ClientRangeRead}
+     *
+     * @return a new {@link AwsS3ClientRangeRead}
+     */
+    public AwsS3ClientRangeRead build() {
+      return new AwsS3ClientRangeRead(s3);
+    }
+  }
+
+  private final S3Client s3;
+
+  private AwsS3ClientRangeRead(S3Client s3) {
+    this.s3 = s3;
+  }
+
+  @Override
+  public long getObjectLength(String bucket, String key) {
+    return s3.headObject(HeadObjectRequest.builder()
+        .bucket(bucket)
+        .key(key)
+        .build()).contentLength();
+  }
+
+  @Override
+  public int readRange(String bucket, String key, long position, ByteBuffer buffer) {
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+        .bucket(bucket)
+        .key(key)
+        .range("bytes=" + position + "-" + (position + buffer.remaining() - 1))
+        .build();
+
+    int start = buffer.position();
+    try (ResponseInputStream<GetObjectResponse> inputStream = s3.getObject(getObjectRequest)) {
+      if (buffer.hasArray()) {
+        readIntoArray(inputStream, buffer);
+      } else {
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+          // keep reading until the range is exhausted
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read range from " + bucket + ":" + key, e);
+    }
+    return buffer.position() - start;
+  }
+
+  private static void readIntoArray(InputStream inputStream, ByteBuffer buffer) throws IOException {
+    byte[] array = buffer.array();
+    int n;
+    while (buffer.hasRemaining() && (n = inputStream.read(array, buffer.arrayOffset() + buffer.position(), buffer.remaining())) != -1) {
+      buffer.position(buffer.position() + n);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that limits the rate at which bytes are sent. Tokens refill continuously at the configured rate up to the burst size.
+ * A caller taking more tokens than are available goes into debt and waits until the debt has been repaid, so concurrent senders share the
+ * rate fairly and traffic stays smooth when bytes are metered in small chunks.
+ *
+ * <p>A limiter can be used by a single client or shared by many, in which case the rate applies to their combined traffic. The rate can be
+ * changed at any time.</p>
+ */
+public class BandwidthLimiter {
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * Creates a new builder for a BandwidthLimiter.
+   *
+   * @return a new builder for a BandwidthLimiter
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link BandwidthLimiter}.
+   */
+  public static class Builder {
+
+    private long bytesPerSecond;
+    private long burstBytes = -1L;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the sustained rate in bytes per second. Required.
+     *
+     * @param bytesPerSecond the sustained rate in bytes per second
+     * @return this Builder
+     */
+    public Builder bytesPerSecond(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+      return this;
+    }
+
+    /**
+     * Sets the number of bytes that may be sent at once after the limiter has been idle. Default value: one second at the configured rate
+     *
+     * @param burstBytes the number of bytes that may be sent at once after the limiter has been idle
+     * @return this Builder
+     */
+    public Builder burstBytes(long burstBytes) {
+      this.burstBytes = burstBytes;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link BandwidthLimiter}
+     *
+     * @return a new {@link BandwidthLimiter}
+     */
+    public BandwidthLimiter build() {
+      if (bytesPerSecond < 1L) {
+        throw new IllegalArgumentException("Bytes per second must be at least 1");
+      }
+      return new BandwidthLimiter(bytesPerSecond, burstBytes < 0L ? bytesPerSecond : burstBytes);
+    }
+  }
+
+  private final long burstBytes;
+
+  private long bytesPerSecond;
+  private double tokens;
+  private long lastRefill = System.nanoTime();
+
+  private BandwidthLimiter(long bytesPerSecond, long burstBytes) {
+    this.bytesPerSecond = bytesPerSecond;
+    this.burstBytes = burstBytes;
+    this.tokens = burstBytes;
+  }
+
+  private void refill(long now) {
+    tokens = Math.min(burstBytes, tokens + (now - lastRefill) * (double) bytesPerSecond / NANOS_PER_SECOND);
+    lastRefill = now;
+  }
+
+  /**
+   * Takes tokens for a number of bytes, waiting if the bucket is in debt.
+   *
+   * @param bytes the number of bytes about to be sent
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void acquire(long bytes) throws InterruptedException {
+    long waitNanos;
+    synchronized (this) {
+      refill(System.nanoTime());
+      tokens -= bytes;
+      waitNanos = tokens < 0D ? (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond) : 0L;
+    }
+    if (waitNanos > 0L) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Changes the sustained rate. Takes effect for bytes metered after this call.
+   *
+   * @param bytesPerSecond the sustained rate in bytes per second
+   */
+  public synchronized void setBytesPerSecond(long bytesPerSecond) {
+    if (bytesPerSecond < 1L) {
+      throw new IllegalArgumentException("Bytes per second must be at least 1");
+    }
+    refill(System.nanoTime());
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * Returns the sustained rate in bytes per second.
+   *
+   * @return the sustained rate in bytes per second
+   */
+  public synchronized long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+}
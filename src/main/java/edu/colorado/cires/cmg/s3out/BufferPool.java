@@ -0,0 +1,53 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A small pool of equally sized heap {@link ByteBuffer}s that allows buffers to be recycled rather than reallocated.
+ */
+class BufferPool {
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final Deque<ByteBuffer> pool = new ArrayDeque<>();
+
+  BufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Returns a cleared buffer from the pool, or a newly allocated buffer if the pool is empty.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer buffer;
+    synchronized (pool) {
+      buffer = pool.pollFirst();
+    }
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(bufferSize);
+    }
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. Buffers of a different size, or buffers beyond the pool capacity, are left for garbage collection.
+   */
+  void release(ByteBuffer buffer) {
+    if (buffer.capacity() != bufferSize) {
+      return;
+    }
+    buffer.clear();
+    synchronized (pool) {
+      if (pool.size() < maxPooled) {
+        pool.addFirst(buffer);
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} that reads the remaining bytes of a {@link ByteBuffer} without copying the buffer. If a {@link BandwidthLimiter} is
+ * provided, reads are metered in chunks of at most {@link #METER_CHUNK_SIZE} bytes.  Mark and reset move the position of the buffer, so a
+ * reset stream re-reads the same bytes.  As with {@link java.io.ByteArrayInputStream}, the stream is marked at its start.
+ */
+class ByteBufferInputStream extends InputStream {
+
+  static final int METER_CHUNK_SIZE = 64 * 1024;
+
+  private final ByteBuffer buffer;
+  private final BandwidthLimiter bandwidthLimiter;
+
+  ByteBufferInputStream(ByteBuffer buffer, BandwidthLimiter bandwidthLimiter) {
+    this.buffer = buffer;
+    this.bandwidthLimiter = bandwidthLimiter;
+    buffer.mark();
+  }
+
+  private void meter(int bytes) throws IOException {
+    if (bandwidthLimiter != null) {
+      try {
+        bandwidthLimiter.acquire(bytes);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for bandwidth");
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    meter(1);
+    return buffer.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException();
+    } else if ((off < 0) || (off > b.length) || (len < 0) ||
+        ((off + len) > b.length) || ((off + len) < 0)) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return 0;
+    }
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    int n = Math.min(len, buffer.remaining());
+    if (bandwidthLimiter != null) {
+      n = Math.min(n, METER_CHUNK_SIZE);
+      meter(n);
+    }
+    buffer.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) {
+    int skipped = (int) Math.max(0L, Math.min(n, buffer.remaining()));
+    buffer.position(buffer.position() + skipped);
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public void mark(int readLimit) {
+    buffer.mark();
+  }
+
+  @Override
+  public void reset() {
+    buffer.reset();
+  }
+}
@@ -0,0 +1,68 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+/**
+ * Computes the ETags S3 assigns to uploaded parts and to objects assembled from a multipart upload. A part ETag is the hex MD5 of the part.
+ * The ETag of a multipart object is the hex MD5 of the concatenated binary part MD5s, followed by a dash and the number of parts.
+ *
+ * <p>These only match the ETags returned by S3 for objects that are unencrypted or encrypted with SSE-S3.</p>
+ */
+final class ETags {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private ETags() {
+
+  }
+
+  private static MessageDigest newMd5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not supported", e);
+    }
+  }
+
+  /**
+   * Returns the MD5 of the remaining bytes of a buffer without changing its position.
+   */
+  static byte[] md5(ByteBuffer buffer) {
+    MessageDigest md5 = newMd5();
+    md5.update(buffer.duplicate());
+    return md5.digest();
+  }
+
+  /**
+   * Returns the ETag of a multipart object from the MD5s of its parts, in part number order.
+   */
+  static String multipart(Collection<byte[]> partMd5s) {
+    MessageDigest md5 = newMd5();
+    for (byte[] partMd5 : partMd5s) {
+      md5.update(partMd5);
+    }
+    return hex(md5.digest()) + "-" + partMd5s.size();
+  }
+
+  static String hex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Removes the quotes S3 puts around ETags.
+   */
+  static String unquote(String etag) {
+    if (etag != null && etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+      return etag.substring(1, etag.length() - 1);
+    }
+    return etag;
+  }
+}
@@ -13,6 +13,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
 import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.utils.BinaryUtils;
@@ -93,15 +95,26 @@ public class FileMockS3ClientMultipartUpload implements S3ClientMultipartUpload
     if (!multipartUploadState.getKey().equals(key)) {
       throw new IllegalStateException("Incorrect key: " + key + " : " + multipartUploadState.getKey());
     }
-    if (partNumber != multipartUploadState.getParts().size() + 1) {
-      throw new IllegalStateException("Incorrect part number: " + partNumber + " : " + (multipartUploadState.getParts().size() + 1));
+    if (partNumber < 1 || partNumber > 10000) {
+      throw new IllegalStateException("Incorrect part number: " + partNumber);
     }
-    multipartUploadState.getParts().add(buffer);
-    return CompletedPart.builder().build();
+    // the caller may reuse the buffer once this returns, as the AWS SDK copies or sends the bytes before returning
+    ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+    copy.put(buffer.duplicate());
+    copy.flip();
+    synchronized (multipartUploadState.getParts()) {
+      multipartUploadState.getParts().put(partNumber, copy);
+    }
+    return CompletedPart.builder().partNumber(partNumber).eTag("\"" + ETags.hex(ETags.md5(copy)) + "\"").build();
   }
 
   @Override
   public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    completeMultipartUploadWithETag(bucket, key, uploadId, completedParts);
+  }
+
+  @Override
+  public String completeMultipartUploadWithETag(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
     MultipartUploadState multipartUploadState = uploadStateMap.remove(uploadId);
     if (!multipartUploadState.getBucket().equals(bucket)) {
       throw new IllegalStateException("Incorrect bucket: " + bucket + " : " + multipartUploadState.getBucket());
@@ -119,13 +132,16 @@ public class FileMockS3ClientMultipartUpload implements S3ClientMultipartUpload
       }
     }
 
+    List<byte[]> partMd5s = new ArrayList<>();
     try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(path))) {
-      for (ByteBuffer buffer : multipartUploadState.getParts()) {
+      for (ByteBuffer buffer : multipartUploadState.getParts().values()) {
+        partMd5s.add(ETags.md5(buffer));
         outputStream.write(BinaryUtils.copyRemainingBytesFrom(buffer));
       }
     } catch (IOException e) {
       throw new IllegalStateException("Unable to write to file", e);
     }
+    return "\"" + ETags.multipart(partMd5s) + "\"";
   }
 
   @Override
@@ -150,7 +166,7 @@ public class FileMockS3ClientMultipartUpload implements S3ClientMultipartUpload
 
   private static class MultipartUploadState {
 
-    private final List<ByteBuffer> parts = new ArrayList<>();
+    private final SortedMap<Integer, ByteBuffer> parts = new TreeMap<>();
     private final String id = UUID.randomUUID().toString();
     private final String bucket;
     private final String key;
@@ -160,7 +176,7 @@ public class FileMockS3ClientMultipartUpload implements S3ClientMultipartUpload
       this.key = key;
     }
 
-    public List<ByteBuffer> getParts() {
+    public SortedMap<Integer, ByteBuffer> getParts() {
       return parts;
     }
 
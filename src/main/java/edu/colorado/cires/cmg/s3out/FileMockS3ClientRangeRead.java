@@ -0,0 +1,88 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * A mock implementation of a {@link S3ClientRangeRead} that uses the local filesystem.
+ * ONLY to be used for testing.
+ */
+public class FileMockS3ClientRangeRead implements S3ClientRangeRead {
+
+  /**
+   * A Builder that builds a {@link FileMockS3ClientRangeRead}
+   *
+   * @return the Builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * A Builder that builds a {@link FileMockS3ClientRangeRead}
+   */
+  public static class Builder {
+    private Path mockBucketDir;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets a directory that will contain directories representing buckets for testing.
+     *
+     * @param mockBucketDir a directory that will contain directories representing buckets for testing
+     * @return this Builder
+     */
+    public Builder mockBucketDir(Path mockBucketDir) {
+      this.mockBucketDir = mockBucketDir;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link FileMockS3ClientRangeRead}
+     *
+     * @return a new {@link FileMockS3ClientRangeRead}
+     */
+    public FileMockS3ClientRangeRead build() {
+      return new FileMockS3ClientRangeRead(mockBucketDir);
+    }
+  }
+
+  private final Path mockBucketDir;
+
+  private FileMockS3ClientRangeRead(Path mockBucketDir) {
+    this.mockBucketDir = Objects.requireNonNull(mockBucketDir);
+  }
+
+  @Override
+  public long getObjectLength(String bucket, String key) {
+    Path path = mockBucketDir.resolve(bucket).resolve(key);
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read file size: " + path, e);
+    }
+  }
+
+  @Override
+  public int readRange(String bucket, String key, long position, ByteBuffer buffer) {
+    Path path = mockBucketDir.resolve(bucket).resolve(key);
+    int start = buffer.position();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long filePosition = position;
+      int n;
+      while (buffer.hasRemaining() && (n = channel.read(buffer, filePosition)) != -1) {
+        filePosition += n;
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read from file: " + path, e);
+    }
+    return buffer.position() - start;
+  }
+}
@@ -0,0 +1,292 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * A {@link S3ClientMultipartUpload} that writes objects to a local or network filesystem, such as an NFS or parallel filesystem mount, so
+ * the same upload code can target either S3 or a filesystem. Each bucket is a directory under a root directory and each key is a path
+ * within it.
+ *
+ * <p>Each part is written to its own file in a temporary directory next to the target, through a channel opened for that request, so parts
+ * uploaded concurrently are written concurrently and a request that is interrupted or cancelled only fails itself. A part uploaded again
+ * replaces the earlier upload of that part atomically, as in S3. Parts may have any size and their numbers may have gaps, as with S3, so
+ * adaptive part sizing, {@link S3ParallelUpload} and {@link S3RecordOutputStream} work unchanged. On completion the parts are joined in
+ * part number order into one file, which is flushed to disk and atomically renamed to the target path, so readers never see a partial
+ * object. On abort the temporary directory is deleted.</p>
+ *
+ * <p>Object metadata in a {@link MultipartUploadRequest} is ignored.</p>
+ */
+public class FileS3ClientMultipartUpload implements S3ClientMultipartUpload {
+
+  /**
+   * A Builder that builds a {@link FileS3ClientMultipartUpload}
+   *
+   * @return the Builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * A Builder that builds a {@link FileS3ClientMultipartUpload}
+   */
+  public static class Builder {
+
+    private Path rootDir;
+    private boolean sync = true;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the directory that contains a directory for each bucket. Required.
+     *
+     * @param rootDir the directory that contains a directory for each bucket
+     * @return this Builder
+     */
+    public Builder rootDir(Path rootDir) {
+      this.rootDir = rootDir;
+      return this;
+    }
+
+    /**
+     * Controls whether the file is flushed to the storage device before it is renamed on completion. Disabling this is faster, but a
+     * completed object may be lost or incomplete after a crash. Enabled by default.
+     *
+     * @param sync true to flush the file to the storage device on completion
+     * @return this Builder
+     */
+    public Builder sync(boolean sync) {
+      this.sync = sync;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link FileS3ClientMultipartUpload}
+     *
+     * @return a new {@link FileS3ClientMultipartUpload}
+     */
+    public FileS3ClientMultipartUpload build() {
+      return new FileS3ClientMultipartUpload(rootDir, sync);
+    }
+  }
+
+  private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+  private final Path rootDir;
+  private final boolean sync;
+
+  private FileS3ClientMultipartUpload(Path rootDir, boolean sync) {
+    this.rootDir = Objects.requireNonNull(rootDir);
+    this.sync = sync;
+  }
+
+  @Override
+  public String createMultipartUpload(String bucket, String key) {
+    return createMultipartUpload(MultipartUploadRequest.builder().bucket(bucket).key(key).build());
+  }
+
+  @Override
+  public String createMultipartUpload(MultipartUploadRequest multipartUploadRequest) {
+    String bucket = multipartUploadRequest.getBucket();
+    String key = multipartUploadRequest.getKey();
+    Path root = rootDir.toAbsolutePath().normalize();
+    Path bucketDir = root.resolve(bucket).normalize();
+    // a bucket is a directory directly under the root directory
+    if (!bucketDir.startsWith(root) || !root.equals(bucketDir.getParent())) {
+      throw new IllegalArgumentException("Invalid bucket: " + bucket);
+    }
+    if (!Files.isDirectory(bucketDir)) {
+      throw new IllegalStateException("Bucket does not exist: " + bucket);
+    }
+    Path path = bucketDir.resolve(key).normalize();
+    if (!path.startsWith(bucketDir) || path.equals(bucketDir)) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+    String id = UUID.randomUUID().toString();
+    Path dir = path.resolveSibling("." + path.getFileName() + "." + id + ".upload");
+    try {
+      Files.createDirectories(dir);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to create directory: " + dir, e);
+    }
+    uploads.put(id, new Upload(bucket, key, path, dir));
+    return id;
+  }
+
+  @Override
+  public CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, ByteBuffer buffer) {
+    Upload upload = getUpload(bucket, key, uploadId);
+    if (partNumber < 1 || partNumber > AdaptivePartSizer.MAX_PARTS) {
+      throw new IllegalStateException("Incorrect part number: " + partNumber);
+    }
+    // each request writes its own file, so an interrupt that closes its channel does not affect other requests, and the part appears
+    // only once it has been written completely
+    Path attempt = upload.dir.resolve(partNumber + "." + UUID.randomUUID() + ".tmp");
+    ByteBuffer src = buffer.duplicate();
+    try {
+      try (FileChannel channel = FileChannel.open(attempt, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        while (src.hasRemaining()) {
+          channel.write(src);
+        }
+      }
+      Files.move(attempt, upload.part(partNumber), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      deleteQuietly(attempt);
+      throw new IllegalStateException("Unable to write part " + partNumber + " to file: " + attempt, e);
+    }
+    return CompletedPart.builder().partNumber(partNumber).build();
+  }
+
+  @Override
+  public void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    Upload upload = claimUpload(bucket, key, uploadId);
+    Path object = upload.dir.resolve("object");
+    try {
+      int[] partNumbers = partNumbers(completedParts);
+      try (FileChannel channel = FileChannel.open(object, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        for (int partNumber : partNumbers) {
+          appendPart(channel, upload, partNumber);
+        }
+        if (sync) {
+          channel.force(true);
+        }
+      }
+      Files.move(object, upload.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      discard(upload);
+      throw e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException("Unable to complete file: " + upload.path, e);
+    }
+    discard(upload);
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucket, String key, String uploadId) {
+    discard(claimUpload(bucket, key, uploadId));
+  }
+
+  /**
+   * Returns the number of multipart uploads that have been created but not completed or aborted.
+   *
+   * @return the number of pending multipart uploads
+   */
+  public int getPendingUploadCount() {
+    return uploads.size();
+  }
+
+  private Upload getUpload(String bucket, String key, String uploadId) {
+    Upload upload = uploads.get(uploadId);
+    if (upload == null) {
+      throw new IllegalStateException("No such upload: " + uploadId);
+    }
+    checkUpload(upload, bucket, key);
+    return upload;
+  }
+
+  /**
+   * Removes an upload so that only one caller can complete or abort it. An upload claimed with the wrong bucket or key is put back.
+   */
+  private Upload claimUpload(String bucket, String key, String uploadId) {
+    Upload upload = uploads.remove(uploadId);
+    if (upload == null) {
+      throw new IllegalStateException("No such upload: " + uploadId);
+    }
+    try {
+      checkUpload(upload, bucket, key);
+    } catch (IllegalStateException e) {
+      uploads.put(uploadId, upload);
+      throw e;
+    }
+    return upload;
+  }
+
+  private static void checkUpload(Upload upload, String bucket, String key) {
+    if (!upload.bucket.equals(bucket)) {
+      throw new IllegalStateException("Incorrect bucket: " + bucket + " : " + upload.bucket);
+    }
+    if (!upload.key.equals(key)) {
+      throw new IllegalStateException("Incorrect key: " + key + " : " + upload.key);
+    }
+  }
+
+  /**
+   * Returns the numbers of the completed parts in ascending order, checking that none is listed twice. Part numbers may have gaps.
+   */
+  private static int[] partNumbers(Collection<CompletedPart> completedParts) {
+    int[] partNumbers = completedParts.stream().mapToInt(CompletedPart::partNumber).sorted().toArray();
+    for (int i = 1; i < partNumbers.length; i++) {
+      if (partNumbers[i] == partNumbers[i - 1]) {
+        throw new IllegalStateException("Part " + partNumbers[i] + " is completed more than once");
+      }
+    }
+    return partNumbers;
+  }
+
+  private static void appendPart(FileChannel channel, Upload upload, int partNumber) throws IOException {
+    Path part = upload.part(partNumber);
+    if (!Files.exists(part)) {
+      throw new IllegalStateException("Part " + partNumber + " was not uploaded");
+    }
+    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+      long size = in.size();
+      long position = 0L;
+      while (position < size) {
+        position += in.transferTo(position, size - position, channel);
+      }
+    }
+  }
+
+  private static void discard(Upload upload) {
+    try (Stream<Path> files = Files.walk(upload.dir)) {
+      Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+      while (iterator.hasNext()) {
+        Files.deleteIfExists(iterator.next());
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to delete directory: " + upload.dir, e);
+    }
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      // the upload directory is deleted when the upload is completed or aborted
+    }
+  }
+
+  private static class Upload {
+
+    private final String bucket;
+    private final String key;
+    private final Path path;
+    // holds a file for each part, named by its part number
+    private final Path dir;
+
+    private Upload(String bucket, String key, Path path, Path dir) {
+      this.bucket = bucket;
+      this.key = key;
+      this.path = path;
+      this.dir = dir;
+    }
+
+    private Path part(int partNumber) {
+      return dir.resolve(Integer.toString(partNumber));
+    }
+  }
+}
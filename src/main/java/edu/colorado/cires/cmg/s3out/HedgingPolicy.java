@@ -0,0 +1,177 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a slow part upload should be hedged with a duplicate request. The threshold is a percentile of recently observed part upload
+ * latencies, scaled by part size, so it adapts to the current network conditions. Only parts at least half the typical part size are
+ * observed, since the latency of a small part, such as the last part of a stream, is mostly the fixed overhead of the request. The threshold
+ * is never less than a minimum delay, so small parts are not hedged as soon as they start. The number of duplicate requests is capped at a
+ * fraction of the part uploads started.
+ *
+ * <p>A policy can be used by a single {@link S3OutputStream} or shared by several, in which case latencies and the request budget are
+ * pooled.</p>
+ */
+public class HedgingPolicy {
+
+  private static final int WINDOW_SIZE = 128;
+  private static final double TYPICAL_SIZE_WEIGHT = 0.1D;
+  private static final double MIN_OBSERVED_SIZE = 0.5D;
+
+  /**
+   * Creates a new builder for a HedgingPolicy.
+   *
+   * @return a new builder for a HedgingPolicy
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link HedgingPolicy}.
+   */
+  public static class Builder {
+
+    private double percentile = 0.95D;
+    private int minSamples = 10;
+    private double maxExtraRequestRatio = 0.05D;
+    private long minDelayMillis = 50L;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the latency percentile after which a duplicate request is sent. Must be greater than 0 and less than 1. Default value: 0.95
+     *
+     * @param percentile the latency percentile after which a duplicate request is sent
+     * @return this Builder
+     */
+    public Builder percentile(double percentile) {
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * Sets the number of part uploads that must be observed before hedging starts. Must be at least 1. Default value: 10
+     *
+     * @param minSamples the number of part uploads observed before hedging starts
+     * @return this Builder
+     */
+    public Builder minSamples(int minSamples) {
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of duplicate requests as a fraction of the part uploads started. Must be greater than 0. Default value: 0.05
+     *
+     * @param maxExtraRequestRatio the maximum number of duplicate requests as a fraction of the part uploads started
+     * @return this Builder
+     */
+    public Builder maxExtraRequestRatio(double maxExtraRequestRatio) {
+      this.maxExtraRequestRatio = maxExtraRequestRatio;
+      return this;
+    }
+
+    /**
+     * Sets the minimum time a part upload runs before a duplicate request is sent. Must not be negative. Default value: 50
+     *
+     * @param minDelayMillis the minimum time in milliseconds a part upload runs before a duplicate request is sent
+     * @return this Builder
+     */
+    public Builder minDelayMillis(long minDelayMillis) {
+      this.minDelayMillis = minDelayMillis;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link HedgingPolicy}
+     *
+     * @return a new {@link HedgingPolicy}
+     */
+    public HedgingPolicy build() {
+      if (percentile <= 0D || percentile >= 1D) {
+        throw new IllegalArgumentException("Percentile must be greater than 0 and less than 1");
+      }
+      if (minSamples < 1) {
+        throw new IllegalArgumentException("Min samples must be at least 1");
+      }
+      if (maxExtraRequestRatio <= 0D) {
+        throw new IllegalArgumentException("Max extra request ratio must be greater than 0");
+      }
+      if (minDelayMillis < 0L) {
+        throw new IllegalArgumentException("Min delay millis must not be negative");
+      }
+      return new HedgingPolicy(percentile, Math.min(minSamples, WINDOW_SIZE), maxExtraRequestRatio, TimeUnit.MILLISECONDS.toNanos(minDelayMillis));
+    }
+  }
+
+  private final double percentile;
+  private final int minSamples;
+  private final double maxExtraRequestRatio;
+  private final long minDelayNanos;
+  private final double[] nanosPerByte = new double[WINDOW_SIZE];
+
+  private double typicalBytes;
+  private long samples;
+  private long requests;
+  private long hedgedRequests;
+
+  private HedgingPolicy(double percentile, int minSamples, double maxExtraRequestRatio, long minDelayNanos) {
+    this.percentile = percentile;
+    this.minSamples = minSamples;
+    this.maxExtraRequestRatio = maxExtraRequestRatio;
+    this.minDelayNanos = minDelayNanos;
+  }
+
+  /**
+   * Returns how long an upload of the given size may run before it is hedged, or -1 if not enough uploads have been observed. Also counts
+   * the upload towards the hedging budget.
+   */
+  synchronized long startUpload(int bytes) {
+    requests++;
+    int count = (int) Math.min(samples, WINDOW_SIZE);
+    if (count < minSamples) {
+      return -1L;
+    }
+    double[] sorted = Arrays.copyOf(nanosPerByte, count);
+    Arrays.sort(sorted);
+    int index = Math.min(count - 1, (int) Math.ceil(percentile * count) - 1);
+    return Math.max(minDelayNanos, (long) (sorted[Math.max(0, index)] * Math.max(1, bytes)));
+  }
+
+  /**
+   * Returns true if a duplicate request may be sent, counting it against the budget.
+   */
+  synchronized boolean tryHedge() {
+    if (hedgedRequests + 1 > maxExtraRequestRatio * requests) {
+      return false;
+    }
+    hedgedRequests++;
+    return true;
+  }
+
+  /**
+   * Records the latency of a successful upload. Uploads much smaller than the typical part size are not observed.
+   */
+  synchronized void recordLatency(int bytes, long nanos) {
+    boolean observed = typicalBytes <= 0D || bytes >= typicalBytes * MIN_OBSERVED_SIZE;
+    // every upload updates the typical size, so it follows part sizes that shrink over time
+    typicalBytes = typicalBytes <= 0D ? bytes : typicalBytes * (1D - TYPICAL_SIZE_WEIGHT) + bytes * TYPICAL_SIZE_WEIGHT;
+    if (observed) {
+      nanosPerByte[(int) (samples % WINDOW_SIZE)] = nanos / (double) Math.max(1, bytes);
+      samples++;
+    }
+  }
+
+  /**
+   * Returns the number of duplicate requests sent.
+   *
+   * @return the number of duplicate requests sent
+   */
+  public synchronized long getHedgedRequests() {
+    return hedgedRequests;
+  }
+}
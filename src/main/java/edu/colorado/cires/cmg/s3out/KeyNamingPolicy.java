@@ -0,0 +1,33 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Names the objects written by a {@link S3RollingOutputStream} or a {@link S3PackWriter}.
+ */
+public interface KeyNamingPolicy {
+
+  /**
+   * Creates a policy that names objects by UTC date and a sequence number, for example prefix/2026/10/16/part-00042.gz
+   *
+   * @param prefix the key prefix, without a trailing slash
+   * @param suffix the suffix appended to each key, for example a file extension such as ".gz"
+   * @return a date partitioned KeyNamingPolicy
+   */
+  static KeyNamingPolicy datePartitioned(String prefix, String suffix) {
+    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy/MM/dd").withZone(ZoneOffset.UTC);
+    return (index, start) -> String.format("%s/%s/part-%05d%s", prefix, formatter.format(start), index, suffix);
+  }
+
+  /**
+   * Returns the key for an object.
+   *
+   * @param index the sequence number of the object, starting at 0
+   * @param start the time the first byte was written to the object
+   * @return the key for the object
+   */
+  String keyFor(long index, Instant start);
+
+}
@@ -0,0 +1,94 @@
+package edu.colorado.cires.cmg.s3out;
+
+/**
+ * A snapshot of recorded latencies. Latencies are kept in buckets, so a percentile is reported as the largest latency in its bucket, which is
+ * within 12.5% of the actual latency and never more than the maximum.
+ *
+ * @see UploadStatistics#getPartLatency()
+ */
+public class LatencyHistogram {
+
+  private final long[] counts;
+  private final long count;
+  private final long maxNanos;
+
+  LatencyHistogram(long[] counts, long maxNanos) {
+    this.counts = counts;
+    long total = 0;
+    for (long bucketCount : counts) {
+      total += bucketCount;
+    }
+    this.count = total;
+    this.maxNanos = maxNanos;
+  }
+
+  /**
+   * Returns the number of latencies recorded.
+   *
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the largest latency recorded in nanoseconds, or 0 if none were recorded.
+   *
+   * @return the largest latency in nanoseconds
+   */
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  /**
+   * Returns the latency in nanoseconds at or below which the given percentage of latencies fall, or 0 if none were recorded.
+   *
+   * @param percentile the percentage, from 0 to 100
+   * @return the latency at the percentile in nanoseconds
+   */
+  public long getPercentileNanos(double percentile) {
+    if (percentile < 0D || percentile > 100D) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+    }
+    if (count == 0) {
+      return 0L;
+    }
+    long rank = Math.max(1L, (long) Math.ceil(percentile / 100D * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(LatencyRecorder.highestMicros(i) * 1000L + 999L, maxNanos);
+      }
+    }
+    return maxNanos;
+  }
+
+  /**
+   * Returns the median latency in nanoseconds, or 0 if none were recorded.
+   *
+   * @return the median latency in nanoseconds
+   */
+  public long getP50Nanos() {
+    return getPercentileNanos(50D);
+  }
+
+  /**
+   * Returns the 99th percentile latency in nanoseconds, or 0 if none were recorded.
+   *
+   * @return the 99th percentile latency in nanoseconds
+   */
+  public long getP99Nanos() {
+    return getPercentileNanos(99D);
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram{" +
+        "count=" + count +
+        ", p50Nanos=" + getP50Nanos() +
+        ", p99Nanos=" + getP99Nanos() +
+        ", maxNanos=" + maxNanos +
+        '}';
+  }
+}
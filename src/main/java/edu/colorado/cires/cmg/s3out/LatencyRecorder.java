@@ -0,0 +1,62 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies into a fixed set of log-linear buckets with microsecond resolution. Each power of two is divided into 8 buckets, so a
+ * recorded value is reported within 12.5% of its actual value.  Recording is lock-free and allocates nothing, and may be called from any
+ * thread.
+ */
+class LatencyRecorder {
+
+  // 8 buckets per power of two
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // latencies of 2^40 microseconds, about 12 days, or more are recorded in the last bucket
+  private static final int MAX_EXPONENT = 40;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Returns the index of the bucket holding a latency in microseconds.
+   */
+  static int bucket(long micros) {
+    long value = Math.min(Math.max(micros, 0L), (1L << MAX_EXPONENT) - 1L);
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+  }
+
+  /**
+   * Returns the largest latency in microseconds held by a bucket.
+   */
+  static long highestMicros(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long subBucket = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+    return ((subBucket + 1L) << shift) - 1L;
+  }
+
+  void record(long nanos) {
+    counts.incrementAndGet(bucket(nanos / 1000L));
+    max.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * Returns a copy of the latencies recorded so far. Latencies recorded while the copy is being made may or may not be included.
+   */
+  LatencyHistogram snapshot() {
+    long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new LatencyHistogram(copy, max.get());
+  }
+}
@@ -0,0 +1,67 @@
+package edu.colorado.cires.cmg.s3out;
+
+/**
+ * The location of a logical file written by a {@link S3PackWriter}: the pack object that contains it, its byte range within the pack, and
+ * the CRC-32 of its content.
+ */
+public class PackEntry {
+
+  private final String name;
+  private final String packKey;
+  private final long offset;
+  private final long length;
+  private final long checksum;
+
+  PackEntry(String name, String packKey, long offset, long length, long checksum) {
+    this.name = name;
+    this.packKey = packKey;
+    this.offset = offset;
+    this.length = length;
+    this.checksum = checksum;
+  }
+
+  /**
+   * Returns the name of the logical file.
+   *
+   * @return the name of the logical file
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the key of the pack object that contains the logical file.
+   *
+   * @return the key of the pack object
+   */
+  public String getPackKey() {
+    return packKey;
+  }
+
+  /**
+   * Returns the offset of the first byte of the logical file in the pack object.
+   *
+   * @return the offset of the logical file in the pack object
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Returns the length of the logical file in bytes.
+   *
+   * @return the length of the logical file in bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the CRC-32 of the content of the logical file.
+   *
+   * @return the CRC-32 of the logical file
+   */
+  public long getChecksum() {
+    return checksum;
+  }
+}
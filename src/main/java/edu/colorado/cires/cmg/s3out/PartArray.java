@@ -0,0 +1,55 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free array of per-part values indexed by part number - 1.  Storage is allocated in chunks of 64 parts as parts are set, so an
+ * upload of a few parts does not pay for the 10,000 part limit. Uploads finishing concurrently set their own elements without contending.
+ *
+ * @param <T> the element type
+ */
+class PartArray<T> {
+
+  private static final int CHUNK_BITS = 6;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final AtomicReferenceArray<AtomicReferenceArray<T>> chunks =
+      new AtomicReferenceArray<>((AdaptivePartSizer.MAX_PARTS + CHUNK_SIZE - 1) >> CHUNK_BITS);
+  // one more than the highest index set, so reads stop there
+  private final AtomicInteger length = new AtomicInteger();
+
+  void set(int index, T element) {
+    int chunkIndex = index >> CHUNK_BITS;
+    AtomicReferenceArray<T> chunk = chunks.get(chunkIndex);
+    if (chunk == null) {
+      AtomicReferenceArray<T> created = new AtomicReferenceArray<>(CHUNK_SIZE);
+      chunk = chunks.compareAndSet(chunkIndex, null, created) ? created : chunks.get(chunkIndex);
+    }
+    chunk.set(index & CHUNK_MASK, element);
+    length.accumulateAndGet(index + 1, Math::max);
+  }
+
+  T get(int index) {
+    AtomicReferenceArray<T> chunk = chunks.get(index >> CHUNK_BITS);
+    return chunk == null ? null : chunk.get(index & CHUNK_MASK);
+  }
+
+  /**
+   * Returns the elements that have been set, in index order.
+   */
+  List<T> present() {
+    int end = length.get();
+    List<T> elements = new ArrayList<>(end);
+    for (int i = 0; i < end; i++) {
+      T element = get(i);
+      if (element != null) {
+        elements.add(element);
+      }
+    }
+    return elements;
+  }
+}
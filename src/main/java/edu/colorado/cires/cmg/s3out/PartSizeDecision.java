@@ -0,0 +1,101 @@
+package edu.colorado.cires.cmg.s3out;
+
+/**
+ * Records a change of part size made by a {@link S3OutputStream} with adaptive part sizing enabled.
+ *
+ * @see S3OutputStream.Builder#adaptivePartSizeMib(int, int)
+ */
+public class PartSizeDecision {
+
+  /**
+   * The reason the part size was changed.
+   */
+  public enum Reason {
+    /**
+     * The part size the upload started with.
+     */
+    INITIAL,
+    /**
+     * The part size was increased because throughput improved, or was expected to improve, with larger parts.
+     */
+    GROW,
+    /**
+     * The part size was decreased because throughput improved, or was expected to improve, with smaller parts.
+     */
+    SHRINK,
+    /**
+     * The part size was increased so that the upload does not run out of part numbers.
+     */
+    PART_LIMIT
+  }
+
+  private final int partNumber;
+  private final int partSize;
+  private final double throughput;
+  private final double meanLatencyMillis;
+  private final Reason reason;
+
+  PartSizeDecision(int partNumber, int partSize, double throughput, double meanLatencyMillis, Reason reason) {
+    this.partNumber = partNumber;
+    this.partSize = partSize;
+    this.throughput = throughput;
+    this.meanLatencyMillis = meanLatencyMillis;
+    this.reason = reason;
+  }
+
+  /**
+   * Returns the number of the first part uploaded with the new part size.
+   *
+   * @return the number of the first part uploaded with the new part size
+   */
+  public int getPartNumber() {
+    return partNumber;
+  }
+
+  /**
+   * Returns the new part size in bytes.
+   *
+   * @return the new part size in bytes
+   */
+  public int getPartSize() {
+    return partSize;
+  }
+
+  /**
+   * Returns the measured throughput in bytes per second with the previous part size, or 0 if nothing was measured.
+   *
+   * @return the measured throughput in bytes per second
+   */
+  public double getThroughput() {
+    return throughput;
+  }
+
+  /**
+   * Returns the mean part upload latency in milliseconds with the previous part size, or 0 if nothing was measured.
+   *
+   * @return the mean part upload latency in milliseconds
+   */
+  public double getMeanLatencyMillis() {
+    return meanLatencyMillis;
+  }
+
+  /**
+   * Returns the reason the part size was changed.
+   *
+   * @return the reason the part size was changed
+   */
+  public Reason getReason() {
+    return reason;
+  }
+
+  @Override
+  public String toString() {
+    return "PartSizeDecision{" +
+        "partNumber=" + partNumber +
+        ", partSize=" + partSize +
+        ", throughput=" + throughput +
+        ", meanLatencyMillis=" + meanLatencyMillis +
+        ", reason=" + reason +
+        '}';
+  }
+}
@@ -0,0 +1,132 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An index of the record groups in an object written by a {@link S3RecordOutputStream}. A record group holds the records that start in one
+ * part of the object.  Group i spans the bytes from {@link #getGroupOffset(int)} up to the offset of the next group, or the end of the object,
+ * and contains whole records only, so each group can be read with a single ranged GET and processed independently.
+ *
+ * <p>The index is stored as a companion object in a compact binary format: the magic bytes "S3RI", a format version, the number of groups,
+ * the object length, the record count, then the offset and first record number of each group. All numbers are big-endian.</p>
+ */
+public class RecordIndex {
+
+  private static final int MAGIC = 0x53335249;
+  private static final int VERSION = 1;
+
+  private final long[] offsets;
+  private final long[] firstRecords;
+  private final long length;
+  private final long recordCount;
+
+  RecordIndex(long[] offsets, long[] firstRecords, long length, long recordCount) {
+    this.offsets = offsets;
+    this.firstRecords = firstRecords;
+    this.length = length;
+    this.recordCount = recordCount;
+  }
+
+  /**
+   * Reads an index from an {@link InputStream}. The stream is not closed.
+   *
+   * @param in the {@link InputStream} containing the index
+   * @return the RecordIndex
+   * @throws IOException if the stream cannot be read or does not contain an index
+   */
+  public static RecordIndex read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a record index");
+    }
+    int version = data.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported record index version: " + version);
+    }
+    int groups = data.readInt();
+    long length = data.readLong();
+    long recordCount = data.readLong();
+    long[] offsets = new long[groups];
+    long[] firstRecords = new long[groups];
+    for (int i = 0; i < groups; i++) {
+      offsets[i] = data.readLong();
+      firstRecords[i] = data.readLong();
+    }
+    return new RecordIndex(offsets, firstRecords, length, recordCount);
+  }
+
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(offsets.length);
+    data.writeLong(length);
+    data.writeLong(recordCount);
+    for (int i = 0; i < offsets.length; i++) {
+      data.writeLong(offsets[i]);
+      data.writeLong(firstRecords[i]);
+    }
+    data.flush();
+  }
+
+  /**
+   * Returns the number of record groups.
+   *
+   * @return the number of record groups
+   */
+  public int getGroupCount() {
+    return offsets.length;
+  }
+
+  /**
+   * Returns the byte offset in the object of the first record of a group.
+   *
+   * @param group the group index
+   * @return the byte offset of the group
+   */
+  public long getGroupOffset(int group) {
+    return offsets[group];
+  }
+
+  /**
+   * Returns the number of bytes in a group.
+   *
+   * @param group the group index
+   * @return the number of bytes in the group
+   */
+  public long getGroupLength(int group) {
+    return (group + 1 < offsets.length ? offsets[group + 1] : length) - offsets[group];
+  }
+
+  /**
+   * Returns the number, counting from 0, of the first record in a group.
+   *
+   * @param group the group index
+   * @return the number of the first record in the group
+   */
+  public long getFirstRecord(int group) {
+    return firstRecords[group];
+  }
+
+  /**
+   * Returns the length of the indexed object.
+   *
+   * @return the length of the indexed object in bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the number of records in the indexed object.
+   *
+   * @return the number of records
+   */
+  public long getRecordCount() {
+    return recordCount;
+  }
+}
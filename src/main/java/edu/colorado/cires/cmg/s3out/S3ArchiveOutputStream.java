@@ -0,0 +1,768 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} that writes a ZIP or TAR archive directly into a multipart upload. Entries are started with
+ * {@link #putNextEntry(String, long)}, their content is written to this stream, and they are finished with {@link #closeEntry()}, in the same
+ * way as a {@link java.util.zip.ZipOutputStream}.
+ *
+ * <p>ZIP entries are compressed on a pool of threads. The content of each entry is split into fixed-size chunks that are deflated
+ * independently, each using the end of the previous chunk as a preset dictionary, and the compressed chunks are written in order. Entries
+ * are written with data descriptors, so their size does not need to be known in advance, and the ZIP64 extensions are used when sizes,
+ * offsets, or the number of entries exceed the limits of the original format. The central directory is written when the stream is
+ * closed.  Because the local header of an entry is written before its content, an entry of 4 GiB or more must be given its size when it
+ * is started, so that the header can declare the ZIP64 sizes that follow in its data descriptor. Entries are given ZIP64 sizes when the
+ * worst case compressed size of the size given reaches 4 GiB, so incompressible content just under 4 GiB still fits.</p>
+ *
+ * <p>TAR archives are written in the POSIX ustar format, with PAX headers for long names and base-256 sizes for entries of 8 GiB or more.
+ * TAR entries are not compressed and their size must be given when they are started.</p>
+ */
+public class S3ArchiveOutputStream extends OutputStream {
+
+  /**
+   * The archive format.
+   */
+  public enum Format {
+    /**
+     * A ZIP archive with deflated entries.
+     */
+    ZIP,
+    /**
+     * An uncompressed POSIX ustar archive.
+     */
+    TAR
+  }
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+  private static final int CHUNK_SIZE = 1024 * 1024;
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+  private static final int FLAG_UTF8 = 0x0800;
+  private static final int METHOD_DEFLATED = 8;
+  private static final int VERSION_DEFAULT = 20;
+  private static final int VERSION_ZIP64 = 45;
+
+  private static final int TAR_BLOCK_SIZE = 512;
+  private static final long TAR_MAX_OCTAL_SIZE = 077777777777L;
+
+  /**
+   * Creates a new builder for a S3ArchiveOutputStream.
+   *
+   * @return a new builder for a S3ArchiveOutputStream
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3ArchiveOutputStream}.
+   */
+  public static class Builder {
+
+    private S3ClientMultipartUpload s3;
+    private MultipartUploadRequest uploadRequest;
+    private Format format = Format.ZIP;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionThreads = Runtime.getRuntime().availableProcessors();
+    private int partSizeMib = 5;
+    private int uploadQueueSize = 1;
+    private boolean autoComplete = true;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientMultipartUpload} object for the {@link S3ArchiveOutputStream}. Required.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientMultipartUpload s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the {@link MultipartUploadRequest} for the archive object. Required.
+     *
+     * @param uploadRequest the {@link MultipartUploadRequest}
+     * @return this Builder
+     */
+    public Builder uploadRequest(MultipartUploadRequest uploadRequest) {
+      this.uploadRequest = uploadRequest;
+      return this;
+    }
+
+    /**
+     * Sets the archive format. Default value: {@link Format#ZIP}
+     *
+     * @param format the archive format
+     * @return this Builder
+     */
+    public Builder format(Format format) {
+      this.format = format;
+      return this;
+    }
+
+    /**
+     * Sets the compression level for ZIP entries, from 0 to 9, or -1 for the default level. Default value: -1
+     *
+     * @param compressionLevel the compression level
+     * @return this Builder
+     */
+    public Builder compressionLevel(int compressionLevel) {
+      this.compressionLevel = compressionLevel;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads that compress ZIP entries. Must be at least 1. Default value: the number of available processors
+     *
+     * @param compressionThreads the number of compression threads
+     * @return this Builder
+     */
+    public Builder compressionThreads(int compressionThreads) {
+      this.compressionThreads = compressionThreads;
+      return this;
+    }
+
+    /**
+     * Sets the part size of the underlying {@link S3OutputStream}.
+     *
+     * @param partSizeMib the part size in MiB
+     * @return this Builder
+     * @see S3OutputStream.Builder#partSizeMib(int)
+     */
+    public Builder partSizeMib(int partSizeMib) {
+      this.partSizeMib = partSizeMib;
+      return this;
+    }
+
+    /**
+     * Sets the upload queue size of the underlying {@link S3OutputStream}.
+     *
+     * @param uploadQueueSize the max number of buffers in the queue before blocking
+     * @return this Builder
+     * @see S3OutputStream.Builder#uploadQueueSize(int)
+     */
+    public Builder uploadQueueSize(int uploadQueueSize) {
+      this.uploadQueueSize = uploadQueueSize;
+      return this;
+    }
+
+    /**
+     * Controls completion of the archive when the stream is closed, in the same way as for a {@link S3OutputStream}. If the upload is not
+     * completed, the central directory is not written. Enabled by default.
+     *
+     * @param autoComplete true to enable autocompletion
+     * @return this Builder
+     * @see S3OutputStream.Builder#autoComplete(boolean)
+     */
+    public Builder autoComplete(boolean autoComplete) {
+      this.autoComplete = autoComplete;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3ArchiveOutputStream}
+     *
+     * @return a new {@link S3ArchiveOutputStream}
+     */
+    public S3ArchiveOutputStream build() {
+      if (format == null) {
+        throw new IllegalArgumentException("Format is required");
+      }
+      if (compressionLevel < -1 || compressionLevel > 9) {
+        throw new IllegalArgumentException("Compression level must be between -1 and 9");
+      }
+      if (compressionThreads < 1) {
+        throw new IllegalArgumentException("Compression threads must be at least 1");
+      }
+      S3OutputStream out = S3OutputStream.builder()
+          .s3(s3)
+          .uploadRequest(uploadRequest)
+          .partSizeMib(partSizeMib)
+          .uploadQueueSize(uploadQueueSize)
+          .autoComplete(false)
+          .build();
+      return new S3ArchiveOutputStream(out, format, compressionLevel, compressionThreads, CHUNK_SIZE, autoComplete);
+    }
+  }
+
+  private static class Entry {
+
+    private final byte[] name;
+    private final long size;
+    // the local header declares ZIP64 sizes, so the data descriptor must use them
+    private final boolean zip64Sizes;
+    private final long modified;
+    private final boolean directory;
+    private final CRC32 crc = new CRC32();
+    private long uncompressedSize;
+    private long compressedSize;
+    private long offset;
+
+    private Entry(String name, long size, boolean zip64Sizes, long modified) {
+      this.name = name.getBytes(StandardCharsets.UTF_8);
+      this.size = size;
+      this.zip64Sizes = zip64Sizes;
+      this.modified = modified;
+      directory = name.endsWith("/");
+    }
+
+    private boolean zip64() {
+      return uncompressedSize >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC || offset >= ZIP64_MAGIC;
+    }
+  }
+
+  private enum Kind {
+    LOCAL_HEADER,
+    DATA,
+    DATA_DESCRIPTOR
+  }
+
+  /**
+   * A piece of the archive that is written in order once its bytes are available.
+   */
+  private static class Pending {
+
+    private final Kind kind;
+    private final Entry entry;
+    private final Future<byte[]> data;
+
+    private Pending(Kind kind, Entry entry, Future<byte[]> data) {
+      this.kind = kind;
+      this.entry = entry;
+      this.data = data;
+    }
+  }
+
+  private final S3OutputStream out;
+  private final Format format;
+  private final int compressionLevel;
+  private final int chunkSize;
+  private final int maxPending;
+  private final ExecutorService compressionExecutor;
+  private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+  private final List<Entry> entries = new ArrayList<>();
+  private final byte[] single = new byte[1];
+
+  private Entry entry;
+  private byte[] chunk;
+  private int chunkPosition;
+  private byte[] previousChunk;
+  private long position;
+  private boolean complete;
+  private boolean closed;
+
+  S3ArchiveOutputStream(S3OutputStream out, Format format, int compressionLevel, int compressionThreads, int chunkSize, boolean autoComplete) {
+    this.out = out;
+    this.format = format;
+    this.compressionLevel = compressionLevel;
+    this.chunkSize = chunkSize;
+    maxPending = compressionThreads * 2;
+    complete = autoComplete;
+    compressionExecutor = format == Format.ZIP ? Executors.newFixedThreadPool(compressionThreads, runnable -> {
+      Thread thread = new Thread(runnable, "s3-archive-output-stream-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+  }
+
+  /**
+   * Starts a new entry of unknown size, closing the current entry if there is one. Only supported for ZIP archives. Names ending in "/"
+   * are directories.
+   *
+   * @param name the name of the entry
+   * @throws IOException if an I/O error occurs
+   */
+  public void putNextEntry(String name) throws IOException {
+    putNextEntry(name, -1L);
+  }
+
+  /**
+   * Starts a new entry, closing the current entry if there is one. Names ending in "/" are directories.
+   *
+   * @param name the name of the entry
+   * @param size the number of bytes that will be written to the entry, or -1 if unknown. Required for TAR archives.
+   * @throws IOException if an I/O error occurs
+   */
+  public void putNextEntry(String name, long size) throws IOException {
+    if (closed) {
+      throw new IOException("Stream is closed");
+    }
+    if (format == Format.TAR && size < 0L) {
+      throw new IllegalArgumentException("Size is required for TAR entries");
+    }
+    if (entry != null) {
+      closeEntry();
+    }
+    entry = new Entry(name, size, size >= 0L && maxCompressedSize(size, chunkSize) >= ZIP64_MAGIC, System.currentTimeMillis());
+    if (format == Format.ZIP) {
+      enqueue(new Pending(Kind.LOCAL_HEADER, entry, null));
+      chunk = new byte[chunkSize];
+      chunkPosition = 0;
+      previousChunk = null;
+    } else {
+      writeArchive(tarHeaders(entry));
+    }
+  }
+
+  /**
+   * Finishes the current entry.
+   *
+   * @throws IOException if an I/O error occurs, or if the number of bytes written to the entry does not match its size
+   */
+  public void closeEntry() throws IOException {
+    if (entry == null) {
+      return;
+    }
+    Entry closing = entry;
+    entry = null;
+    if (closing.size >= 0L && closing.uncompressedSize != closing.size) {
+      throw new IOException("Entry " + new String(closing.name, StandardCharsets.UTF_8) + " has size " + closing.size + " but "
+          + closing.uncompressedSize + " bytes were written");
+    }
+    if (format == Format.ZIP) {
+      submitChunk(closing, true);
+      chunk = null;
+      previousChunk = null;
+      enqueue(new Pending(Kind.DATA_DESCRIPTOR, closing, null));
+    } else {
+      int padding = (int) (-closing.uncompressedSize & (TAR_BLOCK_SIZE - 1));
+      writeArchive(new byte[padding]);
+    }
+    entries.add(closing);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException();
+    } else if ((off < 0) || (off > b.length) || (len < 0) ||
+        ((off + len) > b.length) || ((off + len) < 0)) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return;
+    }
+    if (entry == null) {
+      throw new IOException("No current entry");
+    }
+    if (entry.size >= 0L && entry.uncompressedSize + len > entry.size) {
+      throw new IOException("Entry " + new String(entry.name, StandardCharsets.UTF_8) + " is larger than its size " + entry.size);
+    }
+    if (format == Format.ZIP && !entry.zip64Sizes && entry.uncompressedSize + len >= ZIP64_MAGIC) {
+      throw tooLarge(entry);
+    }
+    entry.uncompressedSize += len;
+    if (format == Format.TAR) {
+      out.write(b, off, len);
+      position += len;
+      return;
+    }
+    entry.crc.update(b, off, len);
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0) {
+      int n = Math.min(remaining, chunk.length - chunkPosition);
+      System.arraycopy(b, offset, chunk, chunkPosition, n);
+      chunkPosition += n;
+      offset += n;
+      remaining -= n;
+      if (chunkPosition == chunk.length) {
+        submitChunk(entry, false);
+        chunk = new byte[chunkSize];
+        chunkPosition = 0;
+      }
+    }
+  }
+
+  /**
+   * If autocomplete is disabled, marks the upload as successful.
+   *
+   * @see Builder#autoComplete(boolean)
+   */
+  public void done() {
+    complete = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (complete) {
+        closeEntry();
+        drain(true);
+        if (format == Format.ZIP) {
+          writeCentralDirectory();
+        } else {
+          writeArchive(new byte[TAR_BLOCK_SIZE * 2]);
+        }
+        out.done();
+      }
+    } finally {
+      if (compressionExecutor != null) {
+        compressionExecutor.shutdownNow();
+      }
+      out.close();
+    }
+  }
+
+  private void submitChunk(Entry owner, boolean last) throws IOException {
+    final byte[] input = chunk;
+    final int length = chunkPosition;
+    final byte[] dictionary = previousChunk;
+    previousChunk = input;
+    Future<byte[]> data = compressionExecutor.submit(() -> deflate(input, length, dictionary, last));
+    enqueue(new Pending(Kind.DATA, owner, data));
+  }
+
+  private byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last) {
+    Deflater deflater = new Deflater(compressionLevel, true);
+    try {
+      if (dictionary != null) {
+        int dictionarySize = Math.min(DICTIONARY_SIZE, dictionary.length);
+        deflater.setDictionary(dictionary, dictionary.length - dictionarySize, dictionarySize);
+      }
+      deflater.setInput(input, 0, length);
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 2));
+      byte[] buffer = new byte[64 * 1024];
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+      } else {
+        // a sync flush ends the chunk on a byte boundary without ending the deflate stream
+        int n;
+        do {
+          n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          compressed.write(buffer, 0, n);
+        } while (n == buffer.length);
+      }
+      return compressed.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private void enqueue(Pending item) throws IOException {
+    pending.addLast(item);
+    drain(false);
+  }
+
+  /**
+   * Writes pending pieces of the archive in order, while they are ready or while too many are waiting.
+   */
+  private void drain(boolean all) throws IOException {
+    while (!pending.isEmpty()) {
+      Pending item = pending.peekFirst();
+      if (!all && pending.size() <= maxPending && item.data != null && !item.data.isDone()) {
+        return;
+      }
+      pending.removeFirst();
+      switch (item.kind) {
+        case LOCAL_HEADER:
+          item.entry.offset = position;
+          writeArchive(localHeader(item.entry));
+          break;
+        case DATA:
+          byte[] data = get(item.data);
+          item.entry.compressedSize += data.length;
+          if (!item.entry.zip64Sizes && item.entry.compressedSize >= ZIP64_MAGIC) {
+            throw tooLarge(item.entry);
+          }
+          writeArchive(data);
+          break;
+        default:
+          writeArchive(dataDescriptor(item.entry));
+          break;
+      }
+    }
+  }
+
+  /**
+   * Returns an upper bound on the compressed size of an entry: the worst case expansion of deflate, plus the empty block that ends each
+   * chunk and the block header a chunk may start with. An entry that could reach 4 GiB compressed declares ZIP64 sizes in its local header.
+   */
+  static long maxCompressedSize(long size, int chunkSize) {
+    long chunks = size / chunkSize + 1L;
+    return size + (size >> 5) + (size >> 7) + (size >> 11) + chunks * 32L;
+  }
+
+  private static IOException tooLarge(Entry entry) {
+    return new IOException("Entry " + new String(entry.name, StandardCharsets.UTF_8) + " is 4 GiB or larger, its size must be given to "
+        + "putNextEntry");
+  }
+
+  private static byte[] get(Future<byte[]> data) throws IOException {
+    try {
+      return data.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Compression was interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to compress entry", e.getCause());
+    }
+  }
+
+  private void writeArchive(byte[] bytes) throws IOException {
+    out.write(bytes);
+    position += bytes.length;
+  }
+
+  private static ByteBuffer littleEndian(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static long dosTime(long millis) {
+    LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    if (time.getYear() < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (long) (time.getYear() - 1980) << 25
+        | time.getMonthValue() << 21
+        | time.getDayOfMonth() << 16
+        | time.getHour() << 11
+        | time.getMinute() << 5
+        | time.getSecond() >> 1;
+  }
+
+  private static byte[] localHeader(Entry entry) {
+    // sizes and CRC follow the data in a data descriptor, a ZIP64 header marks its sizes and gives them as 0 in the extra field
+    int extraLength = entry.zip64Sizes ? 20 : 0;
+    ByteBuffer header = littleEndian(30 + entry.name.length + extraLength);
+    header.putInt(0x04034b50);
+    header.putShort((short) (entry.zip64Sizes ? VERSION_ZIP64 : VERSION_DEFAULT));
+    header.putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8));
+    header.putShort((short) METHOD_DEFLATED);
+    header.putInt((int) dosTime(entry.modified));
+    header.putInt(0);
+    header.putInt(entry.zip64Sizes ? (int) ZIP64_MAGIC : 0);
+    header.putInt(entry.zip64Sizes ? (int) ZIP64_MAGIC : 0);
+    header.putShort((short) entry.name.length);
+    header.putShort((short) extraLength);
+    header.put(entry.name);
+    if (entry.zip64Sizes) {
+      header.putShort((short) 0x0001);
+      header.putShort((short) 16);
+      header.putLong(0L);
+      header.putLong(0L);
+    }
+    return header.array();
+  }
+
+  private static byte[] dataDescriptor(Entry entry) {
+    ByteBuffer descriptor = littleEndian(entry.zip64Sizes ? 24 : 16);
+    descriptor.putInt(0x08074b50);
+    descriptor.putInt((int) entry.crc.getValue());
+    if (entry.zip64Sizes) {
+      descriptor.putLong(entry.compressedSize);
+      descriptor.putLong(entry.uncompressedSize);
+    } else {
+      descriptor.putInt((int) entry.compressedSize);
+      descriptor.putInt((int) entry.uncompressedSize);
+    }
+    return descriptor.array();
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    long centralDirectoryOffset = position;
+    for (Entry e : entries) {
+      writeArchive(centralDirectoryHeader(e));
+    }
+    long centralDirectorySize = position - centralDirectoryOffset;
+    int count = entries.size();
+    boolean zip64 = count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+    if (zip64) {
+      long zip64EndOffset = position;
+      ByteBuffer end = littleEndian(56 + 20);
+      end.putInt(0x06064b50);
+      end.putLong(44L);
+      end.putShort((short) VERSION_ZIP64);
+      end.putShort((short) VERSION_ZIP64);
+      end.putInt(0);
+      end.putInt(0);
+      end.putLong(count);
+      end.putLong(count);
+      end.putLong(centralDirectorySize);
+      end.putLong(centralDirectoryOffset);
+      end.putInt(0x07064b50);
+      end.putInt(0);
+      end.putLong(zip64EndOffset);
+      end.putInt(1);
+      writeArchive(end.array());
+    }
+    ByteBuffer end = littleEndian(22);
+    end.putInt(0x06054b50);
+    end.putShort((short) 0);
+    end.putShort((short) 0);
+    end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+    end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+    end.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+    end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+    end.putShort((short) 0);
+    writeArchive(end.array());
+  }
+
+  private static byte[] centralDirectoryHeader(Entry entry) {
+    boolean zip64 = entry.zip64();
+    int extraLength = 0;
+    if (zip64) {
+      extraLength = 4 + (entry.uncompressedSize >= ZIP64_MAGIC ? 8 : 0) + (entry.compressedSize >= ZIP64_MAGIC ? 8 : 0)
+          + (entry.offset >= ZIP64_MAGIC ? 8 : 0);
+    }
+    int version = zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+    ByteBuffer header = littleEndian(46 + entry.name.length + extraLength);
+    header.putInt(0x02014b50);
+    header.putShort((short) version);
+    header.putShort((short) version);
+    header.putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8));
+    header.putShort((short) METHOD_DEFLATED);
+    header.putInt((int) dosTime(entry.modified));
+    header.putInt((int) entry.crc.getValue());
+    header.putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC));
+    header.putInt((int) Math.min(entry.uncompressedSize, ZIP64_MAGIC));
+    header.putShort((short) entry.name.length);
+    header.putShort((short) extraLength);
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+    header.putInt(entry.directory ? 0x10 : 0);
+    header.putInt((int) Math.min(entry.offset, ZIP64_MAGIC));
+    header.put(entry.name);
+    if (zip64) {
+      header.putShort((short) 0x0001);
+      header.putShort((short) (extraLength - 4));
+      if (entry.uncompressedSize >= ZIP64_MAGIC) {
+        header.putLong(entry.uncompressedSize);
+      }
+      if (entry.compressedSize >= ZIP64_MAGIC) {
+        header.putLong(entry.compressedSize);
+      }
+      if (entry.offset >= ZIP64_MAGIC) {
+        header.putLong(entry.offset);
+      }
+    }
+    return header.array();
+  }
+
+  private static byte[] tarHeaders(Entry entry) {
+    String name = new String(entry.name, StandardCharsets.UTF_8);
+    int split = ustarSplit(entry.name);
+    if (split >= 0) {
+      return tarHeader(Arrays.copyOfRange(entry.name, split == 0 ? 0 : split + 1, entry.name.length),
+          Arrays.copyOfRange(entry.name, 0, split), entry.directory ? '5' : '0', entry.size, entry.modified);
+    }
+    // names that do not fit the ustar fields are carried in a PAX extended header
+    byte[] record = paxRecord("path", name);
+    String shortName = name.substring(Math.max(0, name.length() - 100)).replaceAll("[^\\x20-\\x7e]", "_");
+    byte[] shortNameBytes = shortName.getBytes(StandardCharsets.US_ASCII);
+    ByteBuffer headers = ByteBuffer.allocate(TAR_BLOCK_SIZE * 2 + record.length + (-record.length & (TAR_BLOCK_SIZE - 1)));
+    headers.put(tarHeader(("PaxHeaders/" + shortName.substring(Math.max(0, shortName.length() - 89))).getBytes(StandardCharsets.US_ASCII),
+        new byte[0], 'x', record.length, entry.modified));
+    headers.put(record);
+    headers.position(headers.position() + (-record.length & (TAR_BLOCK_SIZE - 1)));
+    headers.put(tarHeader(shortNameBytes, new byte[0], entry.directory ? '5' : '0', entry.size, entry.modified));
+    return headers.array();
+  }
+
+  /**
+   * Returns 0 if the name fits the ustar name field, the index of the "/" that splits it into the prefix and name fields, or -1 if it does
+   * not fit.
+   */
+  private static int ustarSplit(byte[] name) {
+    if (name.length <= 100) {
+      return 0;
+    }
+    for (int i = Math.min(name.length - 2, 155); i > 0; i--) {
+      if (name[i] == '/' && name.length - i - 1 <= 100) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static byte[] paxRecord(String key, String value) {
+    byte[] content = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    // the length prefix counts its own digits
+    int length = content.length + 1;
+    while (length != content.length + Integer.toString(length).length()) {
+      length = content.length + Integer.toString(length).length();
+    }
+    byte[] prefix = Integer.toString(length).getBytes(StandardCharsets.US_ASCII);
+    byte[] record = Arrays.copyOf(prefix, length);
+    System.arraycopy(content, 0, record, prefix.length, content.length);
+    return record;
+  }
+
+  private static byte[] tarHeader(byte[] name, byte[] prefix, char type, long size, long modified) {
+    byte[] header = new byte[TAR_BLOCK_SIZE];
+    System.arraycopy(name, 0, header, 0, name.length);
+    octal(header, 100, 8, type == '5' ? 0755 : 0644);
+    octal(header, 108, 8, 0);
+    octal(header, 116, 8, 0);
+    if (size > TAR_MAX_OCTAL_SIZE) {
+      // base-256 encoding, marked by the high bit of the first byte
+      header[124] = (byte) 0x80;
+      for (int i = 0; i < 8; i++) {
+        header[135 - i] = (byte) (size >>> (8 * i));
+      }
+    } else {
+      octal(header, 124, 12, size);
+    }
+    octal(header, 136, 12, modified / 1000L);
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    header[156] = (byte) type;
+    System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+    System.arraycopy(prefix, 0, header, 345, prefix.length);
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xFF;
+    }
+    octal(header, 148, 7, checksum);
+    return header;
+  }
+
+  private static void octal(byte[] header, int offset, int length, long value) {
+    String digits = Long.toOctalString(value);
+    int pad = length - 1 - digits.length();
+    for (int i = 0; i < length - 1; i++) {
+      header[offset + i] = (byte) (i < pad ? '0' : digits.charAt(i - pad));
+    }
+    header[offset + length - 1] = 0;
+  }
+}
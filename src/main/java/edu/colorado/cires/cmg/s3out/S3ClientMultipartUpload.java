@@ -64,6 +64,20 @@ public interface S3ClientMultipartUpload {
    */
   void completeMultipartUpload(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts);
 
+  /**
+   * Triggers completion of the multipart upload and returns the ETag of the assembled object.
+   *
+   * @param bucket the bucket name
+   * @param key the key where a file will be uploaded to in the bucket
+   * @param uploadId the upload ID for the initiated upload
+   * @param completedParts a collection of {@link CompletedPart} for all the parts uploaded
+   * @return the ETag of the assembled object, or null if it is not available
+   */
+  default String completeMultipartUploadWithETag(String bucket, String key, String uploadId, Collection<CompletedPart> completedParts) {
+    completeMultipartUpload(bucket, key, uploadId, completedParts);
+    return null;
+  }
+
   /**
    * Signals an abortion of a multipart upload.
    *
@@ -0,0 +1,42 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.nio.ByteBuffer;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Acts as a wrapper around a {@link S3Client} for reading byte ranges of an object, which allows for implementations that could
+ * allow for testing or custom behavior. This is the read side counterpart of {@link S3ClientMultipartUpload}.
+ */
+public interface S3ClientRangeRead {
+
+  /**
+   * Creates a default S3ClientRangeRead that should work for most scenarios.
+   *
+   * @param s3 the {@link S3Client} to access a S3 bucket
+   * @return a default implementation of S3ClientRangeRead
+   */
+  static S3ClientRangeRead createDefault(S3Client s3) {
+    return AwsS3ClientRangeRead.builder().s3(s3).build();
+  }
+
+  /**
+   * Returns the size of an object in bytes.
+   *
+   * @param bucket the bucket name
+   * @param key the key of the object in the bucket
+   * @return the size of the object in bytes
+   */
+  long getObjectLength(String bucket, String key);
+
+  /**
+   * Reads a range of bytes from an object. Bytes are read starting at the given position in the object into the buffer until the buffer has no
+   * remaining space or the end of the object is reached.
+   *
+   * @param bucket the bucket name
+   * @param key the key of the object in the bucket
+   * @param position the offset in the object of the first byte to read
+   * @param buffer a {@link ByteBuffer} that will receive the bytes read
+   * @return the number of bytes read
+   */
+  int readRange(String bucket, String key, long position, ByteBuffer buffer);
+}
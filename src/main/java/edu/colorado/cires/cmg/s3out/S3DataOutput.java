@@ -0,0 +1,205 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataOutput} view of a {@link S3OutputStream}. Primitives and strings are encoded directly into the current part buffer when they
+ * fit, rather than one byte at a time as with a {@link java.io.DataOutputStream}.  Values that straddle a part boundary are encoded into a
+ * small scratch array and written through the stream. The encoding is the same as {@link java.io.DataOutputStream}.
+ *
+ * @see S3OutputStream#dataOutput()
+ */
+public class S3DataOutput implements DataOutput, Closeable {
+
+  private final S3OutputStream outputStream;
+  private final byte[] scratch = new byte[8];
+
+  S3DataOutput(S3OutputStream outputStream) {
+    this.outputStream = outputStream;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    outputStream.write(b);
+  }
+
+  @Override
+  public void write(byte[] b) throws IOException {
+    outputStream.write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    outputStream.write(b, off, len);
+  }
+
+  @Override
+  public void writeBoolean(boolean v) throws IOException {
+    outputStream.write(v ? 1 : 0);
+  }
+
+  @Override
+  public void writeByte(int v) throws IOException {
+    outputStream.write(v);
+  }
+
+  @Override
+  public void writeShort(int v) throws IOException {
+    ByteBuffer buffer = outputStream.partBuffer(2);
+    if (buffer != null) {
+      buffer.putShort((short) v);
+    } else {
+      scratch[0] = (byte) (v >>> 8);
+      scratch[1] = (byte) v;
+      outputStream.write(scratch, 0, 2);
+    }
+  }
+
+  @Override
+  public void writeChar(int v) throws IOException {
+    writeShort(v);
+  }
+
+  @Override
+  public void writeInt(int v) throws IOException {
+    ByteBuffer buffer = outputStream.partBuffer(4);
+    if (buffer != null) {
+      buffer.putInt(v);
+    } else {
+      scratch[0] = (byte) (v >>> 24);
+      scratch[1] = (byte) (v >>> 16);
+      scratch[2] = (byte) (v >>> 8);
+      scratch[3] = (byte) v;
+      outputStream.write(scratch, 0, 4);
+    }
+  }
+
+  @Override
+  public void writeLong(long v) throws IOException {
+    ByteBuffer buffer = outputStream.partBuffer(8);
+    if (buffer != null) {
+      buffer.putLong(v);
+    } else {
+      for (int i = 0; i < 8; i++) {
+        scratch[i] = (byte) (v >>> (56 - 8 * i));
+      }
+      outputStream.write(scratch, 0, 8);
+    }
+  }
+
+  @Override
+  public void writeFloat(float v) throws IOException {
+    writeInt(Float.floatToIntBits(v));
+  }
+
+  @Override
+  public void writeDouble(double v) throws IOException {
+    writeLong(Double.doubleToLongBits(v));
+  }
+
+  @Override
+  public void writeBytes(String s) throws IOException {
+    int len = s.length();
+    ByteBuffer buffer = outputStream.partBuffer(len);
+    if (buffer != null) {
+      for (int i = 0; i < len; i++) {
+        buffer.put((byte) s.charAt(i));
+      }
+    } else {
+      for (int i = 0; i < len; i++) {
+        outputStream.write(s.charAt(i));
+      }
+    }
+  }
+
+  @Override
+  public void writeChars(String s) throws IOException {
+    int len = s.length();
+    ByteBuffer buffer = outputStream.partBuffer(len * 2);
+    if (buffer != null) {
+      for (int i = 0; i < len; i++) {
+        buffer.putChar(s.charAt(i));
+      }
+    } else {
+      for (int i = 0; i < len; i++) {
+        writeChar(s.charAt(i));
+      }
+    }
+  }
+
+  @Override
+  public void writeUTF(String s) throws IOException {
+    int len = s.length();
+    int utfLength = 0;
+    for (int i = 0; i < len; i++) {
+      utfLength += utfLength(s.charAt(i));
+    }
+    if (utfLength > 65535) {
+      throw new UTFDataFormatException("encoded string too long: " + utfLength + " bytes");
+    }
+    ByteBuffer buffer = outputStream.partBuffer(utfLength + 2);
+    if (buffer != null) {
+      buffer.putShort((short) utfLength);
+      if (utfLength == len) {
+        for (int i = 0; i < len; i++) {
+          buffer.put((byte) s.charAt(i));
+        }
+      } else {
+        for (int i = 0; i < len; i++) {
+          encode(buffer, s.charAt(i));
+        }
+      }
+    } else {
+      ByteBuffer encoded = ByteBuffer.allocate(utfLength + 2);
+      encoded.putShort((short) utfLength);
+      for (int i = 0; i < len; i++) {
+        encode(encoded, s.charAt(i));
+      }
+      outputStream.write(encoded.array(), 0, encoded.position());
+    }
+  }
+
+  private static int utfLength(char c) {
+    if (c >= 0x0001 && c <= 0x007F) {
+      return 1;
+    }
+    return c > 0x07FF ? 3 : 2;
+  }
+
+  // modified UTF-8, as written by DataOutputStream
+  private static void encode(ByteBuffer buffer, char c) {
+    if (c >= 0x0001 && c <= 0x007F) {
+      buffer.put((byte) c);
+    } else if (c > 0x07FF) {
+      buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+      buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+      buffer.put((byte) (0x80 | (c & 0x3F)));
+    } else {
+      buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+      buffer.put((byte) (0x80 | (c & 0x3F)));
+    }
+  }
+
+  /**
+   * If autocomplete is disabled, marks the upload as successful.
+   *
+   * @see S3OutputStream#done()
+   */
+  public void done() {
+    outputStream.done();
+  }
+
+  /**
+   * Closes the underlying {@link S3OutputStream}.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  @Override
+  public void close() throws IOException {
+    outputStream.close();
+  }
+}
@@ -0,0 +1,212 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * Uploads local files to a S3 bucket using a multipart upload. The part layout is planned from the file size, each part is a memory-mapped
+ * region of the file, and the parts are uploaded concurrently. No part is staged in a heap buffer and the file is read only once.
+ */
+public class S3FileUploader {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(S3FileUploader.class);
+  private static final int MiB = 1024 * 1024;
+  private static final int MIN_PART_SIZE_MIB = 5;
+  private static final int MAX_PARTS = 10000;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  /**
+   * Creates a new builder for a S3FileUploader.
+   *
+   * @return a new builder for a S3FileUploader
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3FileUploader}.
+   */
+  public static class Builder {
+
+    private S3ClientMultipartUpload s3;
+    private int partSizeMib = MIN_PART_SIZE_MIB;
+    private int concurrency = 4;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientMultipartUpload} object for the {@link S3FileUploader}. Required.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientMultipartUpload s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the minimum part size to use when uploading in MiB. Must be at least 5. The part size is increased for files that would otherwise
+     * need more than 10,000 parts. Default value: 5
+     *
+     * @param partSizeMib the minimum part size to use when uploading in MiB
+     * @return this Builder
+     */
+    public Builder partSizeMib(int partSizeMib) {
+      this.partSizeMib = partSizeMib;
+      return this;
+    }
+
+    /**
+     * Sets the number of parts that are uploaded concurrently. Must be at least 1. Default value: 4
+     *
+     * @param concurrency the number of parts that are uploaded concurrently
+     * @return this Builder
+     */
+    public Builder concurrency(int concurrency) {
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3FileUploader}
+     *
+     * @return a new {@link S3FileUploader}
+     */
+    public S3FileUploader build() {
+      if (partSizeMib < MIN_PART_SIZE_MIB) {
+        throw new IllegalArgumentException("Part size MiB must be at least " + MIN_PART_SIZE_MIB);
+      }
+      if (concurrency < 1) {
+        throw new IllegalArgumentException("Concurrency must be at least 1");
+      }
+      return new S3FileUploader(s3, (long) partSizeMib * MiB, concurrency);
+    }
+  }
+
+  private final S3ClientMultipartUpload s3;
+  private final long minPartSize;
+  private final int concurrency;
+
+  S3FileUploader(S3ClientMultipartUpload s3, long minPartSize, int concurrency) {
+    this.s3 = s3;
+    this.minPartSize = minPartSize;
+    this.concurrency = concurrency;
+  }
+
+  static long partSize(long fileSize, long minPartSize) {
+    long partSize = Math.max(minPartSize, (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+    if (partSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("File is too large for a multipart upload: " + fileSize);
+    }
+    return partSize;
+  }
+
+  /**
+   * Uploads a file.  If any part fails to upload, the parts not yet uploaded are cancelled, the multipart upload is aborted once the parts
+   * in flight have finished, and the exception is rethrown.
+   *
+   * @param source the file to upload
+   * @param uploadRequest the bucket, key, and object metadata for the upload
+   * @throws IOException if the file cannot be read
+   */
+  public void uploadFile(Path source, MultipartUploadRequest uploadRequest) throws IOException {
+    final String bucket = uploadRequest.getBucket();
+    final String key = uploadRequest.getKey();
+    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      final long fileSize = channel.size();
+      final long partSize = partSize(fileSize, minPartSize);
+      final int partCount = fileSize == 0 ? 1 : (int) ((fileSize + partSize - 1) / partSize);
+      final String uploadId = s3.createMultipartUpload(uploadRequest);
+
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, partCount), runnable -> {
+        Thread thread = new Thread(runnable, "s3-file-uploader-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      boolean completed = false;
+      try {
+        List<Future<CompletedPart>> futures = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+          final int partNumber = i + 1;
+          final long offset = i * partSize;
+          final long size = Math.min(partSize, fileSize - offset);
+          futures.add(executor.submit(() -> {
+            ByteBuffer region = channel.map(MapMode.READ_ONLY, offset, size);
+            return s3.uploadPart(bucket, key, uploadId, partNumber, region);
+          }));
+        }
+        List<CompletedPart> completedParts = new ArrayList<>(partCount);
+        for (Future<CompletedPart> future : futures) {
+          completedParts.add(future.get());
+        }
+        s3.completeMultipartUpload(bucket, key, uploadId, completedParts);
+        completed = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Upload thread was interrupted", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IllegalStateException("Unable to upload part", cause);
+      } finally {
+        executor.shutdownNow();
+        if (!completed) {
+          // parts still in flight must finish before the abort, or they could be stored after it
+          awaitTermination(executor);
+          abort(bucket, key, uploadId);
+        }
+      }
+    }
+  }
+
+  private static void awaitTermination(ExecutorService executor) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          if (executor.awaitTermination(1L, TimeUnit.MINUTES)) {
+            return;
+          }
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void abort(String bucket, String key, String uploadId) {
+    try {
+      s3.abortMultipartUpload(bucket, key, uploadId);
+    } catch (Exception e) {
+      LOGGER.warn("An error occurred aborting multipart upload: " + bucket + ":" + key, e);
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link InputStream} that reads an object from a S3 bucket using ranged GET requests. Fixed-size ranges are fetched ahead of the reader
+ * on a small pool of threads so that several ranges download in parallel while the current range is being consumed.
+ */
+public class S3InputStream extends InputStream {
+
+  private static final int MiB = 1024 * 1024;
+  private static final int DEFAULT_RANGE_SIZE_MIB = 8;
+  private static final int DEFAULT_PREFETCH_COUNT = 4;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  /**
+   * Creates a new builder for a S3InputStream.
+   *
+   * @return a new builder for a S3InputStream
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3InputStream}.
+   */
+  public static class Builder {
+
+    private S3ClientRangeRead s3;
+    private String bucket;
+    private String key;
+    private int rangeSizeMib = DEFAULT_RANGE_SIZE_MIB;
+    private int prefetchCount = DEFAULT_PREFETCH_COUNT;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientRangeRead} object for the {@link S3InputStream}. Required.
+     *
+     * @param s3 the {@link S3ClientRangeRead}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientRangeRead s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the bucket name for the {@link S3InputStream}. Required.
+     *
+     * @param bucket the bucket name
+     * @return this Builder
+     */
+    public Builder bucket(String bucket) {
+      this.bucket = bucket;
+      return this;
+    }
+
+    /**
+     * Sets the key of the object to read from the bucket. Required.
+     *
+     * @param key the key of the object to read from the bucket
+     * @return this Builder
+     */
+    public Builder key(String key) {
+      this.key = key;
+      return this;
+    }
+
+    /**
+     * Sets the size of each ranged GET in MiB. Must be at least 1. Default value: 8
+     *
+     * @param rangeSizeMib the size of each ranged GET in MiB
+     * @return this Builder
+     */
+    public Builder rangeSizeMib(int rangeSizeMib) {
+      this.rangeSizeMib = rangeSizeMib;
+      return this;
+    }
+
+    /**
+     * Sets the number of ranges, including the one currently being read, that are fetched ahead of the reader in parallel. Each range holds a
+     * buffer of rangeSizeMib, so a higher value improves throughput at the expense of more heap usage. Must be at least 1. Default value: 4
+     *
+     * @param prefetchCount the number of ranges fetched in parallel
+     * @return this Builder
+     */
+    public Builder prefetchCount(int prefetchCount) {
+      this.prefetchCount = prefetchCount;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3InputStream}
+     *
+     * @return a new {@link S3InputStream}
+     */
+    public S3InputStream build() {
+      if (rangeSizeMib < 1) {
+        throw new IllegalArgumentException("Range size MiB must be at least 1");
+      }
+      if (prefetchCount < 1) {
+        throw new IllegalArgumentException("Prefetch count must be at least 1");
+      }
+      return new S3InputStream(s3, bucket, key, rangeSizeMib * MiB, prefetchCount);
+    }
+  }
+
+  private final S3ClientRangeRead s3;
+  private final String bucket;
+  private final String key;
+  private final int rangeSize;
+  private final int prefetchCount;
+  private final long length;
+  private final BufferPool bufferPool;
+  private final ExecutorService executor;
+  private final Deque<Range> window = new ArrayDeque<>();
+
+  private long position;
+  private boolean closed;
+
+  S3InputStream(S3ClientRangeRead s3, String bucket, String key, int rangeSize, int prefetchCount) {
+    this.s3 = s3;
+    this.bucket = bucket;
+    this.key = key;
+    this.rangeSize = rangeSize;
+    this.prefetchCount = prefetchCount;
+    length = s3.getObjectLength(bucket, key);
+    bufferPool = new BufferPool(rangeSize, prefetchCount + 1);
+    executor = Executors.newFixedThreadPool(prefetchCount, runnable -> {
+      Thread thread = new Thread(runnable, "s3-input-stream-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private class Range {
+
+    private final long index;
+    private final Future<ByteBuffer> future;
+
+    private Range(long index) {
+      this.index = index;
+      long start = index * rangeSize;
+      int size = (int) Math.min(rangeSize, length - start);
+      future = executor.submit(() -> {
+        ByteBuffer buffer = bufferPool.acquire();
+        buffer.limit(size);
+        while (buffer.hasRemaining()) {
+          if (s3.readRange(bucket, key, start + buffer.position(), buffer) == 0) {
+            throw new IllegalStateException("Unexpected end of object: " + bucket + ":" + key);
+          }
+        }
+        buffer.flip();
+        return buffer;
+      });
+    }
+
+    private ByteBuffer get() throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted reading range from " + bucket + ":" + key);
+      } catch (ExecutionException e) {
+        throw new IOException("Unable to read range from " + bucket + ":" + key, e.getCause());
+      }
+    }
+
+    private void release() {
+      if (future.isDone() && !future.isCancelled()) {
+        try {
+          bufferPool.release(future.get());
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+          // the buffer was never filled, nothing to recycle
+        }
+      } else {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private ByteBuffer currentRange() throws IOException {
+    long index = position / rangeSize;
+    Range first = window.peekFirst();
+    if (first == null || index < first.index || index >= first.index + window.size()) {
+      clearWindow();
+    } else {
+      while (window.getFirst().index < index) {
+        window.removeFirst().release();
+      }
+    }
+    fillWindow(index);
+    ByteBuffer buffer = window.getFirst().get();
+    buffer.position((int) (position - index * rangeSize));
+    return buffer;
+  }
+
+  private void fillWindow(long firstIndex) {
+    long next = window.isEmpty() ? firstIndex : window.getLast().index + 1;
+    while (window.size() < prefetchCount && next * rangeSize < length) {
+      window.addLast(new Range(next++));
+    }
+  }
+
+  private void clearWindow() {
+    while (!window.isEmpty()) {
+      window.removeFirst().release();
+    }
+  }
+
+  /**
+   * Returns the size of the object being read in bytes.
+   *
+   * @return the size of the object being read in bytes
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Returns the offset in the object of the next byte to be read.
+   *
+   * @return the offset in the object of the next byte to be read
+   */
+  public long position() {
+    return position;
+  }
+
+  /**
+   * Moves the read position to an offset in the object. If the offset is within a range that has already been fetched or is being prefetched,
+   * no new requests are made.  Otherwise, outstanding requests are cancelled and prefetching restarts at the new offset.
+   *
+   * @param newPosition the offset in the object of the next byte to be read
+   * @throws IOException if the stream is closed or the position is negative
+   */
+  public void seek(long newPosition) throws IOException {
+    ensureOpen();
+    if (newPosition < 0) {
+      throw new IOException("Negative seek position: " + newPosition);
+    }
+    position = Math.min(newPosition, length);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    ensureOpen();
+    if (n <= 0) {
+      return 0;
+    }
+    long start = position;
+    seek(Math.min(length, position + n));
+    return position - start;
+  }
+
+  @Override
+  public int available() throws IOException {
+    ensureOpen();
+    Range first = window.peekFirst();
+    if (first == null || !first.future.isDone() || position / rangeSize != first.index) {
+      return 0;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, Math.min(length, (first.index + 1) * rangeSize) - position);
+  }
+
+  @Override
+  public int read() throws IOException {
+    ensureOpen();
+    if (position >= length) {
+      return -1;
+    }
+    int b = currentRange().get() & 0xFF;
+    position++;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (b == null) {
+      throw new NullPointerException();
+    } else if ((off < 0) || (off > b.length) || (len < 0) ||
+        ((off + len) > b.length) || ((off + len) < 0)) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return 0;
+    }
+    if (position >= length) {
+      return -1;
+    }
+    ByteBuffer buffer = currentRange();
+    int n = Math.min(len, buffer.remaining());
+    buffer.get(b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      clearWindow();
+      executor.shutdownNow();
+    }
+  }
+}
@@ -1,14 +1,33 @@
 package edu.colorado.cires.cmg.s3out;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.s3.model.CompletedPart;
 
 /**
@@ -19,6 +38,16 @@ public class S3OutputStream extends OutputStream {
   private static final Logger LOGGER = LoggerFactory.getLogger(S3OutputStream.class);
   private static final int MiB = 1024 * 1024;
   private static final int MIN_PART_SIZE_MIB = 5;
+  private static final int MAX_PART_SIZE_MIB = Integer.MAX_VALUE / MiB;
+  private static final int MAX_THROTTLE_RETRIES = 3;
+  private static final long THROTTLE_BACKOFF_MILLIS = 100L;
+  private static final long ABANDON_TIMEOUT_SECONDS = 30L;
+  static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static final SharedBuffer POISON = new SharedBuffer(ByteBuffer.allocate(0), null);
+  private static final UploadEvents EVENTS = UploadEvents.get();
+  private static final AtomicReferenceFieldUpdater<S3OutputStream, Exception> FAILURE =
+      AtomicReferenceFieldUpdater.newUpdater(S3OutputStream.class, Exception.class, "failure");
 
   /**
    * Creates a new builder for a S3OutputStream.
@@ -41,6 +70,14 @@ public class S3OutputStream extends OutputStream {
     private int partSizeMib = MIN_PART_SIZE_MIB;
     private boolean autoComplete = true;
     private int uploadQueueSize = 1;
+    private int minPartSizeMib;
+    private int maxPartSizeMib;
+    private UploadConcurrencyLimiter concurrencyLimiter;
+    private HedgingPolicy hedgingPolicy;
+    private final List<Destination> additionalDestinations = new ArrayList<>();
+    private boolean verifyETag;
+    private int partSizeBytes;
+    private AdaptivePartSizer partSizer;
 
     private Builder() {
 
@@ -106,6 +143,84 @@ public class S3OutputStream extends OutputStream {
       return this;
     }
 
+    /**
+     * Enables adaptive part sizing. The upload starts with partSizeMib, clamped to the given bounds, and measures the throughput of each part
+     * upload as it runs. The size of later parts is then doubled or halved within the bounds to converge on the highest sustained throughput.
+     * Regardless of throughput, parts grow when needed to keep the upload within the limit of 10,000 parts. The decisions made are available
+     * from {@link S3OutputStream#getPartSizeDecisions()}. Disabled by default.
+     *
+     * @param minPartSizeMib the smallest part size to use in MiB, must be at least 5
+     * @param maxPartSizeMib the largest part size to use in MiB, must be at least minPartSizeMib and at most 2047
+     * @return this Builder
+     */
+    public Builder adaptivePartSizeMib(int minPartSizeMib, int maxPartSizeMib) {
+      this.minPartSizeMib = minPartSizeMib;
+      this.maxPartSizeMib = maxPartSizeMib;
+      return this;
+    }
+
+    /**
+     * Sets a {@link UploadConcurrencyLimiter} that controls how many parts are uploaded concurrently. The limiter raises the number of parts in
+     * flight while latency is stable and cuts it when S3 throttles requests or latency spikes. Parts rejected by S3 with a throttling error
+     * are retried up to 3 times at the reduced concurrency, after a random delay of up to 100 ms that doubles with each retry. A limiter may
+     * be shared by several streams writing to the same bucket or prefix. Each part in flight holds a buffer of the part size in addition to
+     * those in the upload queue. If not set, parts are uploaded one at a time.
+     *
+     * @param concurrencyLimiter the {@link UploadConcurrencyLimiter}
+     * @return this Builder
+     */
+    public Builder concurrencyLimiter(UploadConcurrencyLimiter concurrencyLimiter) {
+      this.concurrencyLimiter = concurrencyLimiter;
+      return this;
+    }
+
+    /**
+     * Enables hedged part uploads. When a part upload runs longer than a percentile of recent part upload latencies, a duplicate request is
+     * sent from the same buffer. The first request to succeed is used and the other is cancelled.  The {@link HedgingPolicy} caps the number
+     * of duplicate requests. Disabled by default.
+     *
+     * <p>S3 keeps the part uploaded by the request that finished last, and under SSE-KMS or SSE-C the two requests return different ETags.
+     * So once a request succeeds, the other is interrupted and waited for, and the part is completed with the ETag of the last request to
+     * succeed. If {@link #verifyETag(boolean)} is enabled, that ETag is checked against the MD5 of the part like any other.</p>
+     *
+     * @param hedgingPolicy the {@link HedgingPolicy}
+     * @return this Builder
+     */
+    public Builder hedgingPolicy(HedgingPolicy hedgingPolicy) {
+      this.hedgingPolicy = hedgingPolicy;
+      return this;
+    }
+
+    /**
+     * Adds a destination that receives a copy of the upload. Each filled part is uploaded to the primary destination and all additional
+     * destinations concurrently from the same buffer, so memory use does not grow with the number of destinations.  A destination may use a
+     * different {@link S3ClientMultipartUpload}, for example one with credentials for another account. If the upload to any destination
+     * fails, the uploads to all destinations are aborted.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload} used for the destination
+     * @param uploadRequest the {@link MultipartUploadRequest} for the destination
+     * @return this Builder
+     */
+    public Builder addDestination(S3ClientMultipartUpload s3, MultipartUploadRequest uploadRequest) {
+      additionalDestinations.add(new Destination(s3, uploadRequest));
+      return this;
+    }
+
+    /**
+     * Enables verification of the ETags returned by S3. The MD5 of each part is computed while the part is being uploaded. On close, the ETag
+     * of each part is compared with its MD5, and the ETag of the completed object is compared with the ETag expected for the parts sent.  A
+     * mismatch causes close() to fail with an {@link IOException}. This should only be enabled for objects that are unencrypted or encrypted
+     * with SSE-S3, as S3 does not use MD5 ETags for other encryption types. Disabled by default.
+     *
+     * @param verifyETag true to enable ETag verification
+     * @return this Builder
+     * @see S3OutputStream#getETag()
+     */
+    public Builder verifyETag(boolean verifyETag) {
+      this.verifyETag = verifyETag;
+      return this;
+    }
+
     /**
      * When a multipart file upload is completed, AWS S3 must be notified. Autocompletion is a convenience feature that allows a S3OutputStream to
      * work like a normal {@link OutputStream}.  The main use case for this is where your code generates a S3OutputStream that must be passed to
@@ -155,66 +270,176 @@ public class S3OutputStream extends OutputStream {
       return this;
     }
 
+    /**
+     * Overrides the part size with a size in bytes that is not validated, for testing.
+     */
+    Builder partSizeBytes(int partSizeBytes) {
+      this.partSizeBytes = partSizeBytes;
+      return this;
+    }
+
+    /**
+     * Overrides adaptive part sizing with a preconfigured {@link AdaptivePartSizer}, for testing.
+     */
+    Builder partSizer(AdaptivePartSizer partSizer) {
+      this.partSizer = partSizer;
+      return this;
+    }
+
     /**
      * Builds a new {@link S3OutputStream}
      *
      * @return a new {@link S3OutputStream}
      */
     public S3OutputStream build() {
-      if (partSizeMib < MIN_PART_SIZE_MIB) {
-        throw new IllegalArgumentException("Part size MiB must be at least " + MIN_PART_SIZE_MIB);
+      int partSize = partSizeBytes;
+      AdaptivePartSizer adaptivePartSizer = partSizer;
+      if (partSize <= 0) {
+        if (partSizeMib < MIN_PART_SIZE_MIB) {
+          throw new IllegalArgumentException("Part size MiB must be at least " + MIN_PART_SIZE_MIB);
+        }
+        partSize = partSizeMib * MiB;
+        if (maxPartSizeMib > 0) {
+          if (minPartSizeMib < MIN_PART_SIZE_MIB) {
+            throw new IllegalArgumentException("Minimum part size MiB must be at least " + MIN_PART_SIZE_MIB);
+          }
+          if (maxPartSizeMib < minPartSizeMib || maxPartSizeMib > MAX_PART_SIZE_MIB) {
+            throw new IllegalArgumentException("Maximum part size MiB must be between " + minPartSizeMib + " and " + MAX_PART_SIZE_MIB);
+          }
+          adaptivePartSizer = new AdaptivePartSizer(minPartSizeMib * MiB, maxPartSizeMib * MiB, partSize);
+        }
       }
-      MultipartUploadRequest request;
+      List<Destination> destinations = new ArrayList<>();
+      destinations.add(new Destination(s3, requireUploadRequest()));
+      for (Destination destination : additionalDestinations) {
+        destinations.add(new Destination(destination.s3, destination.uploadRequest));
+      }
+      return new S3OutputStream(destinations, partSize, autoComplete, uploadQueueSize, adaptivePartSizer,
+          concurrencyLimiter == null ? UploadConcurrencyLimiter.fixed(destinations.size()) : concurrencyLimiter, hedgingPolicy, verifyETag);
+    }
+
+    private MultipartUploadRequest requireUploadRequest() {
       if (uploadRequest != null) {
-        request = uploadRequest;
-      } else {
-        request = MultipartUploadRequest.builder().bucket(bucket).key(key).build();
+        return uploadRequest;
       }
-      return new S3OutputStream(s3, request, partSizeMib * MiB, autoComplete, uploadQueueSize);
+      return MultipartUploadRequest.builder().bucket(bucket).key(key).build();
     }
   }
 
-  private final S3ClientMultipartUpload s3;
+  private final List<Destination> destinations;
   private final String bucket;
   private final String key;
   private final int maxBufferSize;
-  private final String uploadId;
-  private final List<CompletedPart> completedParts = new ArrayList<>();
-  private final BlockingQueue<UploadConsumerBuffer> uploadQueue;
+  private final BufferPool bufferPool;
+  private final SpscRing<SharedBuffer> uploadQueue;
   private final Thread consumer;
+  private final AdaptivePartSizer partSizer;
+  private final UploadConcurrencyLimiter concurrencyLimiter;
+  private final HedgingPolicy hedgingPolicy;
+  private final ExecutorService uploadExecutor;
+  private final boolean verifyETag;
+  private final PartArray<byte[]> partMd5s;
+  private final Object streamEvent;
+  // only written by the writing thread, atomic so statistics can be read from any thread
+  private final AtomicLong bytesEnqueued = new AtomicLong();
+  private final LongAdder releasedBytes = new LongAdder();
+  private final LongAdder partsUploaded = new LongAdder();
+  private final LongAdder producerBlockedNanos = new LongAdder();
+  private final LongAdder consumerIdleNanos = new LongAdder();
+  private final LatencyRecorder partLatency = new LatencyRecorder();
 
   private ByteBuffer buffer;
+  // the size of the part being filled, which the buffer grows to
+  private int partSize;
   private boolean complete;
   private boolean closed;
+  private volatile boolean aborted;
+  // the first failure, later failures are usually caused by it
+  private volatile Exception failure;
+  private int partCount;
+  private String eTag;
 
 
   S3OutputStream(S3ClientMultipartUpload s3, MultipartUploadRequest uploadRequest, int maxBufferSize, boolean autoComplete,
       int queueSize) {
-    this.uploadQueue = new LinkedBlockingDeque<>(queueSize);
-    this.s3 = s3;
-    this.bucket = uploadRequest.getBucket();
-    this.key = uploadRequest.getKey();
+    this(Collections.singletonList(new Destination(s3, uploadRequest)), maxBufferSize, autoComplete, queueSize, null,
+        UploadConcurrencyLimiter.fixed(1), null, false);
+  }
+
+  S3OutputStream(List<Destination> destinations, int maxBufferSize, boolean autoComplete, int queueSize, AdaptivePartSizer partSizer,
+      UploadConcurrencyLimiter concurrencyLimiter, HedgingPolicy hedgingPolicy, boolean verifyETag) {
+    streamEvent = EVENTS.beginStream();
+    this.partSizer = partSizer;
+    this.concurrencyLimiter = concurrencyLimiter;
+    this.hedgingPolicy = hedgingPolicy;
+    this.verifyETag = verifyETag;
+    partMd5s = verifyETag ? new PartArray<>() : null;
+    uploadExecutor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "s3-output-stream-upload-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.uploadQueue = new SpscRing<>(queueSize);
+    this.destinations = destinations;
+    this.bucket = destinations.get(0).uploadRequest.getBucket();
+    this.key = destinations.get(0).uploadRequest.getKey();
     this.maxBufferSize = maxBufferSize;
+    // enough to recycle the buffers in the queue and the one being filled, buffers beyond that are left for garbage collection
+    this.bufferPool = new BufferPool(maxBufferSize, queueSize + 1);
     complete = autoComplete;
-    uploadId = s3.createMultipartUpload(uploadRequest);
     newBuffer();
     consumer = new Thread(new UploadConsumer());
     consumer.start();
   }
 
   private void newBuffer() {
-    buffer = ByteBuffer.allocate(maxBufferSize);
+    partSize = partSizer == null ? maxBufferSize : partSizer.nextPartSize(partCount + 1, bytesEnqueued.get());
+    if (partCount == 0 && partSize > INITIAL_BUFFER_SIZE) {
+      // most streams are small, so the first buffer starts small and grows only if the stream does
+      buffer = allocate(INITIAL_BUFFER_SIZE);
+    } else {
+      buffer = allocate(partSize);
+    }
+  }
+
+  private ByteBuffer allocate(int size) {
+    Object event = EVENTS.beginBufferAllocation();
+    boolean pooled = size == bufferPool.getBufferSize();
+    ByteBuffer allocated = pooled ? bufferPool.acquire() : ByteBuffer.allocate(size);
+    EVENTS.endBufferAllocation(event, bucket, key, size, pooled);
+    return allocated;
+  }
+
+  /**
+   * Replaces a full buffer that is smaller than the part with one twice its size, up to the part size.
+   */
+  private void growBuffer() {
+    ByteBuffer grown = allocate((int) Math.min((long) buffer.capacity() * 2L, partSize));
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
   }
 
   private void uploadPart() {
     if (buffer.position() > 0) {
       buffer.flip();
-      try {
-        uploadQueue.put(new UploadConsumerBuffer(buffer, false));
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-        throw new IllegalStateException("Upload thread was interrupted", e);
-      }
+      enqueue(new SharedBuffer(buffer, bufferPool, releasedBytes));
+    }
+  }
+
+  private void enqueue(SharedBuffer part) {
+    final int bytes = part.remaining();
+    partCount++;
+    bytesEnqueued.lazySet(bytesEnqueued.get() + bytes);
+    Object event = EVENTS.beginEnqueue();
+    long start = System.nanoTime();
+    try {
+      uploadQueue.put(part);
+      producerBlockedNanos.add(System.nanoTime() - start);
+      EVENTS.endEnqueue(event, bucket, key, partCount, bytes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Upload thread was interrupted", e);
     }
   }
 
@@ -222,58 +447,368 @@ public class S3OutputStream extends OutputStream {
 
     @Override
     public void run() {
+      if (destinations.size() == 1) {
+        createUpload(destinations.get(0));
+      } else {
+        CompletableFuture.allOf(destinations.stream()
+            .map(destination -> CompletableFuture.runAsync(() -> createUpload(destination), uploadExecutor))
+            .toArray(CompletableFuture[]::new)).join();
+      }
+      List<Future<?>> inFlight = new ArrayList<>();
       try {
+        int partNumber = 0;
         while (true) {
-          UploadConsumerBuffer buffer = uploadQueue.take();
-          if (buffer.isPoison()) {
-            return;
+          long start = System.nanoTime();
+          final SharedBuffer part = uploadQueue.take();
+          consumerIdleNanos.add(System.nanoTime() - start);
+          if (part == POISON) {
+            break;
           }
-          synchronized (completedParts) {
-            int partNumber = completedParts.size() + 1;
-            completedParts.add(s3.uploadPart(bucket, key, uploadId, partNumber, buffer.getBuffer()));
+          partNumber++;
+          final int number = partNumber;
+          try {
+            if (verifyETag && failure == null && !aborted) {
+              // hashed on its own thread while the part is being uploaded
+              part.retain();
+              inFlight.add(uploadExecutor.submit(() -> {
+                try {
+                  partMd5s.set(number - 1, ETags.md5(part.view()));
+                } finally {
+                  part.release();
+                }
+              }));
+            }
+            // after a failure or an abort, queued buffers are drained and discarded so the producer never blocks
+            for (Destination destination : destinations) {
+              if (failure != null || aborted) {
+                break;
+              }
+              final long permit = concurrencyLimiter.acquire();
+              part.retain();
+              inFlight.removeIf(Future::isDone);
+              inFlight.add(uploadExecutor.submit(() -> {
+                try {
+                  uploadPart(destination, number, part, permit);
+                } finally {
+                  part.release();
+                }
+              }));
+            }
+          } finally {
+            part.release();
           }
         }
+        for (Future<?> future : inFlight) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        fail(new IllegalStateException("Unexpected error uploading part", e.getCause()));
+      }
+    }
+  }
+
+  private void createUpload(Destination destination) {
+    try {
+      destination.uploadId.complete(destination.s3.createMultipartUpload(destination.uploadRequest));
+    } catch (RuntimeException e) {
+      destination.uploadId.completeExceptionally(e);
+      fail(e);
+    }
+  }
+
+  private void uploadPart(Destination destination, int partNumber, SharedBuffer part, long permit) {
+    final int bytes = part.remaining();
+    int retries = 0;
+    long currentPermit = permit;
+    while (true) {
+      Object event = EVENTS.beginPartUpload();
+      long start = System.nanoTime();
+      try {
+        // the first parts may wait for the upload to be created, which is not part of their latency
+        destination.uploadId.join();
+        start = System.nanoTime();
+        CompletedPart completedPart = hedgingPolicy == null
+            ? destination.uploadPart(partNumber, part.view())
+            : uploadPartHedged(destination, partNumber, part);
+        long latency = System.nanoTime() - start;
+        EVENTS.endPartUpload(event, destination.bucket(), destination.key(), destination.createdUploadId(), partNumber, bytes, retries + 1,
+            true);
+        concurrencyLimiter.release(currentPermit, start, bytes, false);
+        partLatency.record(latency);
+        partsUploaded.increment();
+        if (partSizer != null) {
+          partSizer.recordUpload(bytes, latency);
+        }
+        destination.completedParts.set(partNumber - 1, completedPart);
+        return;
+      } catch (RuntimeException e) {
+        EVENTS.endPartUpload(event, destination.bucket(), destination.key(), destination.createdUploadId(), partNumber, bytes, retries + 1,
+            false);
+        boolean throttled = isThrottled(e);
+        concurrencyLimiter.release(currentPermit, start, bytes, throttled);
+        if (!throttled || retries++ >= MAX_THROTTLE_RETRIES || failure != null) {
+          fail(e);
+          return;
+        }
+        EVENTS.partRetry(destination.bucket(), destination.key(), destination.createdUploadId(), partNumber, retries, e.getMessage());
+        LOGGER.debug("Part " + partNumber + " was throttled, retrying: " + destination);
+      }
+      try {
+        // exponential backoff with full jitter, so throttled uploads do not all retry at once
+        Thread.sleep(ThreadLocalRandom.current().nextLong(THROTTLE_BACKOFF_MILLIS << (retries - 1)) + 1L);
+        currentPermit = concurrencyLimiter.acquire();
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
+        fail(new IllegalStateException("Upload thread was interrupted", e));
+        return;
+      }
+    }
+  }
+
+  private CompletedPart uploadPartHedged(Destination destination, int partNumber, SharedBuffer part) {
+    final long thresholdNanos = hedgingPolicy.startUpload(part.remaining());
+    final HedgedUpload upload = new HedgedUpload(destination, partNumber, part);
+    upload.send();
+    try {
+      if (thresholdNanos >= 0L) {
+        try {
+          upload.winner.get(thresholdNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          if (hedgingPolicy.tryHedge()) {
+            LOGGER.debug("Hedging slow upload of part " + partNumber + ": " + destination);
+            upload.send();
+          }
+        }
+      }
+      upload.winner.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Upload thread was interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException("Unable to upload part", cause);
+    } finally {
+      upload.cancel();
+    }
+    return upload.last.get();
+  }
+
+  /**
+   * The requests sent to upload one part when hedging. S3 keeps the part from the request that finished last, and unless the ETag is the MD5
+   * of the part, as it is not under SSE-KMS or SSE-C, each request gets a different ETag. So the losing request is cancelled and waited for,
+   * and the part is completed with the ETag of the last request to succeed.
+   */
+  private class HedgedUpload {
+
+    private final Destination destination;
+    private final int partNumber;
+    private final SharedBuffer part;
+    private final int bytes;
+    private final long start = System.nanoTime();
+    private final CompletableFuture<CompletedPart> winner = new CompletableFuture<>();
+    private final AtomicReference<CompletedPart> last = new AtomicReference<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Semaphore finished = new Semaphore(0);
+    private final List<AtomicBoolean> started = new ArrayList<>(2);
+    private final List<Future<?>> requests = new ArrayList<>(2);
+
+    private HedgedUpload(Destination destination, int partNumber, SharedBuffer part) {
+      this.destination = destination;
+      this.partNumber = partNumber;
+      this.part = part;
+      bytes = part.remaining();
+    }
+
+    private void send() {
+      AtomicBoolean requestStarted = new AtomicBoolean();
+      pending.incrementAndGet();
+      // each request holds its own reference so the buffer is not recycled while a cancelled request is still reading it
+      part.retain();
+      started.add(requestStarted);
+      requests.add(uploadExecutor.submit(() -> {
+        if (requestStarted.compareAndSet(false, true)) {
+          upload();
+        }
+      }));
+    }
+
+    private void upload() {
+      try {
+        CompletedPart completedPart = destination.uploadPart(partNumber, part.view());
+        last.set(completedPart);
+        if (winner.complete(completedPart)) {
+          // the latency of the primary request, or when the hedge wins a lower bound on it, so that hedging does not bias the latency window
+          // towards fast uploads and lower the threshold
+          hedgingPolicy.recordLatency(bytes, System.nanoTime() - start);
+        }
+      } catch (RuntimeException e) {
+        if (pending.decrementAndGet() == 0) {
+          winner.completeExceptionally(e);
+        }
+      } finally {
+        part.release();
+        finished.release();
+      }
+    }
+
+    /**
+     * Interrupts the requests still running and waits for them to finish.
+     */
+    private void cancel() {
+      for (int i = 0; i < requests.size(); i++) {
+        if (started.get(i).compareAndSet(false, true)) {
+          requests.get(i).cancel(false);
+          part.release();
+          finished.release();
+        } else {
+          requests.get(i).cancel(true);
+        }
       }
+      finished.acquireUninterruptibly(requests.size());
     }
   }
 
-  private static class UploadConsumerBuffer {
+  private static boolean isThrottled(RuntimeException e) {
+    if (e instanceof SdkServiceException) {
+      SdkServiceException serviceException = (SdkServiceException) e;
+      return serviceException.isThrottlingException() || serviceException.statusCode() == 503;
+    }
+    return false;
+  }
+
+  /**
+   * The state of the multipart upload to one destination.
+   */
+  static class Destination {
+
+    private final S3ClientMultipartUpload s3;
+    private final MultipartUploadRequest uploadRequest;
+    private final CompletableFuture<String> uploadId = new CompletableFuture<>();
+    // indexed by part number - 1, so uploads finishing concurrently do not contend
+    private final PartArray<CompletedPart> completedParts = new PartArray<>();
+
+    Destination(S3ClientMultipartUpload s3, MultipartUploadRequest uploadRequest) {
+      this.s3 = s3;
+      this.uploadRequest = uploadRequest;
+    }
+
+    private String bucket() {
+      return uploadRequest.getBucket();
+    }
+
+    private String key() {
+      return uploadRequest.getKey();
+    }
+
+    /**
+     * Returns the upload id, or null if the upload has not been created.
+     */
+    private String createdUploadId() {
+      return uploadId.isDone() && !uploadId.isCompletedExceptionally() ? uploadId.join() : null;
+    }
+
+    private CompletedPart uploadPart(int partNumber, ByteBuffer part) {
+      return s3.uploadPart(uploadRequest.getBucket(), uploadRequest.getKey(), uploadId.join(), partNumber, part);
+    }
 
-    private final ByteBuffer buffer;
-    private final boolean poison;
+    private String complete() {
+      return ETags.unquote(s3.completeMultipartUploadWithETag(uploadRequest.getBucket(), uploadRequest.getKey(), uploadId.join(),
+          completedParts.present()));
+    }
 
-    private UploadConsumerBuffer(ByteBuffer buffer, boolean poison) {
-      this.buffer = buffer;
-      this.poison = poison;
+    private void awaitCreated() {
+      try {
+        uploadId.join();
+      } catch (CompletionException | CancellationException e) {
+        // the upload was not created, so there is nothing to abort
+      }
     }
 
-    public ByteBuffer getBuffer() {
-      return buffer;
+    private void abort() {
+      if (uploadId.isCompletedExceptionally()) {
+        return;
+      }
+      try {
+        s3.abortMultipartUpload(uploadRequest.getBucket(), uploadRequest.getKey(), uploadId.join());
+      } catch (Exception e) {
+        LOGGER.warn("An error occurred aborting multipart upload: " + this, e);
+      }
     }
 
-    public boolean isPoison() {
-      return poison;
+    @Override
+    public String toString() {
+      return uploadRequest.getBucket() + ":" + uploadRequest.getKey();
     }
   }
 
   private void cycleBuffer() {
+    if (buffer.capacity() < partSize) {
+      growBuffer();
+      return;
+    }
     uploadPart();
     newBuffer();
   }
 
-  private void complete() {
-    synchronized (completedParts) {
-      s3.completeMultipartUpload(bucket, key, uploadId, completedParts);
+  private void complete() throws IOException {
+    String expectedETag = null;
+    if (verifyETag) {
+      List<byte[]> md5s = partMd5s.present();
+      expectedETag = md5s.isEmpty() ? null : ETags.multipart(md5s);
+    }
+    for (int i = 0; i < destinations.size(); i++) {
+      Destination destination = destinations.get(i);
+      String completedETag;
+      try {
+        completedETag = destination.complete();
+      } catch (RuntimeException e) {
+        abortFrom(i + 1);
+        throw e;
+      }
+      if (expectedETag != null && completedETag != null && !expectedETag.equals(completedETag)) {
+        abortFrom(i + 1);
+        throw new IOException("ETag of completed upload " + destination + " was " + completedETag + ", expected " + expectedETag);
+      }
+      if (i == 0) {
+        eTag = completedETag;
+      }
+    }
+  }
+
+  private void abortFrom(int index) {
+    for (Destination destination : destinations.subList(index, destinations.size())) {
+      destination.abort();
+    }
+  }
+
+  private void verifyPartETags() {
+    for (Destination destination : destinations) {
+      for (CompletedPart completedPart : destination.completedParts.present()) {
+        byte[] md5 = partMd5s.get(completedPart.partNumber() - 1);
+        String partETag = ETags.unquote(completedPart.eTag());
+        if (md5 != null && partETag != null && !ETags.hex(md5).equals(partETag)) {
+          fail(new IllegalStateException("ETag of part " + completedPart.partNumber() + " uploaded to " + destination + " was " + partETag
+              + ", expected " + ETags.hex(md5)));
+          return;
+        }
+      }
     }
   }
 
   private void abort() {
-    try {
-      s3.abortMultipartUpload(bucket, key, uploadId);
-    } catch (Exception e) {
-      LOGGER.warn("An error occurred aborting multipart upload: " + bucket + ":" + key, e);
+    abortFrom(0);
+  }
+
+  private void fail(Exception e) {
+    FAILURE.compareAndSet(this, null, e);
+  }
+
+  private void checkFailure() throws IOException {
+    Exception e = failure;
+    if (e != null) {
+      throw new IOException("Multipart upload failed: " + bucket + ":" + key, e);
     }
   }
 
@@ -288,6 +823,7 @@ public class S3OutputStream extends OutputStream {
 
   @Override
   public void write(byte[] b, int off, int len) throws IOException {
+    checkFailure();
     if (b == null) {
       throw new NullPointerException();
     } else if ((off < 0) || (off > b.length) || (len < 0) ||
@@ -296,43 +832,201 @@ public class S3OutputStream extends OutputStream {
     } else if (len == 0) {
       return;
     }
-    if (buffer.remaining() >= len) {
-      buffer.put(b, off, len);
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0) {
+      int n = Math.min(remaining, buffer.remaining());
+      buffer.put(b, offset, n);
+      offset += n;
+      remaining -= n;
       if (!buffer.hasRemaining()) {
         cycleBuffer();
       }
-    } else {
-      for (byte[] chunk : chunkBytes(b, off, len)) {
+    }
+  }
+
+  /**
+   * Writes the remaining bytes of a {@link ByteBuffer}, which may be a heap or direct buffer. The bytes are copied directly into the current
+   * part buffer without an intermediate array.  On return, the position of src will be equal to its limit.
+   *
+   * @param src the buffer containing the bytes to write
+   * @return the number of bytes written
+   * @throws IOException if an I/O error occurs
+   */
+  public int write(ByteBuffer src) throws IOException {
+    checkFailure();
+    int written = src.remaining();
+    while (src.hasRemaining()) {
+      if (src.remaining() <= buffer.remaining()) {
+        buffer.put(src);
+      } else {
+        ByteBuffer chunk = src.duplicate();
+        chunk.limit(chunk.position() + buffer.remaining());
         buffer.put(chunk);
-        if (!buffer.hasRemaining()) {
-          cycleBuffer();
-        }
+        src.position(chunk.position());
+      }
+      if (!buffer.hasRemaining()) {
+        cycleBuffer();
       }
     }
+    return written;
   }
 
-  private List<byte[]> chunkBytes(byte[] b, int initialOffset, int len) {
-    List<byte[]> chunks = new ArrayList<>();
-    final int bEnd = initialOffset + len;
-    int start = initialOffset;
-    int end = Math.min(bEnd, start + buffer.remaining());
-    byte[] chunk = new byte[end - start];
-    System.arraycopy(b, start, chunk, 0, chunk.length);
-    chunks.add(chunk);
+  /**
+   * Writes the remaining bytes of a {@link ByteBuffer}, transferring ownership of the buffer to this stream. If no bytes are pending in the
+   * current part and src holds at least a full part, src is queued for upload as its own part without being copied.  Otherwise, the bytes are
+   * copied as in {@link #write(ByteBuffer)}. The caller must not modify or reuse src after calling this method.
+   *
+   * @param src the buffer containing the bytes to write
+   * @return the number of bytes written
+   * @throws IOException if an I/O error occurs
+   */
+  public int writeOwned(ByteBuffer src) throws IOException {
+    return writeOwned(src, null);
+  }
+
+  /**
+   * Writes an owned buffer as {@link #writeOwned(ByteBuffer)} does, and returns it to a {@link BufferPool} once it has been uploaded or
+   * copied.
+   */
+  int writeOwned(ByteBuffer src, BufferPool pool) throws IOException {
+    checkFailure();
+    if (buffer.position() == 0 && src.remaining() >= partSize) {
+      int written = src.remaining();
+      enqueue(new SharedBuffer(src, pool, releasedBytes));
+      return written;
+    }
+    int written = write(src);
+    if (pool != null) {
+      pool.release(src);
+    }
+    return written;
+  }
 
-    while (end < bEnd) {
-      start = end;
-      end = Math.min(bEnd, start + maxBufferSize);
-      chunk = new byte[end - start];
-      System.arraycopy(b, start, chunk, 0, chunk.length);
-      chunks.add(chunk);
+  /**
+   * Reads all bytes from an {@link InputStream} until the end of the stream is reached and writes them to this stream. Bytes are read directly
+   * into the backing array of the current part buffer, which avoids the intermediate copy made by {@link InputStream#transferTo(OutputStream)}
+   * or similar copy utilities.  The InputStream is not closed.
+   *
+   * @param in the {@link InputStream} to read from
+   * @return the number of bytes transferred
+   * @throws IOException if an I/O error occurs when reading or writing
+   */
+  public long transferFrom(InputStream in) throws IOException {
+    checkFailure();
+    long transferred = 0;
+    int n;
+    while ((n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())) != -1) {
+      buffer.position(buffer.position() + n);
+      transferred += n;
+      if (!buffer.hasRemaining()) {
+        cycleBuffer();
+      }
     }
+    return transferred;
+  }
 
-    return chunks;
+  /**
+   * Reads all bytes from a {@link ReadableByteChannel} until the end of the stream is reached and writes them to this stream. Bytes are read
+   * directly into the current part buffer. The channel should be in blocking mode and is not closed.
+   *
+   * @param in the {@link ReadableByteChannel} to read from
+   * @return the number of bytes transferred
+   * @throws IOException if an I/O error occurs when reading or writing
+   */
+  public long transferFrom(ReadableByteChannel in) throws IOException {
+    checkFailure();
+    long transferred = 0;
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      transferred += n;
+      if (!buffer.hasRemaining()) {
+        cycleBuffer();
+      }
+    }
+    return transferred;
+  }
+
+  /**
+   * Returns the part size changes made by adaptive part sizing, starting with the initial part size. The list is empty when adaptive part
+   * sizing is disabled.
+   *
+   * @return an unmodifiable snapshot of the part size changes made so far
+   * @see Builder#adaptivePartSizeMib(int, int)
+   */
+  public List<PartSizeDecision> getPartSizeDecisions() {
+    return partSizer == null ? Collections.emptyList() : partSizer.getDecisions();
+  }
+
+  /**
+   * Returns a snapshot of the progress of the upload. This method may be called from any thread, while the stream is open or after it is
+   * closed.
+   *
+   * @return a snapshot of the progress of the upload
+   */
+  public UploadStatistics getStatistics() {
+    long enqueued = bytesEnqueued.get();
+    // a racy read of the writing thread's buffer, which is at worst out of date
+    ByteBuffer current = buffer;
+    long buffered = current == null ? 0L : current.position();
+    return new UploadStatistics(enqueued + buffered, partsUploaded.sum(), Math.max(0L, enqueued - releasedBytes.sum()),
+        producerBlockedNanos.sum(), consumerIdleNanos.sum(), partLatency.snapshot());
+  }
+
+  /**
+   * Returns a {@link S3WritableChannel} view of this stream.  Closing the channel closes this stream.
+   *
+   * @return a {@link S3WritableChannel} that writes to this stream
+   */
+  public S3WritableChannel channel() {
+    return new S3WritableChannel(this);
+  }
+
+  /**
+   * Returns the ETag of the completed object, without surrounding quotes. If ETag verification is enabled, this ETag has been checked against
+   * the parts sent.
+   *
+   * @return the ETag of the completed object, or null if the upload has not been completed or the {@link S3ClientMultipartUpload} does not
+   *     report ETags
+   * @see Builder#verifyETag(boolean)
+   */
+  public String getETag() {
+    return eTag;
+  }
+
+  /**
+   * Returns a {@link S3DataOutput} view of this stream, which encodes primitives directly into the part buffers.  Closing the view closes
+   * this stream.
+   *
+   * @return a {@link S3DataOutput} that writes to this stream
+   */
+  public S3DataOutput dataOutput() {
+    return new S3DataOutput(this);
+  }
+
+  /**
+   * Returns the capacity of the current part buffer, for testing.
+   */
+  int getBufferCapacity() {
+    return buffer.capacity();
+  }
+
+  /**
+   * Returns the current part buffer if it has room for the given number of bytes, otherwise null. The caller puts the bytes directly into the
+   * buffer, and a full buffer is grown or uploaded by the next write.
+   */
+  ByteBuffer partBuffer(int bytes) throws IOException {
+    checkFailure();
+    return buffer.remaining() >= bytes ? buffer : null;
+  }
+
+  boolean isClosed() {
+    return closed;
   }
 
   @Override
   public void write(int b) throws IOException {
+    checkFailure();
     if (buffer.hasRemaining()) {
       buffer.put((byte) b);
     } else {
@@ -345,23 +1039,102 @@ public class S3OutputStream extends OutputStream {
   public void close() throws IOException {
     if (!closed) {
       closed = true;
-      if (complete) {
-        uploadPart();
-        try {
-          uploadQueue.put(new UploadConsumerBuffer(null, true));
-          consumer.join();
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
+      boolean completed = false;
+      try {
+        completed = finish();
+      } finally {
+        EVENTS.endStream(streamEvent, bucket, key, destinations.get(0).createdUploadId(), partCount, bytesEnqueued.get(), completed);
+      }
+    }
+  }
+
+  /**
+   * Completes or abandons the upload, returning true if it was completed.
+   */
+  private boolean finish() throws IOException {
+    Exception cause = failure;
+    if (!complete || cause != null) {
+      abandon();
+      if (cause != null) {
+        throw new IOException("Multipart upload failed: " + bucket + ":" + key, cause);
+      }
+      return false;
+    }
+    uploadPart();
+    try {
+      uploadQueue.put(POISON);
+      consumer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    uploadExecutor.shutdown();
+    if (verifyETag && failure == null) {
+      verifyPartETags();
+    }
+    if (failure != null) {
+      abort();
+      checkFailure();
+    }
+    complete();
+    return true;
+  }
+
+  /**
+   * Stops the upload without waiting for queued parts: queued buffers are discarded, in-flight part uploads are interrupted, and the
+   * multipart uploads are aborted once the interrupted uploads have finished, or after a timeout.
+   */
+  private void abandon() {
+    aborted = true;
+    // the abort needs the upload ids, and interrupting a create request could leave an upload behind that cannot be aborted
+    for (Destination destination : destinations) {
+      destination.awaitCreated();
+    }
+    consumer.interrupt();
+    try {
+      consumer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Runnable task : uploadExecutor.shutdownNow()) {
+      // tasks that never started would otherwise never complete
+      ((Future<?>) task).cancel(false);
+    }
+    awaitUploads();
+    // the consumer has exited, so this thread can take from the queue
+    try {
+      while (uploadQueue.size() > 0) {
+        SharedBuffer part = uploadQueue.take();
+        if (part != POISON) {
+          part.release();
         }
-        complete();
-      } else {
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    abort();
+  }
+
+  /**
+   * Waits for interrupted part uploads to finish, since a request already sent may still store its part, and S3 keeps parts stored after an
+   * abort.
+   */
+  private void awaitUploads() {
+    boolean interrupted = false;
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(ABANDON_TIMEOUT_SECONDS);
+    try {
+      while (true) {
         try {
-          uploadQueue.put(new UploadConsumerBuffer(null, true));
-          consumer.join();
+          if (!uploadExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            LOGGER.warn("Part uploads did not stop before the multipart upload was aborted: " + bucket + ":" + key);
+          }
+          return;
         } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
+          interrupted = true;
         }
-        abort();
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
     }
   }
@@ -0,0 +1,161 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the packs written by a {@link S3PackWriter}. The index of a pack is read from its footer, and each logical file is read with a
+ * single ranged GET and checked against its CRC-32.
+ */
+public class S3PackReader {
+
+  private static final int FOOTER_READ_SIZE = 64 * 1024;
+
+  /**
+   * Creates a new builder for a S3PackReader.
+   *
+   * @return a new builder for a S3PackReader
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3PackReader}.
+   */
+  public static class Builder {
+
+    private S3ClientRangeRead s3;
+    private String bucket;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientRangeRead} object for the {@link S3PackReader}. Required.
+     *
+     * @param s3 the {@link S3ClientRangeRead}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientRangeRead s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the bucket the packs are read from. Required.
+     *
+     * @param bucket the bucket name
+     * @return this Builder
+     */
+    public Builder bucket(String bucket) {
+      this.bucket = bucket;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3PackReader}
+     *
+     * @return a new {@link S3PackReader}
+     */
+    public S3PackReader build() {
+      if (s3 == null) {
+        throw new IllegalArgumentException("s3 is required");
+      }
+      if (bucket == null) {
+        throw new IllegalArgumentException("Bucket is required");
+      }
+      return new S3PackReader(s3, bucket);
+    }
+  }
+
+  private final S3ClientRangeRead s3;
+  private final String bucket;
+
+  private S3PackReader(S3ClientRangeRead s3, String bucket) {
+    this.s3 = s3;
+    this.bucket = bucket;
+  }
+
+  /**
+   * Reads the index of a pack from its footer. Small indexes are read with one ranged GET, larger ones with two.
+   *
+   * @param packKey the key of the pack
+   * @return the logical files in the pack, in the order they were added
+   * @throws IOException if the pack does not end with a valid footer
+   */
+  public List<PackEntry> readIndex(String packKey) throws IOException {
+    long length = s3.getObjectLength(bucket, packKey);
+    if (length < S3PackWriter.TRAILER_SIZE) {
+      throw new IOException("Object " + packKey + " is too small to be a pack");
+    }
+    int tailSize = (int) Math.min(length, FOOTER_READ_SIZE);
+    ByteBuffer tail = readFully(packKey, length - tailSize, tailSize);
+    tail.position(tailSize - S3PackWriter.TRAILER_SIZE);
+    int count = tail.getInt();
+    long indexOffset = tail.getLong();
+    int version = tail.getInt();
+    int magic = tail.getInt();
+    if (magic != S3PackWriter.MAGIC || version != S3PackWriter.VERSION || indexOffset < 0L
+        || indexOffset > length - S3PackWriter.TRAILER_SIZE || count < 0) {
+      throw new IOException("Object " + packKey + " does not end with a pack footer");
+    }
+    long indexSize = length - S3PackWriter.TRAILER_SIZE - indexOffset;
+    ByteBuffer index;
+    if (indexOffset >= length - tailSize) {
+      tail.position((int) (indexOffset - (length - tailSize)));
+      tail.limit(tailSize - S3PackWriter.TRAILER_SIZE);
+      index = tail.slice();
+    } else {
+      index = readFully(packKey, indexOffset, (int) indexSize);
+    }
+    List<PackEntry> entries = new ArrayList<>(count);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array(), index.arrayOffset() + index.position(), index.remaining()));
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      long offset = in.readLong();
+      long entryLength = in.readLong();
+      long checksum = in.readInt() & 0xFFFFFFFFL;
+      entries.add(new PackEntry(name, packKey, offset, entryLength, checksum));
+    }
+    return entries;
+  }
+
+  /**
+   * Reads a logical file with a single ranged GET.
+   *
+   * @param entry the location of the logical file
+   * @return the content of the logical file
+   * @throws IOException if the content does not match the checksum of the entry
+   */
+  public byte[] read(PackEntry entry) throws IOException {
+    if (entry.getLength() > Integer.MAX_VALUE) {
+      throw new IOException("Entry " + entry.getName() + " is too large to read into an array");
+    }
+    byte[] bytes = readFully(entry.getPackKey(), entry.getOffset(), (int) entry.getLength()).array();
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    if (crc.getValue() != entry.getChecksum()) {
+      throw new IOException("Checksum mismatch for entry " + entry.getName() + " in " + entry.getPackKey());
+    }
+    return bytes;
+  }
+
+  private ByteBuffer readFully(String key, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      int n = s3.readRange(bucket, key, position + buffer.position(), buffer);
+      if (n <= 0) {
+        throw new IOException("Unexpected end of object " + key);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
@@ -0,0 +1,357 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Appends many small logical files to large pack objects, which avoids the request cost and latency of uploading each one as its own
+ * object. A new pack is started when the current one reaches a size threshold, and packs are named by a {@link KeyNamingPolicy}.
+ *
+ * <p>Each pack ends with a footer that indexes the logical files it contains, so any one of them can be read with a single ranged GET
+ * once its {@link PackEntry} is known. {@link S3PackReader} reads the footer and the logical files. The footer layout is:</p>
+ * <pre>
+ *   for each logical file: name (modified UTF-8, as written by DataOutput.writeUTF), offset (long), length (long), CRC-32 (int)
+ *   count of logical files (int)
+ *   offset of the first index record (long)
+ *   version (int)
+ *   magic number 0x5333504B "S3PK" (int)
+ * </pre>
+ *
+ * <p>A logical file is never split across packs, so a pack may exceed the threshold by up to the size of the last logical file added to
+ * it. If reading the content of a logical file fails, the logical file is left out of the index and the pack is kept. If writing to the
+ * pack fails, the current pack is aborted, and the {@link PackEntry} locations already returned for it become invalid.</p>
+ */
+public class S3PackWriter implements Closeable {
+
+  static final int MAGIC = 0x5333504B;
+  static final int VERSION = 1;
+  static final int TRAILER_SIZE = 4 + 8 + 4 + 4;
+  private static final long MiB = 1024L * 1024L;
+
+  /**
+   * Creates a new builder for a S3PackWriter.
+   *
+   * @return a new builder for a S3PackWriter
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3PackWriter}.
+   */
+  public static class Builder {
+
+    private S3ClientMultipartUpload s3;
+    private String bucket;
+    private KeyNamingPolicy keyNamingPolicy;
+    private long maxPackBytes = 256L * MiB;
+    private int partSizeMib = 5;
+    private int uploadQueueSize = 1;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientMultipartUpload} object for the {@link S3PackWriter}. Required.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientMultipartUpload s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the bucket the packs are written to. Required.
+     *
+     * @param bucket the bucket name
+     * @return this Builder
+     */
+    public Builder bucket(String bucket) {
+      this.bucket = bucket;
+      return this;
+    }
+
+    /**
+     * Sets the {@link KeyNamingPolicy} that names each pack. Required.
+     *
+     * @param keyNamingPolicy the {@link KeyNamingPolicy}
+     * @return this Builder
+     */
+    public Builder keyNamingPolicy(KeyNamingPolicy keyNamingPolicy) {
+      this.keyNamingPolicy = keyNamingPolicy;
+      return this;
+    }
+
+    /**
+     * Sets the size in bytes after which a new pack is started. Must be at least 1. Default value: 256 MiB
+     *
+     * @param maxPackBytes the size in bytes after which a new pack is started
+     * @return this Builder
+     */
+    public Builder maxPackBytes(long maxPackBytes) {
+      this.maxPackBytes = maxPackBytes;
+      return this;
+    }
+
+    /**
+     * Sets the part size of the {@link S3OutputStream} that writes each pack.
+     *
+     * @param partSizeMib the part size in MiB
+     * @return this Builder
+     * @see S3OutputStream.Builder#partSizeMib(int)
+     */
+    public Builder partSizeMib(int partSizeMib) {
+      this.partSizeMib = partSizeMib;
+      return this;
+    }
+
+    /**
+     * Sets the upload queue size of the {@link S3OutputStream} that writes each pack.
+     *
+     * @param uploadQueueSize the max number of buffers in the queue before blocking
+     * @return this Builder
+     * @see S3OutputStream.Builder#uploadQueueSize(int)
+     */
+    public Builder uploadQueueSize(int uploadQueueSize) {
+      this.uploadQueueSize = uploadQueueSize;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3PackWriter}
+     *
+     * @return a new {@link S3PackWriter}
+     */
+    public S3PackWriter build() {
+      if (s3 == null) {
+        throw new IllegalArgumentException("s3 is required");
+      }
+      if (bucket == null) {
+        throw new IllegalArgumentException("Bucket is required");
+      }
+      if (keyNamingPolicy == null) {
+        throw new IllegalArgumentException("Key naming policy is required");
+      }
+      if (maxPackBytes < 1L) {
+        throw new IllegalArgumentException("Max pack bytes must be at least 1");
+      }
+      final S3ClientMultipartUpload s3 = this.s3;
+      final String bucket = this.bucket;
+      final int partSizeMib = this.partSizeMib;
+      final int uploadQueueSize = this.uploadQueueSize;
+      return new S3PackWriter(keyNamingPolicy, maxPackBytes, key -> S3OutputStream.builder()
+          .s3(s3)
+          .uploadRequest(MultipartUploadRequest.builder().bucket(bucket).key(key).build())
+          .partSizeMib(partSizeMib)
+          .uploadQueueSize(uploadQueueSize)
+          .autoComplete(false)
+          .build());
+    }
+  }
+
+  /**
+   * Creates the stream that writes a pack.
+   */
+  interface PackStreamFactory {
+
+    S3OutputStream create(String key);
+  }
+
+  private final KeyNamingPolicy keyNamingPolicy;
+  private final long maxPackBytes;
+  private final PackStreamFactory packStreamFactory;
+  private final List<PackEntry> packEntries = new ArrayList<>();
+  private final CRC32 crc = new CRC32();
+  private final byte[] transferBuffer = new byte[8192];
+
+  private long packIndex;
+  private String packKey;
+  private S3OutputStream pack;
+  private long packBytes;
+  private boolean closed;
+
+  S3PackWriter(KeyNamingPolicy keyNamingPolicy, long maxPackBytes, PackStreamFactory packStreamFactory) {
+    this.keyNamingPolicy = keyNamingPolicy;
+    this.maxPackBytes = maxPackBytes;
+    this.packStreamFactory = packStreamFactory;
+  }
+
+  /**
+   * Adds a logical file.
+   *
+   * @param name the name of the logical file, at most 65535 bytes when encoded
+   * @param bytes the content of the logical file
+   * @return the location of the logical file
+   * @throws IOException if an I/O error occurs, in which case the current pack is aborted and the locations already returned for it
+   *     become invalid
+   */
+  public PackEntry add(String name, byte[] bytes) throws IOException {
+    return add(name, bytes, 0, bytes.length);
+  }
+
+  /**
+   * Adds a logical file.
+   *
+   * @param name the name of the logical file, at most 65535 bytes when encoded
+   * @param bytes an array containing the content of the logical file
+   * @param off the offset of the content in the array
+   * @param len the length of the content
+   * @return the location of the logical file
+   * @throws IOException if an I/O error occurs, in which case the current pack is aborted and the locations already returned for it
+   *     become invalid
+   */
+  public PackEntry add(String name, byte[] bytes, int off, int len) throws IOException {
+    S3OutputStream out = startEntry(name);
+    // invalid bounds fail here, before anything is written to the pack
+    crc.reset();
+    crc.update(bytes, off, len);
+    try {
+      out.write(bytes, off, len);
+    } catch (IOException | RuntimeException e) {
+      abortPack();
+      throw e;
+    }
+    return finishEntry(name, len);
+  }
+
+  /**
+   * Adds a logical file, reading its content from an {@link InputStream} until the end of the stream is reached. The InputStream is not
+   * closed.
+   *
+   * @param name the name of the logical file, at most 65535 bytes when encoded
+   * @param in the {@link InputStream} to read the content of the logical file from
+   * @return the location of the logical file
+   * @throws IOException if an I/O error occurs when reading or writing. If reading fails, the logical file is left out and the pack is
+   *     kept. If writing fails, the current pack is aborted and the locations already returned for it become invalid.
+   */
+  public PackEntry add(String name, InputStream in) throws IOException {
+    S3OutputStream out = startEntry(name);
+    long length = 0;
+    crc.reset();
+    while (true) {
+      int n;
+      try {
+        n = in.read(transferBuffer);
+      } catch (IOException | RuntimeException e) {
+        // the bytes already written stay in the pack, but are not indexed
+        packBytes += length;
+        throw e;
+      }
+      if (n == -1) {
+        break;
+      }
+      crc.update(transferBuffer, 0, n);
+      try {
+        out.write(transferBuffer, 0, n);
+      } catch (IOException | RuntimeException e) {
+        abortPack();
+        throw e;
+      }
+      length += n;
+    }
+    return finishEntry(name, length);
+  }
+
+  /**
+   * Finishes the current pack, if any, so the next logical file starts a new pack.
+   *
+   * @throws IOException if an I/O error occurs when finishing the pack
+   */
+  public void finishPack() throws IOException {
+    if (pack == null) {
+      return;
+    }
+    S3OutputStream out = pack;
+    pack = null;
+    try (S3DataOutput footer = out.dataOutput()) {
+      long indexOffset = packBytes;
+      for (PackEntry entry : packEntries) {
+        footer.writeUTF(entry.getName());
+        footer.writeLong(entry.getOffset());
+        footer.writeLong(entry.getLength());
+        footer.writeInt((int) entry.getChecksum());
+      }
+      footer.writeInt(packEntries.size());
+      footer.writeLong(indexOffset);
+      footer.writeInt(VERSION);
+      footer.writeInt(MAGIC);
+      footer.done();
+    } finally {
+      packEntries.clear();
+    }
+  }
+
+  /**
+   * Returns the key of the current pack.
+   *
+   * @return the key of the current pack, or null if no pack is open
+   */
+  public String getCurrentPackKey() {
+    return pack == null ? null : packKey;
+  }
+
+  /**
+   * Finishes the current pack.
+   *
+   * @throws IOException if an I/O error occurs when finishing the pack
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    finishPack();
+  }
+
+  private S3OutputStream startEntry(String name) throws IOException {
+    if (closed) {
+      throw new IOException("Pack writer is closed");
+    }
+    if (modifiedUtf8Length(name) > 0xFFFF) {
+      throw new IllegalArgumentException("Name is longer than 65535 bytes when encoded");
+    }
+    if (pack == null) {
+      packKey = keyNamingPolicy.keyFor(packIndex++, Instant.now());
+      pack = packStreamFactory.create(packKey);
+      packBytes = 0L;
+    }
+    return pack;
+  }
+
+  private void abortPack() throws IOException {
+    S3OutputStream out = pack;
+    pack = null;
+    packEntries.clear();
+    // closing without done() aborts the upload
+    out.close();
+  }
+
+  private static long modifiedUtf8Length(String name) {
+    long length = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+    }
+    return length;
+  }
+
+  private PackEntry finishEntry(String name, long length) throws IOException {
+    PackEntry entry = new PackEntry(name, packKey, packBytes, length, crc.getValue());
+    packEntries.add(entry);
+    packBytes += length;
+    if (packBytes >= maxPackBytes) {
+      finishPack();
+    }
+    return entry;
+  }
+}
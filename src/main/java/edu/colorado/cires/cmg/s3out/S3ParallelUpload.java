@@ -0,0 +1,231 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * A multipart upload to a single object that is written by several producers in parallel. Each producer writes a contiguous segment of the
+ * object through its own {@link S3SegmentOutputStream}, which uploads its parts from the producer's thread. Segments are placed in the object
+ * in the order they are opened.
+ *
+ * <p>S3 requires every part except the last to be at least 5 MiB, so a segment cannot end with a short part. Instead, each segment keeps its
+ * trailing bytes, and each segment after the first keeps its first part, until {@link #commit()}. The commit joins the end of each segment with
+ * the start of the next and uploads them as the part at the boundary.  This costs one extra part buffer per segment and a copy of at most two
+ * parts per boundary.</p>
+ *
+ * <pre>
+ *   try (S3ParallelUpload upload = S3ParallelUpload.builder().s3(s3).uploadRequest(uploadRequest).build()) {
+ *     S3SegmentOutputStream first = upload.openSegment(5000);
+ *     S3SegmentOutputStream second = upload.openSegment(5000);
+ *     // write and close each segment on its own thread
+ *     upload.commit();
+ *   }
+ * </pre>
+ *
+ * <p>If the upload is closed without being committed, it is aborted.</p>
+ */
+public class S3ParallelUpload implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(S3ParallelUpload.class);
+  private static final int MiB = 1024 * 1024;
+  private static final int MIN_PART_SIZE_MIB = 5;
+
+  /**
+   * Creates a new builder for a S3ParallelUpload.
+   *
+   * @return a new builder for a S3ParallelUpload
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3ParallelUpload}.
+   */
+  public static class Builder {
+
+    private S3ClientMultipartUpload s3;
+    private MultipartUploadRequest uploadRequest;
+    private int partSizeMib = MIN_PART_SIZE_MIB;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientMultipartUpload} object for the {@link S3ParallelUpload}. Required.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientMultipartUpload s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the {@link MultipartUploadRequest} that defines the bucket, key, and metadata for the upload. Required.
+     *
+     * @param uploadRequest the {@link MultipartUploadRequest}
+     * @return this Builder
+     */
+    public Builder uploadRequest(MultipartUploadRequest uploadRequest) {
+      this.uploadRequest = uploadRequest;
+      return this;
+    }
+
+    /**
+     * Sets the size of the parts uploaded by each segment in MiB. Must be at least 5. Default value: 5
+     *
+     * @param partSizeMib the part size in MiB
+     * @return this Builder
+     */
+    public Builder partSizeMib(int partSizeMib) {
+      this.partSizeMib = partSizeMib;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3ParallelUpload} and creates the multipart upload.
+     *
+     * @return a new {@link S3ParallelUpload}
+     */
+    public S3ParallelUpload build() {
+      if (partSizeMib < MIN_PART_SIZE_MIB) {
+        throw new IllegalArgumentException("Part size MiB must be at least " + MIN_PART_SIZE_MIB);
+      }
+      return new S3ParallelUpload(s3, uploadRequest, partSizeMib * MiB);
+    }
+  }
+
+  private final S3ClientMultipartUpload s3;
+  private final String bucket;
+  private final String key;
+  private final String uploadId;
+  private final int partSize;
+  private final List<S3SegmentOutputStream> segments = new ArrayList<>();
+
+  private int nextPartNumber = 1;
+  private boolean committed;
+  // read without locking by every segment write, so writers do not contend with each other or wait on a commit
+  private volatile boolean closed;
+
+  S3ParallelUpload(S3ClientMultipartUpload s3, MultipartUploadRequest uploadRequest, int partSize) {
+    this.s3 = s3;
+    this.bucket = uploadRequest.getBucket();
+    this.key = uploadRequest.getKey();
+    this.partSize = partSize;
+    uploadId = s3.createMultipartUpload(uploadRequest);
+  }
+
+  /**
+   * Opens the next segment of the object, reserving a range of part numbers for it. The segment may upload up to maxParts parts of the part
+   * size. All segments together may reserve at most 10,000 part numbers.
+   *
+   * @param maxParts the number of part numbers to reserve for the segment
+   * @return a {@link S3SegmentOutputStream} for the segment
+   */
+  public synchronized S3SegmentOutputStream openSegment(int maxParts) {
+    if (committed || closed) {
+      throw new IllegalStateException("Upload has been committed or closed");
+    }
+    if (maxParts < 1 || nextPartNumber - 1L + maxParts > AdaptivePartSizer.MAX_PARTS) {
+      throw new IllegalArgumentException(
+          "Max parts must be between 1 and the " + (AdaptivePartSizer.MAX_PARTS - nextPartNumber + 1) + " part numbers remaining");
+    }
+    S3SegmentOutputStream segment = new S3SegmentOutputStream(this, segments.isEmpty(), nextPartNumber, maxParts, partSize);
+    nextPartNumber += maxParts;
+    segments.add(segment);
+    return segment;
+  }
+
+  CompletedPart uploadPart(int partNumber, ByteBuffer part) {
+    return s3.uploadPart(bucket, key, uploadId, partNumber, part);
+  }
+
+  /**
+   * Uploads the parts at the segment boundaries and completes the upload. All segments must have been closed.
+   *
+   * @throws IOException if the parts could not be uploaded or the upload could not be completed
+   * @throws IllegalStateException if a segment has not been closed or failed
+   */
+  public synchronized void commit() throws IOException {
+    if (committed || closed) {
+      throw new IllegalStateException("Upload has been committed or closed");
+    }
+    for (S3SegmentOutputStream segment : segments) {
+      segment.checkCommittable();
+    }
+    List<CompletedPart> completedParts = new ArrayList<>();
+    ByteBuffer carry = ByteBuffer.allocate(0);
+    int lastPartNumber = 0;
+    try {
+      for (S3SegmentOutputStream segment : segments) {
+        // the first part of a segment is the boundary part, it holds the bytes carried from earlier segments
+        carry = append(carry, segment.getHead());
+        if (carry.hasRemaining() && (carry.remaining() >= partSize || !segment.getCompletedParts().isEmpty())) {
+          completedParts.add(uploadPart(segment.getFirstPartNumber(), carry));
+          lastPartNumber = segment.getFirstPartNumber();
+          carry = ByteBuffer.allocate(0);
+        }
+        for (CompletedPart completedPart : segment.getCompletedParts()) {
+          completedParts.add(completedPart);
+          lastPartNumber = completedPart.partNumber();
+        }
+        carry = append(carry, segment.getTail());
+      }
+      if (carry.hasRemaining() || completedParts.isEmpty()) {
+        if (lastPartNumber >= AdaptivePartSizer.MAX_PARTS) {
+          throw new IllegalStateException("No part number is left for the last part");
+        }
+        completedParts.add(uploadPart(lastPartNumber + 1, carry));
+      }
+      s3.completeMultipartUpload(bucket, key, uploadId, completedParts);
+    } catch (RuntimeException e) {
+      throw new IOException("Multipart upload failed: " + bucket + ":" + key, e);
+    }
+    committed = true;
+  }
+
+  private static ByteBuffer append(ByteBuffer carry, ByteBuffer bytes) {
+    if (!carry.hasRemaining()) {
+      return bytes.duplicate();
+    }
+    ByteBuffer joined = ByteBuffer.allocate(carry.remaining() + bytes.remaining());
+    joined.put(carry.duplicate()).put(bytes.duplicate());
+    joined.flip();
+    return joined;
+  }
+
+  /**
+   * Aborts the upload if it has not been committed. Segments that are still open can no longer be written to.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      if (!committed) {
+        try {
+          s3.abortMultipartUpload(bucket, key, uploadId);
+        } catch (Exception e) {
+          LOGGER.warn("An error occurred aborting multipart upload: " + bucket + ":" + key, e);
+        }
+      }
+    }
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public String toString() {
+    return bucket + ":" + key;
+  }
+}
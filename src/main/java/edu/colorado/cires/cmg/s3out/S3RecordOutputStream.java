@@ -0,0 +1,332 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * An {@link OutputStream} for record-oriented data, such as NDJSON or CSV, that cuts parts on record boundaries and writes a {@link RecordIndex}
+ * of the record groups as a companion object. The caller calls {@link #endRecord()} after writing each record.
+ *
+ * <p>A part is cut at the first record end after it reaches the part size. If a part reaches the part size plus the tolerance without a
+ * record end, it is cut there and the record continues in the next part; the index remains exact, since each group starts at the first record
+ * that begins in its part.  Each part buffer is handed to the underlying {@link S3OutputStream} with
+ * {@link S3OutputStream#writeOwned(ByteBuffer)}, so it is uploaded without being copied again, and is reused for a later part once it has
+ * been uploaded.</p>
+ *
+ * <p>The index is uploaded when the stream is closed, after the data object has been completed. It is not uploaded if the data upload is
+ * aborted.</p>
+ */
+public class S3RecordOutputStream extends OutputStream {
+
+  private static final int MiB = 1024 * 1024;
+  private static final int MIN_PART_SIZE_MIB = 5;
+  private static final int MAX_PART_SIZE_MIB = Integer.MAX_VALUE / MiB;
+
+  /**
+   * Creates a new builder for a S3RecordOutputStream.
+   *
+   * @return a new builder for a S3RecordOutputStream
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3RecordOutputStream}.
+   */
+  public static class Builder {
+
+    private S3ClientMultipartUpload s3;
+    private MultipartUploadRequest uploadRequest;
+    private String indexKey;
+    private int partSizeMib = MIN_PART_SIZE_MIB;
+    private int toleranceMib = -1;
+    private int uploadQueueSize = 1;
+    private boolean autoComplete = true;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientMultipartUpload} object for the {@link S3RecordOutputStream}. Required.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientMultipartUpload s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the {@link MultipartUploadRequest} for the data object. Required.
+     *
+     * @param uploadRequest the {@link MultipartUploadRequest}
+     * @return this Builder
+     */
+    public Builder uploadRequest(MultipartUploadRequest uploadRequest) {
+      this.uploadRequest = uploadRequest;
+      return this;
+    }
+
+    /**
+     * Sets the key of the index object, in the same bucket as the data object. Default value: the data object key followed by ".index"
+     *
+     * @param indexKey the key of the index object
+     * @return this Builder
+     */
+    public Builder indexKey(String indexKey) {
+      this.indexKey = indexKey;
+      return this;
+    }
+
+    /**
+     * Sets the size in MiB after which a part is cut at the next record end. Must be at least 5. Default value: 5
+     *
+     * @param partSizeMib the part size in MiB
+     * @return this Builder
+     */
+    public Builder partSizeMib(int partSizeMib) {
+      this.partSizeMib = partSizeMib;
+      return this;
+    }
+
+    /**
+     * Sets how many MiB a part may grow beyond the part size while waiting for a record end. A record that does not end within the tolerance
+     * is split across parts. Default value: the part size
+     *
+     * @param toleranceMib the tolerance in MiB
+     * @return this Builder
+     */
+    public Builder toleranceMib(int toleranceMib) {
+      this.toleranceMib = toleranceMib;
+      return this;
+    }
+
+    /**
+     * Sets the upload queue size of the underlying {@link S3OutputStream}.
+     *
+     * @param uploadQueueSize the max number of buffers in the queue before blocking
+     * @return this Builder
+     * @see S3OutputStream.Builder#uploadQueueSize(int)
+     */
+    public Builder uploadQueueSize(int uploadQueueSize) {
+      this.uploadQueueSize = uploadQueueSize;
+      return this;
+    }
+
+    /**
+     * Controls completion of the data object when the stream is closed, in the same way as for a {@link S3OutputStream}. Enabled by default.
+     *
+     * @param autoComplete true to enable autocompletion
+     * @return this Builder
+     * @see S3OutputStream.Builder#autoComplete(boolean)
+     */
+    public Builder autoComplete(boolean autoComplete) {
+      this.autoComplete = autoComplete;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3RecordOutputStream}
+     *
+     * @return a new {@link S3RecordOutputStream}
+     */
+    public S3RecordOutputStream build() {
+      if (partSizeMib < MIN_PART_SIZE_MIB) {
+        throw new IllegalArgumentException("Part size MiB must be at least " + MIN_PART_SIZE_MIB);
+      }
+      int tolerance = toleranceMib < 0 ? partSizeMib : toleranceMib;
+      if ((long) partSizeMib + tolerance > MAX_PART_SIZE_MIB) {
+        throw new IllegalArgumentException("Part size MiB plus tolerance MiB must be at most " + MAX_PART_SIZE_MIB);
+      }
+      final S3ClientMultipartUpload s3 = this.s3;
+      final MultipartUploadRequest dataRequest = this.uploadRequest;
+      final MultipartUploadRequest indexRequest = MultipartUploadRequest.builder()
+          .bucket(dataRequest.getBucket())
+          .key(indexKey == null ? dataRequest.getKey() + ".index" : indexKey)
+          .build();
+      S3OutputStream dataStream = S3OutputStream.builder()
+          .s3(s3)
+          .uploadRequest(dataRequest)
+          .partSizeMib(partSizeMib)
+          .uploadQueueSize(uploadQueueSize)
+          .autoComplete(false)
+          .build();
+      return new S3RecordOutputStream(
+          dataStream,
+          () -> S3OutputStream.builder().s3(s3).uploadRequest(indexRequest).autoComplete(false).build(),
+          partSizeMib * MiB,
+          (partSizeMib + tolerance) * MiB,
+          autoComplete);
+    }
+  }
+
+  private final S3OutputStream dataStream;
+  private final Supplier<S3OutputStream> indexStreamFactory;
+  private final int partSize;
+  private final int maxPartSize;
+  private final BufferPool bufferPool;
+
+  private ByteBuffer buffer;
+  private long bytesEmitted;
+  private long recordCount;
+  private boolean recordStartPending = true;
+  private long groupOffset = -1L;
+  private long groupFirstRecord;
+  private long[] offsets = new long[16];
+  private long[] firstRecords = new long[16];
+  private int groups;
+  private RecordIndex index;
+  private boolean complete;
+  private boolean closed;
+
+  S3RecordOutputStream(S3OutputStream dataStream, Supplier<S3OutputStream> indexStreamFactory, int partSize, int maxPartSize,
+      boolean autoComplete) {
+    this.dataStream = dataStream;
+    this.indexStreamFactory = indexStreamFactory;
+    this.partSize = partSize;
+    this.maxPartSize = maxPartSize;
+    complete = autoComplete;
+    // every uploaded part buffer is kept for reuse, so no more buffers are allocated than are queued or uploading at once
+    bufferPool = new BufferPool(maxPartSize, Integer.MAX_VALUE);
+    buffer = bufferPool.acquire();
+  }
+
+  private void startRecordIfPending() {
+    if (recordStartPending) {
+      recordStartPending = false;
+      if (groupOffset < 0L) {
+        groupOffset = bytesEmitted + buffer.position();
+        groupFirstRecord = recordCount;
+      }
+    }
+  }
+
+  private void emitPart() throws IOException {
+    if (groupOffset >= 0L) {
+      if (groups == offsets.length) {
+        offsets = Arrays.copyOf(offsets, groups * 2);
+        firstRecords = Arrays.copyOf(firstRecords, groups * 2);
+      }
+      offsets[groups] = groupOffset;
+      firstRecords[groups] = groupFirstRecord;
+      groups++;
+      groupOffset = -1L;
+    }
+    buffer.flip();
+    bytesEmitted += buffer.remaining();
+    ByteBuffer part = buffer;
+    buffer = closed ? null : bufferPool.acquire();
+    dataStream.writeOwned(part, bufferPool);
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    startRecordIfPending();
+    buffer.put((byte) b);
+    if (!buffer.hasRemaining()) {
+      emitPart();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException();
+    } else if ((off < 0) || (off > b.length) || (len < 0) ||
+        ((off + len) > b.length) || ((off + len) < 0)) {
+      throw new IndexOutOfBoundsException();
+    }
+    ensureOpen();
+    if (len == 0) {
+      return;
+    }
+    startRecordIfPending();
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0) {
+      int n = Math.min(remaining, buffer.remaining());
+      buffer.put(b, offset, n);
+      offset += n;
+      remaining -= n;
+      if (!buffer.hasRemaining()) {
+        emitPart();
+      }
+    }
+  }
+
+  /**
+   * Marks the end of a record. If the current part has reached the part size, it is cut here.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  public void endRecord() throws IOException {
+    ensureOpen();
+    if (recordStartPending) {
+      // an empty record still starts at the current offset
+      startRecordIfPending();
+    }
+    recordCount++;
+    recordStartPending = true;
+    if (buffer.position() >= partSize) {
+      emitPart();
+    }
+  }
+
+  /**
+   * If autocomplete is disabled, marks the upload as successful.
+   *
+   * @see Builder#autoComplete(boolean)
+   */
+  public void done() {
+    complete = true;
+  }
+
+  /**
+   * Returns the index of the record groups. Only available after the stream has been closed and the data object completed.
+   *
+   * @return the {@link RecordIndex}, or null if the stream has not been closed or the upload was aborted
+   */
+  public RecordIndex getIndex() {
+    return index;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (!complete) {
+      dataStream.close();
+      return;
+    }
+    if (!recordStartPending) {
+      // bytes written after the last endRecord() form the last record
+      recordCount++;
+    }
+    if (buffer.position() > 0) {
+      emitPart();
+    }
+    dataStream.done();
+    dataStream.close();
+    RecordIndex recordIndex = new RecordIndex(Arrays.copyOf(offsets, groups), Arrays.copyOf(firstRecords, groups), bytesEmitted, recordCount);
+    try (S3OutputStream indexStream = indexStreamFactory.get()) {
+      recordIndex.write(indexStream);
+      indexStream.done();
+    }
+    index = recordIndex;
+  }
+}
@@ -0,0 +1,402 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * An {@link OutputStream} that splits one continuous stream into a sequence of S3 objects, starting a new object when the current one
+ * reaches a size or an age. Objects are named by a {@link KeyNamingPolicy}.
+ *
+ * <p>Writers do not block at a rotation boundary. Each object is written by a {@link S3OutputStream}, which creates its multipart upload
+ * in the background, and the previous object is completed on a background thread.  If completing a previous object fails, the error is
+ * reported as an {@link IOException} from the next write or from close().</p>
+ *
+ * <p>Objects are only started when bytes are written, so no empty objects are created. A write is never split across objects, so an object
+ * may exceed the maximum size by up to the size of the write that crossed it.</p>
+ */
+public class S3RollingOutputStream extends OutputStream {
+
+  private static final int MAX_PENDING_CLOSES = 2;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  /**
+   * Creates a new builder for a S3RollingOutputStream.
+   *
+   * @return a new builder for a S3RollingOutputStream
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3RollingOutputStream}.
+   */
+  public static class Builder {
+
+    private S3ClientMultipartUpload s3;
+    private String bucket;
+    private KeyNamingPolicy keyNamingPolicy;
+    private long maxObjectBytes;
+    private Duration maxObjectAge;
+    private int partSizeMib = 5;
+    private int uploadQueueSize = 1;
+    private UploadConcurrencyLimiter concurrencyLimiter;
+    private boolean autoComplete = true;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientMultipartUpload} object for the {@link S3RollingOutputStream}. Required.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientMultipartUpload s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the bucket the objects are written to. Required.
+     *
+     * @param bucket the bucket name
+     * @return this Builder
+     */
+    public Builder bucket(String bucket) {
+      this.bucket = bucket;
+      return this;
+    }
+
+    /**
+     * Sets the {@link KeyNamingPolicy} that names each object. Required.
+     *
+     * @param keyNamingPolicy the {@link KeyNamingPolicy}
+     * @return this Builder
+     */
+    public Builder keyNamingPolicy(KeyNamingPolicy keyNamingPolicy) {
+      this.keyNamingPolicy = keyNamingPolicy;
+      return this;
+    }
+
+    /**
+     * Starts a new object after a write brings the current object to at least this many bytes. At least one of maxObjectBytes and
+     * maxObjectAge is required.
+     *
+     * @param maxObjectBytes the size at which a new object is started
+     * @return this Builder
+     */
+    public Builder maxObjectBytes(long maxObjectBytes) {
+      this.maxObjectBytes = maxObjectBytes;
+      return this;
+    }
+
+    /**
+     * Completes the current object once this long has passed since its first byte was written, even if no further bytes are written. At least
+     * one of maxObjectBytes and maxObjectAge is required.
+     *
+     * @param maxObjectAge the age at which an object is completed
+     * @return this Builder
+     */
+    public Builder maxObjectAge(Duration maxObjectAge) {
+      this.maxObjectAge = maxObjectAge;
+      return this;
+    }
+
+    /**
+     * Sets the part size in MiB of each object's {@link S3OutputStream}.
+     *
+     * @param partSizeMib the part size in MiB
+     * @return this Builder
+     * @see S3OutputStream.Builder#partSizeMib(int)
+     */
+    public Builder partSizeMib(int partSizeMib) {
+      this.partSizeMib = partSizeMib;
+      return this;
+    }
+
+    /**
+     * Sets the upload queue size of each object's {@link S3OutputStream}.
+     *
+     * @param uploadQueueSize the max number of buffers in the queue before blocking
+     * @return this Builder
+     * @see S3OutputStream.Builder#uploadQueueSize(int)
+     */
+    public Builder uploadQueueSize(int uploadQueueSize) {
+      this.uploadQueueSize = uploadQueueSize;
+      return this;
+    }
+
+    /**
+     * Sets a {@link UploadConcurrencyLimiter} shared by all objects, including objects being completed in the background.
+     *
+     * @param concurrencyLimiter the {@link UploadConcurrencyLimiter}
+     * @return this Builder
+     * @see S3OutputStream.Builder#concurrencyLimiter(UploadConcurrencyLimiter)
+     */
+    public Builder concurrencyLimiter(UploadConcurrencyLimiter concurrencyLimiter) {
+      this.concurrencyLimiter = concurrencyLimiter;
+      return this;
+    }
+
+    /**
+     * Objects replaced by a newer object are always completed. This controls what happens to the current object when the
+     * S3RollingOutputStream is closed, in the same way as for a {@link S3OutputStream}. Enabled by default.
+     *
+     * @param autoComplete true to enable autocompletion
+     * @return this Builder
+     * @see S3OutputStream.Builder#autoComplete(boolean)
+     */
+    public Builder autoComplete(boolean autoComplete) {
+      this.autoComplete = autoComplete;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3RollingOutputStream}
+     *
+     * @return a new {@link S3RollingOutputStream}
+     */
+    public S3RollingOutputStream build() {
+      if (keyNamingPolicy == null) {
+        throw new IllegalArgumentException("A key naming policy is required");
+      }
+      if (maxObjectBytes <= 0L && (maxObjectAge == null || maxObjectAge.isZero() || maxObjectAge.isNegative())) {
+        throw new IllegalArgumentException("A positive max object bytes or max object age is required");
+      }
+      final S3ClientMultipartUpload s3 = this.s3;
+      final String bucket = this.bucket;
+      final int partSizeMib = this.partSizeMib;
+      final int uploadQueueSize = this.uploadQueueSize;
+      final UploadConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+      return new S3RollingOutputStream(
+          key -> S3OutputStream.builder()
+              .s3(s3)
+              .uploadRequest(MultipartUploadRequest.builder().bucket(bucket).key(key).build())
+              .partSizeMib(partSizeMib)
+              .uploadQueueSize(uploadQueueSize)
+              .concurrencyLimiter(concurrencyLimiter)
+              .autoComplete(false)
+              .build(),
+          keyNamingPolicy,
+          maxObjectBytes,
+          maxObjectAge,
+          autoComplete);
+    }
+  }
+
+  private final Function<String, S3OutputStream> streamFactory;
+  private final KeyNamingPolicy keyNamingPolicy;
+  private final long maxObjectBytes;
+  private final Duration maxObjectAge;
+  private final ExecutorService closeExecutor;
+  private final ScheduledThreadPoolExecutor ageExecutor;
+  private final Deque<Future<?>> pendingCloses = new ArrayDeque<>();
+
+  private S3OutputStream current;
+  private ScheduledFuture<?> ageRotation;
+  private String currentKey;
+  private long currentBytes;
+  private long index;
+  private boolean complete;
+  private boolean closed;
+  private volatile Exception failure;
+
+  S3RollingOutputStream(Function<String, S3OutputStream> streamFactory, KeyNamingPolicy keyNamingPolicy, long maxObjectBytes,
+      Duration maxObjectAge, boolean autoComplete) {
+    this.streamFactory = streamFactory;
+    this.keyNamingPolicy = keyNamingPolicy;
+    this.maxObjectBytes = maxObjectBytes;
+    this.maxObjectAge = maxObjectAge;
+    complete = autoComplete;
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "s3-rolling-output-stream-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    closeExecutor = Executors.newFixedThreadPool(MAX_PENDING_CLOSES, threadFactory);
+    if (maxObjectAge == null) {
+      ageExecutor = null;
+    } else {
+      ageExecutor = new ScheduledThreadPoolExecutor(1, threadFactory);
+      // objects rotated by size cancel their age rotation, which would otherwise stay queued until it expires
+      ageExecutor.setRemoveOnCancelPolicy(true);
+    }
+  }
+
+  private S3OutputStream current() {
+    if (current == null) {
+      currentKey = keyNamingPolicy.keyFor(index++, Instant.now());
+      final S3OutputStream stream = streamFactory.apply(currentKey);
+      currentBytes = 0L;
+      current = stream;
+      if (ageExecutor != null) {
+        ageRotation = ageExecutor.schedule(() -> rotateIfCurrent(stream), maxObjectAge.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+    return current;
+  }
+
+  private synchronized void rotateIfCurrent(S3OutputStream stream) {
+    if (!closed && current == stream) {
+      try {
+        rotate();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+  }
+
+  private void rotate() throws IOException {
+    final S3OutputStream previous = current;
+    current = null;
+    cancelAgeRotation();
+    previous.done();
+    pendingCloses.add(closeExecutor.submit(() -> {
+      try {
+        previous.close();
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      }
+    }));
+    pendingCloses.removeIf(Future::isDone);
+    // closing objects hold their part buffers, wait rather than let them accumulate
+    while (pendingCloses.size() > MAX_PENDING_CLOSES) {
+      await(pendingCloses.removeFirst());
+    }
+  }
+
+  private void cancelAgeRotation() {
+    if (ageRotation != null) {
+      ageRotation.cancel(false);
+      ageRotation = null;
+    }
+  }
+
+  /**
+   * Returns the number of age rotations scheduled, for testing.
+   */
+  int getScheduledAgeRotations() {
+    return ageExecutor == null ? 0 : ageExecutor.getQueue().size();
+  }
+
+  private static void await(Future<?> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for an object to complete", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to complete object", e.getCause());
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    Exception e = failure;
+    if (e != null) {
+      throw new IOException("Rolling upload failed", e);
+    }
+  }
+
+  private void afterWrite(int len) throws IOException {
+    currentBytes += len;
+    if (maxObjectBytes > 0L && currentBytes >= maxObjectBytes) {
+      rotate();
+    }
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    ensureOpen();
+    current().write(b);
+    afterWrite(1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (len == 0) {
+      return;
+    }
+    current().write(b, off, len);
+    afterWrite(len);
+  }
+
+  /**
+   * Completes the current object, if any bytes have been written to it. The next write starts a new object.
+   *
+   * @throws IOException if an earlier object failed to complete
+   */
+  public synchronized void rotateNow() throws IOException {
+    ensureOpen();
+    if (current != null) {
+      rotate();
+    }
+  }
+
+  /**
+   * Returns the key of the object currently being written.
+   *
+   * @return the key of the object currently being written, or null if no bytes have been written since the last rotation
+   */
+  public synchronized String getCurrentKey() {
+    return current == null ? null : currentKey;
+  }
+
+  /**
+   * If autocomplete is disabled, marks the current object as successful.
+   *
+   * @see Builder#autoComplete(boolean)
+   */
+  public synchronized void done() {
+    complete = true;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (current != null) {
+        if (complete) {
+          current.done();
+        }
+        S3OutputStream last = current;
+        current = null;
+        last.close();
+      }
+      while (!pendingCloses.isEmpty()) {
+        await(pendingCloses.removeFirst());
+      }
+    } finally {
+      closeExecutor.shutdown();
+      if (ageExecutor != null) {
+        ageExecutor.shutdownNow();
+      }
+    }
+    Exception e = failure;
+    if (e != null) {
+      throw new IOException("Rolling upload failed", e);
+    }
+  }
+}
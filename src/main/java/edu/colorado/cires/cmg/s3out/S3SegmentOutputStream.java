@@ -0,0 +1,149 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * An {@link OutputStream} that writes one contiguous segment of a {@link S3ParallelUpload}. Full parts are uploaded from the writing thread
+ * as they are filled, using the part numbers reserved for the segment.  A segment is written by a single thread and must be closed before the
+ * upload is committed.
+ *
+ * @see S3ParallelUpload#openSegment(int)
+ */
+public class S3SegmentOutputStream extends OutputStream {
+
+  private final S3ParallelUpload upload;
+  private final boolean first;
+  private final int firstPartNumber;
+  private final int maxParts;
+  private final int partSize;
+  private final List<CompletedPart> completedParts = new ArrayList<>();
+
+  private ByteBuffer buffer;
+  private ByteBuffer head;
+  private int partNumber;
+  private Exception failure;
+  private volatile boolean closed;
+
+  S3SegmentOutputStream(S3ParallelUpload upload, boolean first, int firstPartNumber, int maxParts, int partSize) {
+    this.upload = upload;
+    this.first = first;
+    this.firstPartNumber = firstPartNumber;
+    this.maxParts = maxParts;
+    this.partSize = partSize;
+    // the first segment uploads its first part, later segments keep theirs for the boundary part
+    partNumber = first ? firstPartNumber : firstPartNumber + 1;
+    buffer = ByteBuffer.allocate(partSize);
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed || upload.isClosed()) {
+      throw new IOException("Segment closed");
+    }
+    if (failure != null) {
+      throw new IOException("Multipart upload failed: " + upload, failure);
+    }
+  }
+
+  private void partFilled() throws IOException {
+    buffer.flip();
+    if (!first && head == null) {
+      head = buffer;
+    } else {
+      if (partNumber >= firstPartNumber + maxParts) {
+        failure = new IllegalStateException("Segment exceeded its " + maxParts + " reserved parts");
+        ensureOpen();
+      }
+      try {
+        completedParts.add(upload.uploadPart(partNumber++, buffer));
+      } catch (RuntimeException e) {
+        failure = e;
+        ensureOpen();
+      }
+      buffer.clear();
+      return;
+    }
+    buffer = ByteBuffer.allocate(partSize);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    buffer.put((byte) b);
+    if (!buffer.hasRemaining()) {
+      partFilled();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (b == null) {
+      throw new NullPointerException();
+    } else if ((off < 0) || (off > b.length) || (len < 0) ||
+        ((off + len) > b.length) || ((off + len) < 0)) {
+      throw new IndexOutOfBoundsException();
+    }
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0) {
+      int n = Math.min(remaining, buffer.remaining());
+      buffer.put(b, offset, n);
+      offset += n;
+      remaining -= n;
+      if (!buffer.hasRemaining()) {
+        partFilled();
+      }
+    }
+  }
+
+  /**
+   * Closes the segment. The trailing bytes are kept and uploaded when the upload is committed.
+   *
+   * @throws IOException if uploading a part of this segment failed
+   */
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      buffer.flip();
+      if (failure != null) {
+        throw new IOException("Multipart upload failed: " + upload, failure);
+      }
+    }
+  }
+
+  void checkCommittable() {
+    if (!closed) {
+      throw new IllegalStateException("Segment starting at part " + firstPartNumber + " has not been closed");
+    }
+    if (failure != null) {
+      throw new IllegalStateException("Segment starting at part " + firstPartNumber + " failed", failure);
+    }
+  }
+
+  int getFirstPartNumber() {
+    return firstPartNumber;
+  }
+
+  /**
+   * Returns the first part kept for the boundary part, which is empty for the first segment. If the segment is shorter than a part, the
+   * bytes are returned by {@link #getTail()}.
+   */
+  ByteBuffer getHead() {
+    return head == null ? ByteBuffer.allocate(0) : head;
+  }
+
+  ByteBuffer getTail() {
+    return buffer;
+  }
+
+  List<CompletedPart> getCompletedParts() {
+    return Collections.unmodifiableList(completedParts);
+  }
+}
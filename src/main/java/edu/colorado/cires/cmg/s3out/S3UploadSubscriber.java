@@ -0,0 +1,378 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * A Reactive Streams {@link Subscriber} that uploads the {@link ByteBuffer}s it receives to a S3 object, for use with reactive pipelines
+ * where blocking in {@link S3OutputStream#write(byte[], int, int)} would tie up an event loop thread. A java.util.concurrent.Flow.Publisher
+ * can be connected with org.reactivestreams.FlowAdapters.toFlowSubscriber(subscriber).
+ *
+ * <p>The signal methods never block. Received bytes are copied into part buffers, and full parts are uploaded on a background thread pool.
+ * One element is requested at a time, and only while a part buffer has room for it: when the maximum number of parts is being uploaded
+ * and the current part is full, no more elements are requested until an upload finishes. The publisher may reuse a buffer once
+ * {@link #onNext(ByteBuffer)} returns.</p>
+ *
+ * <p>The outcome is reported through {@link #getResult()}. If the publisher signals an error, or if a part fails to upload, the upload is
+ * aborted once the parts being uploaded have finished, the subscription is cancelled, and the result completes exceptionally.</p>
+ */
+public class S3UploadSubscriber implements Subscriber<ByteBuffer> {
+
+  private static final int MiB = 1024 * 1024;
+  private static final int MIN_PART_SIZE_MIB = 5;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+
+  /**
+   * Creates a new builder for a S3UploadSubscriber.
+   *
+   * @return a new builder for a S3UploadSubscriber
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a {@link S3UploadSubscriber}.
+   */
+  public static class Builder {
+
+    private S3ClientMultipartUpload s3;
+    private MultipartUploadRequest uploadRequest;
+    private int partSizeMib = MIN_PART_SIZE_MIB;
+    private int partSizeBytes;
+    private int maxConcurrentParts = 2;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the {@link S3ClientMultipartUpload} object for the {@link S3UploadSubscriber}. Required.
+     *
+     * @param s3 the {@link S3ClientMultipartUpload}
+     * @return this Builder
+     */
+    public Builder s3(S3ClientMultipartUpload s3) {
+      this.s3 = s3;
+      return this;
+    }
+
+    /**
+     * Sets the {@link MultipartUploadRequest}. Required.
+     *
+     * @param uploadRequest the {@link MultipartUploadRequest}
+     * @return this Builder
+     */
+    public Builder uploadRequest(MultipartUploadRequest uploadRequest) {
+      this.uploadRequest = uploadRequest;
+      return this;
+    }
+
+    /**
+     * Sets the part size in MiB. Must be at least 5. Default value: 5
+     *
+     * @param partSizeMib the part size in MiB
+     * @return this Builder
+     */
+    public Builder partSizeMib(int partSizeMib) {
+      this.partSizeMib = partSizeMib;
+      return this;
+    }
+
+    /**
+     * Overrides the part size with a size in bytes that is not validated, for testing.
+     */
+    Builder partSizeBytes(int partSizeBytes) {
+      this.partSizeBytes = partSizeBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of parts uploaded at the same time. Together with the part being filled, this bounds the memory used to
+     * maxConcurrentParts + 1 parts, plus a copy of at most one element. Must be at least 1. Default value: 2
+     *
+     * @param maxConcurrentParts the maximum number of parts uploaded at the same time
+     * @return this Builder
+     */
+    public Builder maxConcurrentParts(int maxConcurrentParts) {
+      this.maxConcurrentParts = maxConcurrentParts;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link S3UploadSubscriber}
+     *
+     * @return a new {@link S3UploadSubscriber}
+     */
+    public S3UploadSubscriber build() {
+      if (s3 == null) {
+        throw new IllegalArgumentException("s3 is required");
+      }
+      if (uploadRequest == null) {
+        throw new IllegalArgumentException("Upload request is required");
+      }
+      int partSize = partSizeBytes;
+      if (partSize <= 0) {
+        if (partSizeMib < MIN_PART_SIZE_MIB) {
+          throw new IllegalArgumentException("Part size MiB must be at least " + MIN_PART_SIZE_MIB);
+        }
+        partSize = partSizeMib * MiB;
+      }
+      if (maxConcurrentParts < 1) {
+        throw new IllegalArgumentException("Max concurrent parts must be at least 1");
+      }
+      return new S3UploadSubscriber(s3, uploadRequest, partSize, maxConcurrentParts);
+    }
+  }
+
+  private final S3ClientMultipartUpload s3;
+  private final MultipartUploadRequest uploadRequest;
+  private final int maxConcurrentParts;
+  private final BufferPool bufferPool;
+  private final ExecutorService executor;
+  private final CompletableFuture<UploadResult> result = new CompletableFuture<>();
+  private final List<CompletedPart> completedParts = new ArrayList<>();
+  // guarded by this, the uploads that may still be running
+  private final List<CompletableFuture<?>> uploads = new ArrayList<>();
+
+  // guarded by this
+  private Subscription subscription;
+  private CompletableFuture<String> uploadId;
+  private ByteBuffer current;
+  private ByteBuffer pending;
+  private int partCount;
+  private int partsInFlight;
+  private long length;
+  private boolean upstreamDone;
+  private boolean finished;
+
+  private S3UploadSubscriber(S3ClientMultipartUpload s3, MultipartUploadRequest uploadRequest, int partSize, int maxConcurrentParts) {
+    this.s3 = s3;
+    this.uploadRequest = uploadRequest;
+    this.maxConcurrentParts = maxConcurrentParts;
+    bufferPool = new BufferPool(partSize, maxConcurrentParts + 1);
+    executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "s3-upload-subscriber-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Returns a {@link CompletableFuture} that completes with the {@link UploadResult} when the object has been uploaded, or exceptionally
+   * if the upload fails.
+   *
+   * @return the result of the upload
+   */
+  public CompletableFuture<UploadResult> getResult() {
+    return result;
+  }
+
+  @Override
+  public void onSubscribe(Subscription s) {
+    Objects.requireNonNull(s);
+    synchronized (this) {
+      if (subscription != null || finished) {
+        // a subscriber may only be subscribed once
+        s.cancel();
+        return;
+      }
+      subscription = s;
+      current = bufferPool.acquire();
+      uploadId = CompletableFuture.supplyAsync(() -> s3.createMultipartUpload(uploadRequest), executor);
+      uploadId.whenCompleteAsync((id, e) -> {
+        if (e != null) {
+          fail(e);
+        }
+      }, executor);
+    }
+    s.request(1L);
+  }
+
+  @Override
+  public void onNext(ByteBuffer item) {
+    Objects.requireNonNull(item);
+    Subscription request;
+    synchronized (this) {
+      if (finished) {
+        return;
+      }
+      length += item.remaining();
+      ByteBuffer remainder = fill(item.duplicate());
+      if (remainder.hasRemaining()) {
+        // the publisher may reuse the element, so keep a copy of what does not fit until an upload finishes
+        pending = ByteBuffer.allocate(remainder.remaining());
+        pending.put(remainder);
+        pending.flip();
+      }
+      request = pending == null ? subscription : null;
+    }
+    if (request != null) {
+      request.request(1L);
+    }
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    Objects.requireNonNull(t);
+    synchronized (this) {
+      upstreamDone = true;
+    }
+    fail(t);
+  }
+
+  @Override
+  public void onComplete() {
+    synchronized (this) {
+      upstreamDone = true;
+      finishIfDone();
+    }
+  }
+
+  /**
+   * Copies bytes into part buffers, starting uploads of full parts while under the limit. Returns what did not fit.
+   */
+  private ByteBuffer fill(ByteBuffer src) {
+    while (src.hasRemaining()) {
+      if (!current.hasRemaining()) {
+        if (partsInFlight >= maxConcurrentParts) {
+          break;
+        }
+        uploadCurrent();
+        current = bufferPool.acquire();
+      }
+      int n = Math.min(src.remaining(), current.remaining());
+      ByteBuffer slice = src.duplicate();
+      slice.limit(slice.position() + n);
+      current.put(slice);
+      src.position(src.position() + n);
+    }
+    return src;
+  }
+
+  private void uploadCurrent() {
+    final ByteBuffer part = current;
+    final int partNumber = ++partCount;
+    current = null;
+    part.flip();
+    partsInFlight++;
+    // the callback must not run on this thread, where it would re-enter the lock while the state is being changed
+    uploads.removeIf(CompletableFuture::isDone);
+    uploads.add(uploadId.thenApplyAsync(id -> s3.uploadPart(uploadRequest.getBucket(), uploadRequest.getKey(), id, partNumber, part), executor)
+        .whenCompleteAsync((completedPart, e) -> partDone(part, completedPart, e), executor));
+  }
+
+  private void partDone(ByteBuffer part, CompletedPart completedPart, Throwable e) {
+    if (e != null) {
+      fail(e);
+      return;
+    }
+    Subscription request = null;
+    synchronized (this) {
+      bufferPool.release(part);
+      partsInFlight--;
+      if (finished) {
+        return;
+      }
+      completedParts.add(completedPart);
+      if (pending != null) {
+        if (current == null) {
+          current = bufferPool.acquire();
+        }
+        if (!fill(pending).hasRemaining()) {
+          pending = null;
+          if (!upstreamDone) {
+            request = subscription;
+          }
+        }
+      }
+      finishIfDone();
+    }
+    if (request != null) {
+      request.request(1L);
+    }
+  }
+
+  /**
+   * Uploads the last part once the publisher has completed and every byte is in a part buffer, and completes the upload once every part
+   * has been uploaded.
+   */
+  private void finishIfDone() {
+    if (finished || !upstreamDone || pending != null) {
+      return;
+    }
+    if (current != null && (current.position() > 0 || partCount == 0)) {
+      if (partsInFlight >= maxConcurrentParts) {
+        return;
+      }
+      uploadCurrent();
+    }
+    if (partsInFlight > 0) {
+      return;
+    }
+    finished = true;
+    final List<CompletedPart> parts = new ArrayList<>(completedParts);
+    parts.sort(Comparator.comparing(CompletedPart::partNumber));
+    final long objectLength = length;
+    uploadId.thenApplyAsync(id -> s3.completeMultipartUploadWithETag(uploadRequest.getBucket(), uploadRequest.getKey(), id, parts), executor)
+        .whenComplete((eTag, e) -> {
+          executor.shutdown();
+          if (e != null) {
+            result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+          } else {
+            result.complete(new UploadResult(uploadRequest.getBucket(), uploadRequest.getKey(), objectLength, ETags.unquote(eTag)));
+          }
+        });
+  }
+
+  private void fail(Throwable error) {
+    final Throwable t = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    Subscription cancel;
+    boolean upstream;
+    synchronized (this) {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      pending = null;
+      cancel = subscription;
+      upstream = upstreamDone;
+    }
+    if (cancel != null && !upstream) {
+      cancel.cancel();
+    }
+    CompletableFuture<String> id;
+    CompletableFuture<?>[] inFlight;
+    synchronized (this) {
+      id = uploadId;
+      inFlight = uploads.toArray(new CompletableFuture<?>[0]);
+    }
+    if (id == null) {
+      executor.shutdown();
+      result.completeExceptionally(t);
+      return;
+    }
+    // a part stored after the abort would be kept by S3, so abort once every part upload has succeeded or failed
+    CompletableFuture.allOf(inFlight).handle((v, e) -> null).thenCompose(v -> id).whenCompleteAsync((uploadId, e) -> {
+      try {
+        if (e == null) {
+          s3.abortMultipartUpload(uploadRequest.getBucket(), uploadRequest.getKey(), uploadId);
+        }
+      } finally {
+        executor.shutdown();
+        result.completeExceptionally(t);
+      }
+    }, executor);
+  }
+}
@@ -0,0 +1,65 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link WritableByteChannel} view of a {@link S3OutputStream}. Bytes are moved from the source buffers directly into the part buffers
+ * of the underlying stream, so heap and direct buffers can be written without first being copied to a byte array.
+ *
+ * @see S3OutputStream#channel()
+ */
+public class S3WritableChannel implements WritableByteChannel {
+
+  private final S3OutputStream outputStream;
+
+  S3WritableChannel(S3OutputStream outputStream) {
+    this.outputStream = outputStream;
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    ensureOpen();
+    return outputStream.write(src);
+  }
+
+  /**
+   * Writes the remaining bytes of a {@link ByteBuffer}, transferring ownership of the buffer to the channel.
+   *
+   * @param src the buffer containing the bytes to write
+   * @return the number of bytes written
+   * @throws IOException if the channel is closed or an I/O error occurs
+   * @see S3OutputStream#writeOwned(ByteBuffer)
+   */
+  public int writeOwned(ByteBuffer src) throws IOException {
+    ensureOpen();
+    return outputStream.writeOwned(src);
+  }
+
+  /**
+   * If autocomplete is disabled, marks the upload as successful.
+   *
+   * @see S3OutputStream#done()
+   */
+  public void done() {
+    outputStream.done();
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (!isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !outputStream.isClosed();
+  }
+
+  @Override
+  public void close() throws IOException {
+    outputStream.close();
+  }
+}
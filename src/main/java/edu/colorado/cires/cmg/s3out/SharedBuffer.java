@@ -0,0 +1,59 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A reference counted part buffer shared by the uploads that read it. The buffer is created with one reference and is returned to its
+ * {@link BufferPool}, if any, when the last reference is released.  Readers must use {@link #view()} so that each has its own position.
+ * The number of bytes in released buffers can be counted with a {@link LongAdder}.
+ */
+class SharedBuffer {
+
+  private final ByteBuffer buffer;
+  private final BufferPool pool;
+  private final LongAdder releasedBytes;
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  SharedBuffer(ByteBuffer buffer, BufferPool pool) {
+    this(buffer, pool, null);
+  }
+
+  SharedBuffer(ByteBuffer buffer, BufferPool pool, LongAdder releasedBytes) {
+    this.buffer = buffer;
+    this.pool = pool;
+    this.releasedBytes = releasedBytes;
+  }
+
+  /**
+   * Returns an independent view of the remaining bytes. The view must not be used after the reference is released.
+   */
+  ByteBuffer view() {
+    return buffer.duplicate();
+  }
+
+  int remaining() {
+    return buffer.remaining();
+  }
+
+  void retain() {
+    if (references.getAndIncrement() <= 0) {
+      throw new IllegalStateException("Buffer has already been released");
+    }
+  }
+
+  void release() {
+    int remaining = references.decrementAndGet();
+    if (remaining == 0) {
+      if (releasedBytes != null) {
+        releasedBytes.add(buffer.remaining());
+      }
+      if (pool != null) {
+        pool.release(buffer);
+      }
+    } else if (remaining < 0) {
+      throw new IllegalStateException("Buffer has already been released");
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue for handing elements from a single producer thread to a single consumer thread. Elements are stored in a ring buffer, so
+ * nothing is allocated per element.  A thread that has to wait, for space or for an element, parks and is unparked by the other thread.
+ *
+ * <p>At most one thread may call {@link #put(Object)} at a time, and at most one thread may call {@link #take()} at a time.</p>
+ *
+ * @param <E> the element type
+ */
+class SpscRing<E> {
+
+  private final Object[] elements;
+  private final int mask;
+  private final int capacity;
+  // the sequence of the next element to take, only written by the consumer
+  private final AtomicLong head = new AtomicLong();
+  // the sequence of the next element to put, only written by the producer
+  private final AtomicLong tail = new AtomicLong();
+  private volatile Thread waitingProducer;
+  private volatile Thread waitingConsumer;
+
+  SpscRing(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    this.capacity = capacity;
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    elements = new Object[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Adds an element, waiting for space if the ring is full.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void put(E element) throws InterruptedException {
+    long t = tail.get();
+    while (t - head.get() >= capacity) {
+      // publish the waiter before checking again, so a take() in between either sees it or is seen by the check
+      waitingProducer = Thread.currentThread();
+      if (t - head.get() >= capacity) {
+        LockSupport.park(this);
+      }
+      waitingProducer = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+    elements[(int) (t & mask)] = element;
+    tail.set(t + 1);
+    Thread consumer = waitingConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /**
+   * Removes an element, waiting for one if the ring is empty.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  @SuppressWarnings("unchecked")
+  E take() throws InterruptedException {
+    long h = head.get();
+    while (tail.get() == h) {
+      waitingConsumer = Thread.currentThread();
+      if (tail.get() == h) {
+        LockSupport.park(this);
+      }
+      waitingConsumer = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+    int index = (int) (h & mask);
+    E element = (E) elements[index];
+    elements[index] = null;
+    head.set(h + 1);
+    Thread producer = waitingProducer;
+    if (producer != null) {
+      LockSupport.unpark(producer);
+    }
+    return element;
+  }
+
+  int size() {
+    return (int) (tail.get() - head.get());
+  }
+}
@@ -0,0 +1,215 @@
+package edu.colorado.cires.cmg.s3out;
+
+/**
+ * Limits the number of part uploads in flight using additive increase / multiplicative decrease (AIMD). The limit is raised by one after a
+ * full window of uploads completes with stable latency and is cut by the backoff ratio when an upload is throttled by S3 or its latency spikes
+ * above the observed baseline. Latency is compared per byte, and only for parts at least half the typical part size, since the latency of a
+ * small part, such as the last part of a stream, is mostly the fixed overhead of the request.
+ *
+ * <p>A limiter can be used by a single {@link S3OutputStream} or shared by all streams writing to the same bucket or prefix, in which case
+ * the limit applies to their combined in-flight uploads.</p>
+ */
+public class UploadConcurrencyLimiter {
+
+  private static final double BASELINE_WEIGHT = 0.1D;
+  private static final double MIN_COMPARABLE_SIZE = 0.5D;
+
+  /**
+   * Creates a new builder for a UploadConcurrencyLimiter.
+   *
+   * @return a new builder for a UploadConcurrencyLimiter
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  static UploadConcurrencyLimiter fixed(int limit) {
+    return new UploadConcurrencyLimiter(limit, limit, limit, Double.MAX_VALUE, 1D);
+  }
+
+  /**
+   * Builds a {@link UploadConcurrencyLimiter}.
+   */
+  public static class Builder {
+
+    private int initialLimit = 2;
+    private int minLimit = 1;
+    private int maxLimit = 16;
+    private double latencyTolerance = 2D;
+    private double backoffRatio = 0.5D;
+
+    private Builder() {
+
+    }
+
+    /**
+     * Sets the number of uploads allowed in flight before any adjustment. Default value: 2
+     *
+     * @param initialLimit the initial number of uploads allowed in flight
+     * @return this Builder
+     */
+    public Builder initialLimit(int initialLimit) {
+      this.initialLimit = initialLimit;
+      return this;
+    }
+
+    /**
+     * Sets the lowest number of uploads allowed in flight. Must be at least 1. Default value: 1
+     *
+     * @param minLimit the lowest number of uploads allowed in flight
+     * @return this Builder
+     */
+    public Builder minLimit(int minLimit) {
+      this.minLimit = minLimit;
+      return this;
+    }
+
+    /**
+     * Sets the highest number of uploads allowed in flight. Default value: 16
+     *
+     * @param maxLimit the highest number of uploads allowed in flight
+     * @return this Builder
+     */
+    public Builder maxLimit(int maxLimit) {
+      this.maxLimit = maxLimit;
+      return this;
+    }
+
+    /**
+     * Sets how many times slower than the baseline, per byte uploaded, an upload must be to count as a latency spike. Must be greater than 1.
+     * Default value: 2.0
+     *
+     * @param latencyTolerance the latency spike threshold as a multiple of the baseline latency
+     * @return this Builder
+     */
+    public Builder latencyTolerance(double latencyTolerance) {
+      this.latencyTolerance = latencyTolerance;
+      return this;
+    }
+
+    /**
+     * Sets the ratio the limit is multiplied by on throttling or a latency spike. Must be greater than 0 and less than 1. Default value: 0.5
+     *
+     * @param backoffRatio the ratio the limit is multiplied by when backing off
+     * @return this Builder
+     */
+    public Builder backoffRatio(double backoffRatio) {
+      this.backoffRatio = backoffRatio;
+      return this;
+    }
+
+    /**
+     * Builds a new {@link UploadConcurrencyLimiter}
+     *
+     * @return a new {@link UploadConcurrencyLimiter}
+     */
+    public UploadConcurrencyLimiter build() {
+      if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+        throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+      }
+      if (latencyTolerance <= 1D) {
+        throw new IllegalArgumentException("Latency tolerance must be greater than 1");
+      }
+      if (backoffRatio <= 0D || backoffRatio >= 1D) {
+        throw new IllegalArgumentException("Backoff ratio must be greater than 0 and less than 1");
+      }
+      return new UploadConcurrencyLimiter(initialLimit, minLimit, maxLimit, latencyTolerance, backoffRatio);
+    }
+  }
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double latencyTolerance;
+  private final double backoffRatio;
+
+  private int limit;
+  private int inFlight;
+  private int successes;
+  private double baselineNanosPerByte;
+  private double baselineBytes;
+  private long lastDecrease = System.nanoTime();
+
+  private UploadConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double latencyTolerance, double backoffRatio) {
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyTolerance = latencyTolerance;
+    this.backoffRatio = backoffRatio;
+  }
+
+  /**
+   * Blocks until an upload may start.
+   *
+   * @return a permit that must be passed to {@link #release(long, long, boolean)} when the upload finishes
+   * @throws InterruptedException if interrupted while waiting
+   */
+  synchronized long acquire() throws InterruptedException {
+    while (inFlight >= limit) {
+      wait();
+    }
+    inFlight++;
+    return System.nanoTime();
+  }
+
+  /**
+   * Signals that an upload has finished and adjusts the limit, measuring its latency from when the permit was acquired.
+   *
+   * @param permit the permit returned by {@link #acquire()}
+   * @param bytes the number of bytes uploaded
+   * @param throttled true if S3 throttled the upload
+   */
+  synchronized void release(long permit, long bytes, boolean throttled) {
+    release(permit, permit, bytes, throttled);
+  }
+
+  /**
+   * Signals that an upload has finished and adjusts the limit.
+   *
+   * @param permit the permit returned by {@link #acquire()}
+   * @param startNanos the {@link System#nanoTime()} when the request was sent, after any wait before it, such as for the upload ID
+   * @param bytes the number of bytes uploaded
+   * @param throttled true if S3 throttled the upload
+   */
+  synchronized void release(long permit, long startNanos, long bytes, boolean throttled) {
+    long now = System.nanoTime();
+    inFlight--;
+    double nanosPerByte = (now - startNanos) / (double) Math.max(1L, bytes);
+    boolean comparable = baselineBytes <= 0D || bytes >= baselineBytes * MIN_COMPARABLE_SIZE;
+    boolean spike = comparable && baselineNanosPerByte > 0D && nanosPerByte > baselineNanosPerByte * latencyTolerance;
+    if (throttled || spike) {
+      // uploads that started before the last decrease already saw its cause, only back off once for them
+      if (permit - lastDecrease > 0L) {
+        limit = Math.max(minLimit, (int) (limit * backoffRatio));
+        lastDecrease = now;
+        successes = 0;
+      }
+    } else if (comparable) {
+      baselineNanosPerByte = baselineNanosPerByte <= 0D ? nanosPerByte : baselineNanosPerByte * (1D - BASELINE_WEIGHT) + nanosPerByte * BASELINE_WEIGHT;
+      if (++successes >= limit) {
+        limit = Math.min(maxLimit, limit + 1);
+        successes = 0;
+      }
+    }
+    // every part updates the typical size, so it follows part sizes that shrink over time
+    baselineBytes = baselineBytes <= 0D ? bytes : baselineBytes * (1D - BASELINE_WEIGHT) + bytes * BASELINE_WEIGHT;
+    notifyAll();
+  }
+
+  /**
+   * Returns the current number of uploads allowed in flight.
+   *
+   * @return the current number of uploads allowed in flight
+   */
+  public synchronized int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Returns the number of uploads currently in flight.
+   *
+   * @return the number of uploads currently in flight
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+}
@@ -0,0 +1,84 @@
+package edu.colorado.cires.cmg.s3out;
+
+/**
+ * Emits JDK Flight Recorder events for the internals of an upload.  Each timed event is started by a begin method, which returns null when
+ * the event is not being recorded, and is ended by passing that value to the matching end method along with the event fields. Nothing is
+ * allocated and no fields are read while recording is off.
+ *
+ * <p>The events are defined in classes compiled for Java 11, which are loaded when {@link #get()} is first called. On a Java 8 runtime, or
+ * one without the jdk.jfr module, {@link #NONE} is used instead.</p>
+ */
+interface UploadEvents {
+
+  /**
+   * Emits no events.
+   */
+  UploadEvents NONE = new UploadEvents() {
+  };
+
+  /**
+   * Returns the shared instance, which emits events if Flight Recorder is available.
+   */
+  static UploadEvents get() {
+    return Holder.INSTANCE;
+  }
+
+  default Object beginStream() {
+    return null;
+  }
+
+  default void endStream(Object event, String bucket, String key, String uploadId, int parts, long bytes, boolean completed) {
+  }
+
+  default Object beginBufferAllocation() {
+    return null;
+  }
+
+  default void endBufferAllocation(Object event, String bucket, String key, int capacity, boolean pooled) {
+  }
+
+  default Object beginEnqueue() {
+    return null;
+  }
+
+  default void endEnqueue(Object event, String bucket, String key, int partNumber, long bytes) {
+  }
+
+  default Object beginPartUpload() {
+    return null;
+  }
+
+  default void endPartUpload(Object event, String bucket, String key, String uploadId, int partNumber, long bytes, int attempt,
+      boolean succeeded) {
+  }
+
+  default void partRetry(String bucket, String key, String uploadId, int partNumber, int attempt, String reason) {
+  }
+
+  default Object beginRequest() {
+    return null;
+  }
+
+  default void endRequest(Object event, String operation, String bucket, String key, String uploadId, int partNumber, long bytes,
+      boolean succeeded) {
+  }
+
+  final class Holder {
+
+    private static final String FLIGHT_RECORDER_EVENTS = "edu.colorado.cires.cmg.s3out.FlightRecorderUploadEvents";
+    private static final UploadEvents INSTANCE = load();
+
+    private Holder() {
+
+    }
+
+    private static UploadEvents load() {
+      try {
+        return (UploadEvents) Class.forName(FLIGHT_RECORDER_EVENTS).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+        // not compiled in, a Java 8 runtime, or a runtime without jdk.jfr
+        return NONE;
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package edu.colorado.cires.cmg.s3out;
+
+/**
+ * The result of a completed upload.
+ */
+public class UploadResult {
+
+  private final String bucket;
+  private final String key;
+  private final long length;
+  private final String eTag;
+
+  UploadResult(String bucket, String key, long length, String eTag) {
+    this.bucket = bucket;
+    this.key = key;
+    this.length = length;
+    this.eTag = eTag;
+  }
+
+  /**
+   * Returns the bucket of the uploaded object.
+   *
+   * @return the bucket name
+   */
+  public String getBucket() {
+    return bucket;
+  }
+
+  /**
+   * Returns the key of the uploaded object.
+   *
+   * @return the key of the object
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the size of the uploaded object in bytes.
+   *
+   * @return the size of the object in bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the ETag of the uploaded object, without quotes.
+   *
+   * @return the ETag of the object, or null if the {@link S3ClientMultipartUpload} does not report it
+   */
+  public String getETag() {
+    return eTag;
+  }
+}
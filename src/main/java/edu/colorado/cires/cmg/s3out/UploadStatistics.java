@@ -0,0 +1,94 @@
+package edu.colorado.cires.cmg.s3out;
+
+/**
+ * A snapshot of the progress of a {@link S3OutputStream}. Comparing the time the writing thread spent blocked on a full upload queue with the
+ * time the upload thread spent waiting for parts shows whether an upload is limited by the network or by the code writing to the stream.
+ *
+ * @see S3OutputStream#getStatistics()
+ */
+public class UploadStatistics {
+
+  private final long bytesWritten;
+  private final long partsUploaded;
+  private final long bytesInFlight;
+  private final long producerBlockedNanos;
+  private final long consumerIdleNanos;
+  private final LatencyHistogram partLatency;
+
+  UploadStatistics(long bytesWritten, long partsUploaded, long bytesInFlight, long producerBlockedNanos, long consumerIdleNanos,
+      LatencyHistogram partLatency) {
+    this.bytesWritten = bytesWritten;
+    this.partsUploaded = partsUploaded;
+    this.bytesInFlight = bytesInFlight;
+    this.producerBlockedNanos = producerBlockedNanos;
+    this.consumerIdleNanos = consumerIdleNanos;
+    this.partLatency = partLatency;
+  }
+
+  /**
+   * Returns the number of bytes written to the stream.  While the stream is open, bytes written by another thread since its last part was
+   * queued may not be included.
+   *
+   * @return the number of bytes written to the stream
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Returns the number of parts uploaded successfully. A part uploaded to several destinations is counted once per destination.
+   *
+   * @return the number of parts uploaded
+   */
+  public long getPartsUploaded() {
+    return partsUploaded;
+  }
+
+  /**
+   * Returns the number of bytes in parts that have been queued for upload and are still waiting in the queue or being uploaded.
+   *
+   * @return the number of bytes queued or being uploaded
+   */
+  public long getBytesInFlight() {
+    return bytesInFlight;
+  }
+
+  /**
+   * Returns the total time in nanoseconds the writing thread spent blocked because the upload queue was full.
+   *
+   * @return the time the writing thread was blocked in nanoseconds
+   */
+  public long getProducerBlockedNanos() {
+    return producerBlockedNanos;
+  }
+
+  /**
+   * Returns the total time in nanoseconds the upload thread spent waiting for the writing thread to queue a part.
+   *
+   * @return the time the upload thread was idle in nanoseconds
+   */
+  public long getConsumerIdleNanos() {
+    return consumerIdleNanos;
+  }
+
+  /**
+   * Returns the latencies of successful part uploads.
+   *
+   * @return the latencies of successful part uploads
+   */
+  public LatencyHistogram getPartLatency() {
+    return partLatency;
+  }
+
+  @Override
+  public String toString() {
+    return "UploadStatistics{" +
+        "bytesWritten=" + bytesWritten +
+        ", partsUploaded=" + partsUploaded +
+        ", bytesInFlight=" + bytesInFlight +
+        ", producerBlockedNanos=" + producerBlockedNanos +
+        ", consumerIdleNanos=" + consumerIdleNanos +
+        ", partLatency=" + partLatency +
+        '}';
+  }
+}
@@ -0,0 +1,312 @@
+package edu.colorado.cires.cmg.s3out;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The {@link UploadEvents} that emit JDK Flight Recorder events. This class is compiled for Java 11 and is only loaded by
+ * {@link UploadEvents#get()}.
+ */
+class FlightRecorderUploadEvents implements UploadEvents {
+
+  private static final String CATEGORY = "S3 Output Stream";
+
+  private static final EventType STREAM = EventType.getEventType(StreamEvent.class);
+  private static final EventType BUFFER_ALLOCATION = EventType.getEventType(BufferAllocationEvent.class);
+  private static final EventType ENQUEUE = EventType.getEventType(EnqueueEvent.class);
+  private static final EventType PART_UPLOAD = EventType.getEventType(PartUploadEvent.class);
+  private static final EventType PART_RETRY = EventType.getEventType(PartRetryEvent.class);
+  private static final EventType REQUEST = EventType.getEventType(RequestEvent.class);
+
+  @Name("edu.colorado.cires.cmg.s3out.Stream")
+  @Label("Stream")
+  @Category(CATEGORY)
+  @Description("The lifetime of an S3OutputStream, from creation to close")
+  static class StreamEvent extends Event {
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Upload ID")
+    String uploadId;
+
+    @Label("Parts")
+    int parts;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Completed")
+    @Description("Whether the upload was completed rather than aborted")
+    boolean completed;
+  }
+
+  @Name("edu.colorado.cires.cmg.s3out.BufferAllocation")
+  @Label("Buffer Allocation")
+  @Category(CATEGORY)
+  @Description("A part buffer taken from the pool or allocated by the writing thread")
+  static class BufferAllocationEvent extends Event {
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Capacity")
+    @DataAmount
+    int capacity;
+
+    @Label("Pooled")
+    @Description("Whether the buffer came from the pool")
+    boolean pooled;
+  }
+
+  @Name("edu.colorado.cires.cmg.s3out.Enqueue")
+  @Label("Part Enqueue")
+  @Category(CATEGORY)
+  @Description("The writing thread handing a full part to the upload queue, including any time blocked on a full queue")
+  static class EnqueueEvent extends Event {
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Part Number")
+    int partNumber;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name("edu.colorado.cires.cmg.s3out.PartUpload")
+  @Label("Part Upload")
+  @Category(CATEGORY)
+  @Description("One attempt to upload a part, including hedged requests")
+  static class PartUploadEvent extends Event {
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Upload ID")
+    String uploadId;
+
+    @Label("Part Number")
+    int partNumber;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Succeeded")
+    boolean succeeded;
+  }
+
+  @Name("edu.colorado.cires.cmg.s3out.PartRetry")
+  @Label("Part Retry")
+  @Category(CATEGORY)
+  @Description("A throttled part upload that will be retried")
+  static class PartRetryEvent extends Event {
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Upload ID")
+    String uploadId;
+
+    @Label("Part Number")
+    int partNumber;
+
+    @Label("Attempt")
+    @Description("The attempt that was throttled")
+    int attempt;
+
+    @Label("Reason")
+    String reason;
+  }
+
+  @Name("edu.colorado.cires.cmg.s3out.Request")
+  @Label("S3 Request")
+  @Category(CATEGORY)
+  @Description("A call made by AwsS3ClientMultipartUpload to the S3Client, including SDK marshalling and retries")
+  static class RequestEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Upload ID")
+    String uploadId;
+
+    @Label("Part Number")
+    int partNumber;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Succeeded")
+    boolean succeeded;
+  }
+
+  private static Object begin(Event event) {
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public Object beginStream() {
+    return STREAM.isEnabled() ? begin(new StreamEvent()) : null;
+  }
+
+  @Override
+  public void endStream(Object event, String bucket, String key, String uploadId, int parts, long bytes, boolean completed) {
+    if (event == null) {
+      return;
+    }
+    StreamEvent e = (StreamEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.bucket = bucket;
+      e.key = key;
+      e.uploadId = uploadId;
+      e.parts = parts;
+      e.bytes = bytes;
+      e.completed = completed;
+      e.commit();
+    }
+  }
+
+  @Override
+  public Object beginBufferAllocation() {
+    return BUFFER_ALLOCATION.isEnabled() ? begin(new BufferAllocationEvent()) : null;
+  }
+
+  @Override
+  public void endBufferAllocation(Object event, String bucket, String key, int capacity, boolean pooled) {
+    if (event == null) {
+      return;
+    }
+    BufferAllocationEvent e = (BufferAllocationEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.bucket = bucket;
+      e.key = key;
+      e.capacity = capacity;
+      e.pooled = pooled;
+      e.commit();
+    }
+  }
+
+  @Override
+  public Object beginEnqueue() {
+    return ENQUEUE.isEnabled() ? begin(new EnqueueEvent()) : null;
+  }
+
+  @Override
+  public void endEnqueue(Object event, String bucket, String key, int partNumber, long bytes) {
+    if (event == null) {
+      return;
+    }
+    EnqueueEvent e = (EnqueueEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.bucket = bucket;
+      e.key = key;
+      e.partNumber = partNumber;
+      e.bytes = bytes;
+      e.commit();
+    }
+  }
+
+  @Override
+  public Object beginPartUpload() {
+    return PART_UPLOAD.isEnabled() ? begin(new PartUploadEvent()) : null;
+  }
+
+  @Override
+  public void endPartUpload(Object event, String bucket, String key, String uploadId, int partNumber, long bytes, int attempt,
+      boolean succeeded) {
+    if (event == null) {
+      return;
+    }
+    PartUploadEvent e = (PartUploadEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.bucket = bucket;
+      e.key = key;
+      e.uploadId = uploadId;
+      e.partNumber = partNumber;
+      e.bytes = bytes;
+      e.attempt = attempt;
+      e.succeeded = succeeded;
+      e.commit();
+    }
+  }
+
+  @Override
+  public void partRetry(String bucket, String key, String uploadId, int partNumber, int attempt, String reason) {
+    if (!PART_RETRY.isEnabled()) {
+      return;
+    }
+    PartRetryEvent e = new PartRetryEvent();
+    e.bucket = bucket;
+    e.key = key;
+    e.uploadId = uploadId;
+    e.partNumber = partNumber;
+    e.attempt = attempt;
+    e.reason = reason;
+    e.commit();
+  }
+
+  @Override
+  public Object beginRequest() {
+    return REQUEST.isEnabled() ? begin(new RequestEvent()) : null;
+  }
+
+  @Override
+  public void endRequest(Object event, String operation, String bucket, String key, String uploadId, int partNumber, long bytes,
+      boolean succeeded) {
+    if (event == null) {
+      return;
+    }
+    RequestEvent e = (RequestEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.operation = operation;
+      e.bucket = bucket;
+      e.key = key;
+      e.uploadId = uploadId;
+      e.partNumber = partNumber;
+      e.bytes = bytes;
+      e.succeeded = succeeded;
+      e.commit();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.colorado.cires.cmg.s3out.PartSizeDecision.Reason;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class AdaptivePartSizerTest {
+
+  private static void upload(AdaptivePartSizer sizer, int size, double bytesPerSecond) {
+    sizer.recordUpload(size, (long) (size / bytesPerSecond * 1e9));
+  }
+
+  @Test
+  public void testHillClimb() throws Exception {
+    AdaptivePartSizer sizer = new AdaptivePartSizer(100, 800, 100);
+    assertEquals(100, sizer.nextPartSize(1, 0));
+
+    upload(sizer, 100, 1000);
+    assertEquals(100, sizer.nextPartSize(2, 100));
+    upload(sizer, 100, 1000);
+    assertEquals(200, sizer.nextPartSize(3, 200));
+
+    // better with larger parts, keep growing
+    upload(sizer, 200, 2000);
+    upload(sizer, 200, 2000);
+    assertEquals(400, sizer.nextPartSize(5, 600));
+
+    // worse, reverse
+    upload(sizer, 400, 1500);
+    upload(sizer, 400, 1500);
+    assertEquals(200, sizer.nextPartSize(7, 1400));
+
+    // partial parts and parts of other sizes are ignored
+    upload(sizer, 150, 1);
+    upload(sizer, 400, 1);
+    assertEquals(200, sizer.nextPartSize(9, 2100));
+
+    // similar throughput, hold
+    upload(sizer, 200, 1520);
+    upload(sizer, 200, 1500);
+    assertEquals(200, sizer.nextPartSize(11, 2500));
+
+    List<PartSizeDecision> decisions = sizer.getDecisions();
+    assertEquals(4, decisions.size());
+    assertEquals(Reason.INITIAL, decisions.get(0).getReason());
+    assertEquals(Reason.GROW, decisions.get(1).getReason());
+    assertEquals(3, decisions.get(1).getPartNumber());
+    assertEquals(1000D, decisions.get(1).getThroughput(), 0.001D);
+    assertEquals(Reason.GROW, decisions.get(2).getReason());
+    assertEquals(Reason.SHRINK, decisions.get(3).getReason());
+    assertEquals(200, decisions.get(3).getPartSize());
+  }
+
+  @Test
+  public void testPartLimit() throws Exception {
+    AdaptivePartSizer sizer = new AdaptivePartSizer(100, 1000, 100);
+    assertEquals(100, sizer.nextPartSize(5000, 499900));
+    assertEquals(200, sizer.nextPartSize(5001, 1000000));
+    assertEquals(Reason.PART_LIMIT, sizer.getDecisions().get(1).getReason());
+    assertEquals(1000, sizer.nextPartSize(10000, 2000000));
+    IllegalStateException e = assertThrows(IllegalStateException.class, () -> sizer.nextPartSize(10001, 10000000));
+    assertTrue(e.getMessage().startsWith("Part 10001 exceeds the S3 limit of 10000 parts"));
+  }
+}
@@ -1,18 +1,31 @@
 package edu.colorado.cires.cmg.s3out;
 
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.Random;
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
 public class AwsS3ClientMultipartUploadTest {
 
@@ -78,4 +91,80 @@ public class AwsS3ClientMultipartUploadTest {
     assertEquals("defaultContentType", argument.getValue().contentType());
 
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testUploadPartStreamsFromBuffer() throws Exception {
+    S3Client s3Client = mock(S3Client.class);
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenReturn(UploadPartResponse.builder().eTag("myETag").build());
+
+    AwsS3ClientMultipartUpload awsS3ClientMultipartUpload = AwsS3ClientMultipartUpload.builder().s3(s3Client).build();
+
+    byte[] bytes = new byte[1000];
+    new Random(0).nextBytes(bytes);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 100, 800);
+    awsS3ClientMultipartUpload.uploadPart("myBucket", "myKey", "myUploadId", 1, buffer);
+    assertEquals(100, buffer.position());
+    assertEquals(900, buffer.limit());
+
+    ArgumentCaptor<RequestBody> argument = ArgumentCaptor.forClass(RequestBody.class);
+    verify(s3Client).uploadPart(any(UploadPartRequest.class), argument.capture());
+    assertEquals(800L, argument.getValue().optionalContentLength().get());
+    assertEquals("application/octet-stream", argument.getValue().contentType());
+    // the request reads the caller's buffer rather than a copy
+    bytes[100]++;
+    byte[] expected = Arrays.copyOfRange(bytes, 100, 900);
+    try (InputStream inputStream = argument.getValue().contentStreamProvider().newStream()) {
+      assertTrue(inputStream.markSupported());
+      assertEquals(10, inputStream.read(new byte[10]));
+      inputStream.reset();
+      assertArrayEquals(expected, IOUtils.toByteArray(inputStream));
+      inputStream.reset();
+      assertArrayEquals(expected, IOUtils.toByteArray(inputStream));
+    }
+  }
+
+  @Test
+  public void testUploadPartBandwidthLimiter() throws Exception {
+    S3Client s3Client = mock(S3Client.class);
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenReturn(UploadPartResponse.builder().eTag("myETag").build());
+
+    AwsS3ClientMultipartUpload awsS3ClientMultipartUpload = AwsS3ClientMultipartUpload.builder()
+        .s3(s3Client)
+        .bandwidthLimiter(BandwidthLimiter.builder().bytesPerSecond(Long.MAX_VALUE / 2).build())
+        .build();
+
+    byte[] bytes = new byte[ByteBufferInputStream.METER_CHUNK_SIZE * 2 + 10];
+    new Random(0).nextBytes(bytes);
+    CompletedPart completedPart = awsS3ClientMultipartUpload.uploadPart("myBucket", "myKey", "myUploadId", 3, ByteBuffer.wrap(bytes));
+    assertEquals(3, completedPart.partNumber());
+    assertEquals("myETag", completedPart.eTag());
+
+    ArgumentCaptor<RequestBody> argument = ArgumentCaptor.forClass(RequestBody.class);
+    verify(s3Client).uploadPart(any(UploadPartRequest.class), argument.capture());
+    assertEquals(bytes.length, argument.getValue().optionalContentLength().get());
+    // every stream starts from the beginning of the part, as on a retry
+    for (int i = 0; i < 2; i++) {
+      try (InputStream inputStream = argument.getValue().contentStreamProvider().newStream()) {
+        assertArrayEquals(bytes, IOUtils.toByteArray(inputStream));
+      }
+    }
+  }
+
+  @Test
+  public void testCompleteMultipartUploadWithETag() throws Exception {
+    S3Client s3Client = mock(S3Client.class);
+    when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+        .thenReturn(CompleteMultipartUploadResponse.builder().eTag("\"myETag-2\"").build());
+
+    AwsS3ClientMultipartUpload awsS3ClientMultipartUpload = AwsS3ClientMultipartUpload.builder().s3(s3Client).build();
+    String eTag = awsS3ClientMultipartUpload.completeMultipartUploadWithETag("myBucket", "myKey", "myUploadId", Arrays.asList(
+        CompletedPart.builder().partNumber(1).eTag("a").build(),
+        CompletedPart.builder().partNumber(2).eTag("b").build()));
+
+    assertEquals("\"myETag-2\"", eTag);
+    ArgumentCaptor<CompleteMultipartUploadRequest> argument = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+    verify(s3Client).completeMultipartUpload(argument.capture());
+    assertEquals("myUploadId", argument.getValue().uploadId());
+    assertEquals(2, argument.getValue().multipartUpload().parts().size());
+  }
+}
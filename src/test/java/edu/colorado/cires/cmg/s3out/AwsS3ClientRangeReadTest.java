@@ -0,0 +1,41 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+public class AwsS3ClientRangeReadTest {
+
+  @Test
+  public void testReadRange() throws Exception {
+    S3Client s3Client = mock(S3Client.class);
+    byte[] content = "0123456789".getBytes(StandardCharsets.UTF_8);
+    when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+        GetObjectResponse.builder().build(),
+        AbortableInputStream.create(new ByteArrayInputStream(content))));
+
+    AwsS3ClientRangeRead rangeRead = AwsS3ClientRangeRead.builder().s3(s3Client).build();
+    ByteBuffer buffer = ByteBuffer.allocate(10);
+    assertEquals(10, rangeRead.readRange("myBucket", "myKey", 20, buffer));
+    assertEquals("0123456789", new String(buffer.array(), StandardCharsets.UTF_8));
+
+    ArgumentCaptor<GetObjectRequest> argument = ArgumentCaptor.forClass(GetObjectRequest.class);
+    verify(s3Client).getObject(argument.capture());
+    assertEquals("myBucket", argument.getValue().bucket());
+    assertEquals("myKey", argument.getValue().key());
+    assertEquals("bytes=20-29", argument.getValue().range());
+  }
+}
@@ -0,0 +1,38 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class BandwidthLimiterTest {
+
+  @Test
+  public void testBurstThenRate() throws Exception {
+    BandwidthLimiter limiter = BandwidthLimiter.builder().bytesPerSecond(10000).burstBytes(1000).build();
+
+    long start = System.nanoTime();
+    limiter.acquire(1000);
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+
+    start = System.nanoTime();
+    limiter.acquire(2000);
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+  }
+
+  @Test
+  public void testSetBytesPerSecond() throws Exception {
+    BandwidthLimiter limiter = BandwidthLimiter.builder().bytesPerSecond(10).burstBytes(0).build();
+    limiter.setBytesPerSecond(1000000);
+    assertEquals(1000000, limiter.getBytesPerSecond());
+
+    long start = System.nanoTime();
+    limiter.acquire(10000);
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+    assertThrows(IllegalArgumentException.class, () -> limiter.setBytesPerSecond(0));
+    assertThrows(IllegalArgumentException.class, () -> BandwidthLimiter.builder().build());
+  }
+}
@@ -0,0 +1,36 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class ETagsTest {
+
+  @Test
+  public void testMd5() {
+    assertEquals("d41d8cd98f00b204e9800998ecf8427e", ETags.hex(ETags.md5(ByteBuffer.allocate(0))));
+    ByteBuffer buffer = ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8));
+    assertEquals("5d41402abc4b2a76b9719d911017c592", ETags.hex(ETags.md5(buffer)));
+    assertEquals(5, buffer.remaining());
+  }
+
+  @Test
+  public void testMultipart() {
+    byte[] first = ETags.md5(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+    byte[] second = ETags.md5(ByteBuffer.wrap("world".getBytes(StandardCharsets.UTF_8)));
+    ByteBuffer concatenated = ByteBuffer.allocate(32).put(first).put(second);
+    concatenated.flip();
+
+    assertEquals(ETags.hex(ETags.md5(concatenated)) + "-2", ETags.multipart(Arrays.asList(first, second)));
+  }
+
+  @Test
+  public void testUnquote() {
+    assertEquals("abc-2", ETags.unquote("\"abc-2\""));
+    assertEquals("abc", ETags.unquote("abc"));
+    assertEquals(null, ETags.unquote(null));
+  }
+}
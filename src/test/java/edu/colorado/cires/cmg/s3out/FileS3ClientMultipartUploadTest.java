@@ -0,0 +1,301 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+public class FileS3ClientMultipartUploadTest {
+
+  private static final Path ROOT_DIR = Paths.get("target/file-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = ROOT_DIR.resolve(BUCKET);
+  private static final String KEY = "dir/object.bin";
+  private static final int PART_SIZE = 10;
+
+  private final FileS3ClientMultipartUpload s3 = FileS3ClientMultipartUpload.builder().rootDir(ROOT_DIR).build();
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(ROOT_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  private static List<Path> files() throws Exception {
+    try (Stream<Path> files = Files.walk(BUCKET_DIR)) {
+      return files.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testS3OutputStream() throws Exception {
+    byte[] bytes = new byte[95];
+    new Random(5).nextBytes(bytes);
+    try (S3OutputStream out = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build())
+        .partSizeBytes(PART_SIZE)
+        .uploadQueueSize(3)
+        .build()) {
+      for (int i = 0; i < bytes.length; i += 7) {
+        out.write(bytes, i, Math.min(7, bytes.length - i));
+      }
+    }
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+    assertEquals(Collections.singletonList(BUCKET_DIR.resolve(KEY)), files());
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testConcurrentParts() throws Exception {
+    Files.createDirectories(BUCKET_DIR.resolve(KEY).getParent());
+    Files.write(BUCKET_DIR.resolve(KEY), "previous".getBytes(StandardCharsets.UTF_8));
+    byte[] bytes = new byte[PART_SIZE * 20 + 3];
+    new Random(9).nextBytes(bytes);
+    String uploadId = s3.createMultipartUpload(BUCKET, KEY);
+    List<Integer> partNumbers = new ArrayList<>();
+    for (int i = 1; i <= 21; i++) {
+      partNumbers.add(i);
+    }
+    Collections.shuffle(partNumbers, new Random(1));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<CompletedPart>> futures = new ArrayList<>();
+    try {
+      for (int partNumber : partNumbers) {
+        int offset = (partNumber - 1) * PART_SIZE;
+        ByteBuffer part = ByteBuffer.wrap(bytes, offset, Math.min(PART_SIZE, bytes.length - offset));
+        futures.add(executor.submit(() -> s3.uploadPart(BUCKET, KEY, uploadId, partNumber, part)));
+      }
+      List<CompletedPart> completedParts = new ArrayList<>();
+      for (Future<CompletedPart> future : futures) {
+        completedParts.add(future.get());
+      }
+      assertArrayEquals("previous".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+      s3.completeMultipartUpload(BUCKET, KEY, uploadId, completedParts);
+    } finally {
+      executor.shutdown();
+    }
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+    assertEquals(Collections.singletonList(BUCKET_DIR.resolve(KEY)), files());
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    String uploadId = s3.createMultipartUpload(BUCKET, KEY);
+    s3.uploadPart(BUCKET, KEY, uploadId, 1, ByteBuffer.allocate(PART_SIZE));
+    assertEquals(1, files().size());
+    s3.abortMultipartUpload(BUCKET, KEY, uploadId);
+    assertEquals(0, files().size());
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testPartSizesAndGaps() throws Exception {
+    String uploadId = s3.createMultipartUpload(BUCKET, KEY);
+    CompletedPart part1 = s3.uploadPart(BUCKET, KEY, uploadId, 1, ByteBuffer.wrap("one-".getBytes(StandardCharsets.UTF_8)));
+    CompletedPart part5 = s3.uploadPart(BUCKET, KEY, uploadId, 5, ByteBuffer.wrap("part five, larger than the others-".getBytes(StandardCharsets.UTF_8)));
+    CompletedPart part9 = s3.uploadPart(BUCKET, KEY, uploadId, 9, ByteBuffer.wrap("9".getBytes(StandardCharsets.UTF_8)));
+    // a part uploaded again replaces the earlier upload
+    s3.uploadPart(BUCKET, KEY, uploadId, 9, ByteBuffer.wrap("nine".getBytes(StandardCharsets.UTF_8)));
+    s3.uploadPart(BUCKET, KEY, uploadId, 7, ByteBuffer.wrap("not completed".getBytes(StandardCharsets.UTF_8)));
+    s3.completeMultipartUpload(BUCKET, KEY, uploadId, Arrays.asList(part1, part5, part9));
+    assertEquals("one-part five, larger than the others-nine", new String(Files.readAllBytes(BUCKET_DIR.resolve(KEY)), StandardCharsets.UTF_8));
+    assertEquals(Collections.singletonList(BUCKET_DIR.resolve(KEY)), files());
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testInvalidCompletedParts() throws Exception {
+    String uploadId = s3.createMultipartUpload(BUCKET, KEY);
+    CompletedPart part1 = s3.uploadPart(BUCKET, KEY, uploadId, 1, ByteBuffer.allocate(PART_SIZE));
+    assertThrows(IllegalStateException.class, () -> s3.completeMultipartUpload(BUCKET, KEY, uploadId, Arrays.asList(part1, part1)));
+    assertEquals(0, files().size());
+    assertEquals(0, s3.getPendingUploadCount());
+
+    String missingId = s3.createMultipartUpload(BUCKET, KEY);
+    s3.uploadPart(BUCKET, KEY, missingId, 1, ByteBuffer.allocate(PART_SIZE));
+    assertThrows(IllegalStateException.class,
+        () -> s3.completeMultipartUpload(BUCKET, KEY, missingId, Arrays.asList(part1, CompletedPart.builder().partNumber(3).build())));
+    assertEquals(0, files().size());
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testHedgedPart() throws Exception {
+    byte[] bytes = new byte[PART_SIZE * 12 + 4];
+    new Random(3).nextBytes(bytes);
+    FileS3ClientMultipartUpload hedged = spy(s3);
+    AtomicBoolean stalled = new AtomicBoolean();
+    CountDownLatch hedgeDone = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 8) {
+        if (stalled.compareAndSet(false, true)) {
+          // the slow request is cancelled once the hedge wins, and writes with its thread interrupted
+          hedgeDone.await(10, TimeUnit.SECONDS);
+          Thread.currentThread().interrupt();
+          return invocation.callRealMethod();
+        }
+        try {
+          return invocation.callRealMethod();
+        } finally {
+          hedgeDone.countDown();
+        }
+      }
+      return invocation.callRealMethod();
+    }).when(hedged).uploadPart(any(), any(), any(), anyInt(), any());
+
+    HedgingPolicy hedgingPolicy = HedgingPolicy.builder().minSamples(2).maxExtraRequestRatio(1D).build();
+    try (S3OutputStream out = S3OutputStream.builder()
+        .s3(hedged)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build())
+        .partSizeBytes(PART_SIZE)
+        .hedgingPolicy(hedgingPolicy)
+        .build()) {
+      out.write(bytes);
+    }
+
+    assertTrue(hedgingPolicy.getHedgedRequests() >= 1L);
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+    assertEquals(Collections.singletonList(BUCKET_DIR.resolve(KEY)), files());
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testParallelUpload() throws Exception {
+    Random random = new Random(4);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    // segments reserve part number ranges with gaps, and boundary parts are larger than the part size
+    try (S3ParallelUpload upload = new S3ParallelUpload(s3, MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build(), PART_SIZE)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int size : new int[]{47, 5, 33}) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        expected.write(bytes);
+        S3SegmentOutputStream segment = upload.openSegment(10);
+        futures.add(executor.submit(() -> {
+          try (S3SegmentOutputStream out = segment) {
+            out.write(bytes);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      upload.commit();
+    } finally {
+      executor.shutdown();
+    }
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+    assertEquals(Collections.singletonList(BUCKET_DIR.resolve(KEY)), files());
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testRecordOutputStream() throws Exception {
+    String indexKey = KEY + ".index";
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    // parts are cut after the part size at a record end, so they are larger than the part size
+    S3RecordOutputStream out = new S3RecordOutputStream(
+        S3OutputStream.builder().s3(s3).uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build())
+            .partSizeBytes(PART_SIZE).autoComplete(false).build(),
+        () -> S3OutputStream.builder().s3(s3).uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(indexKey).build())
+            .autoComplete(false).build(),
+        PART_SIZE,
+        PART_SIZE * 2,
+        true);
+    try {
+      for (int i = 0; i < 30; i++) {
+        byte[] record = ("record " + i + "\n").getBytes(StandardCharsets.UTF_8);
+        out.write(record);
+        expected.write(record);
+        out.endRecord();
+      }
+    } finally {
+      out.close();
+    }
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+    assertEquals(30, out.getIndex().getRecordCount());
+    assertTrue(Files.size(BUCKET_DIR.resolve(indexKey)) > 0);
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testInvalidKey() {
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload(BUCKET, "../escape.bin"));
+    assertThrows(IllegalStateException.class, () -> s3.createMultipartUpload("missing-bucket", KEY));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload(BUCKET, ""));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload(BUCKET, "."));
+  }
+
+  @Test
+  public void testInvalidBucket() throws Exception {
+    Files.createDirectories(BUCKET_DIR.resolve("nested"));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload("..", KEY));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload("../" + ROOT_DIR.getFileName(), KEY));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload("", KEY));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload(".", KEY));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload(BUCKET + "/nested", KEY));
+    assertThrows(IllegalArgumentException.class, () -> s3.createMultipartUpload(ROOT_DIR.toAbsolutePath().getParent().toString(), KEY));
+    assertEquals(0, s3.getPendingUploadCount());
+  }
+
+  @Test
+  public void testUploadIsClaimedOnce() throws Exception {
+    String uploadId = s3.createMultipartUpload(BUCKET, KEY);
+    CompletedPart part = s3.uploadPart(BUCKET, KEY, uploadId, 1, ByteBuffer.allocate(3));
+    // a request for another key does not claim the upload
+    assertThrows(IllegalStateException.class, () -> s3.abortMultipartUpload(BUCKET, "other.bin", uploadId));
+    assertEquals(1, s3.getPendingUploadCount());
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> complete = executor.submit(() -> s3.completeMultipartUpload(BUCKET, KEY, uploadId, Collections.singletonList(part)));
+      Future<?> abort = executor.submit(() -> s3.abortMultipartUpload(BUCKET, KEY, uploadId));
+      int succeeded = 0;
+      for (Future<?> future : Arrays.asList(complete, abort)) {
+        try {
+          future.get();
+          succeeded++;
+        } catch (ExecutionException e) {
+          assertEquals("No such upload: " + uploadId, e.getCause().getMessage());
+        }
+      }
+      assertEquals(1, succeeded);
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(0, s3.getPendingUploadCount());
+    assertTrue(files().size() <= 1);
+  }
+}
@@ -0,0 +1,174 @@
+package edu.colorado.cires.cmg.s3out;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the structures used by {@link S3OutputStream} to hand parts to the upload consumer and to record completed parts, under
+ * contention. Run with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.colorado.cires.cmg.s3out.HandOffBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandOffBenchmark {
+
+  private static final Object PART = new Object();
+
+  /**
+   * Feeds parts from a producer thread, as the writing thread does, while the benchmark thread takes them as the consumer. Groups of blocking
+   * benchmark methods would deadlock when an iteration ends, so the producer runs outside of the measured methods.
+   */
+  @State(Scope.Thread)
+  public abstract static class HandOff {
+
+    @Param({"1", "4", "16"})
+    public int capacity;
+
+    private Thread producer;
+
+    abstract void init(int capacity);
+
+    abstract void put() throws InterruptedException;
+
+    abstract Object take() throws InterruptedException;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+      init(capacity);
+      producer = new Thread(() -> {
+        try {
+          while (!Thread.currentThread().isInterrupted()) {
+            put();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      producer.setDaemon(true);
+      producer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+      producer.interrupt();
+      producer.join();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class RingHandOff extends HandOff {
+
+    private SpscRing<Object> ring;
+
+    @Override
+    void init(int capacity) {
+      ring = new SpscRing<>(capacity);
+    }
+
+    @Override
+    void put() throws InterruptedException {
+      ring.put(PART);
+    }
+
+    @Override
+    Object take() throws InterruptedException {
+      return ring.take();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class DequeHandOff extends HandOff {
+
+    private BlockingQueue<Object> deque;
+
+    @Override
+    void init(int capacity) {
+      deque = new LinkedBlockingDeque<>(capacity);
+    }
+
+    @Override
+    void put() throws InterruptedException {
+      // the previous hand-off allocated a wrapper per part
+      deque.put(new Object[] {PART});
+    }
+
+    @Override
+    Object take() throws InterruptedException {
+      return deque.take();
+    }
+  }
+
+  @Benchmark
+  public Object handOffRing(RingHandOff state) throws InterruptedException {
+    return state.take();
+  }
+
+  @Benchmark
+  public Object handOffDeque(DequeHandOff state) throws InterruptedException {
+    return state.take();
+  }
+
+  @State(Scope.Benchmark)
+  public static class CompletedParts {
+
+    final AtomicInteger partNumber = new AtomicInteger();
+    PartArray<Object> array;
+    SortedMap<Integer, Object> map;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+      partNumber.set(0);
+      array = new PartArray<>();
+      map = new TreeMap<>();
+    }
+
+    int next() {
+      return partNumber.getAndIncrement() % AdaptivePartSizer.MAX_PARTS;
+    }
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void completedPartsArray(CompletedParts state) {
+    state.array.set(state.next(), PART);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void completedPartsSynchronizedMap(CompletedParts state) {
+    int partNumber = state.next();
+    synchronized (state.map) {
+      state.map.put(partNumber, PART);
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(HandOffBenchmark.class.getSimpleName()).build()).run();
+  }
+}
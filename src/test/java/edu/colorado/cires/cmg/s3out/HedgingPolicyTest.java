@@ -0,0 +1,69 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class HedgingPolicyTest {
+
+  @Test
+  public void testThreshold() {
+    HedgingPolicy policy = HedgingPolicy.builder().minSamples(4).percentile(0.75).minDelayMillis(0).build();
+
+    assertEquals(-1L, policy.startUpload(100));
+    policy.recordLatency(100, 100);
+    policy.recordLatency(100, 200);
+    policy.recordLatency(100, 300);
+    assertEquals(-1L, policy.startUpload(100));
+    policy.recordLatency(100, 400);
+
+    assertEquals(300L, policy.startUpload(100));
+    assertEquals(600L, policy.startUpload(200));
+  }
+
+  @Test
+  public void testMinDelay() {
+    HedgingPolicy policy = HedgingPolicy.builder().minSamples(1).minDelayMillis(5).build();
+
+    policy.recordLatency(1000000, 1000000);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), policy.startUpload(10));
+    assertEquals(10000000L, policy.startUpload(10000000));
+  }
+
+  @Test
+  public void testSmallPartsAreNotObserved() {
+    HedgingPolicy policy = HedgingPolicy.builder().minSamples(2).percentile(0.5).minDelayMillis(0).build();
+
+    policy.recordLatency(1000, 1000);
+    policy.recordLatency(10, 1000);
+    assertEquals(-1L, policy.startUpload(1000));
+    policy.recordLatency(1000, 2000);
+    assertEquals(1000L, policy.startUpload(1000));
+  }
+
+  @Test
+  public void testBudget() {
+    HedgingPolicy policy = HedgingPolicy.builder().maxExtraRequestRatio(0.25).build();
+
+    for (int i = 0; i < 3; i++) {
+      policy.startUpload(100);
+    }
+    assertFalse(policy.tryHedge());
+    policy.startUpload(100);
+    assertTrue(policy.tryHedge());
+    assertFalse(policy.tryHedge());
+    assertEquals(1L, policy.getHedgedRequests());
+  }
+
+  @Test
+  public void testValidation() {
+    assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().percentile(1D).build());
+    assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().minSamples(0).build());
+    assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().maxExtraRequestRatio(0D).build());
+    assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().minDelayMillis(-1L).build());
+  }
+}
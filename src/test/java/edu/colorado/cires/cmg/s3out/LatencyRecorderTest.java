@@ -0,0 +1,56 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class LatencyRecorderTest {
+
+  @ParameterizedTest
+  @ValueSource(longs = {0L, 1L, 15L, 16L, 17L, 100L, 1_000L, 123_456L, 999_999_999L, (1L << 40) - 1L})
+  public void testBucketBounds(long micros) {
+    int bucket = LatencyRecorder.bucket(micros);
+    assertTrue(bucket < LatencyRecorder.BUCKETS);
+    assertTrue(micros <= LatencyRecorder.highestMicros(bucket));
+    if (bucket > 0) {
+      assertTrue(micros > LatencyRecorder.highestMicros(bucket - 1));
+    }
+    // within 12.5%
+    assertTrue(LatencyRecorder.highestMicros(bucket) - micros <= micros / 8);
+  }
+
+  @Test
+  public void testBucketsAreContiguous() {
+    for (int bucket = 1; bucket < LatencyRecorder.BUCKETS; bucket++) {
+      assertEquals(bucket, LatencyRecorder.bucket(LatencyRecorder.highestMicros(bucket - 1) + 1));
+      assertEquals(bucket, LatencyRecorder.bucket(LatencyRecorder.highestMicros(bucket)));
+    }
+    assertEquals(LatencyRecorder.BUCKETS - 1, LatencyRecorder.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    assertEquals(0L, recorder.snapshot().getP50Nanos());
+    for (int millis = 1; millis <= 100; millis++) {
+      recorder.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+    LatencyHistogram histogram = recorder.snapshot();
+    assertEquals(100, histogram.getCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMaxNanos());
+    assertBetween(TimeUnit.MILLISECONDS.toNanos(50), histogram.getP50Nanos());
+    assertBetween(TimeUnit.MILLISECONDS.toNanos(99), histogram.getP99Nanos());
+    assertEquals(histogram.getMaxNanos(), histogram.getPercentileNanos(100D));
+    assertBetween(TimeUnit.MILLISECONDS.toNanos(1), histogram.getPercentileNanos(0D));
+    assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(101D));
+  }
+
+  private static void assertBetween(long expected, long actual) {
+    assertTrue(actual >= expected && actual <= expected + expected / 8 + 1000L, "expected about " + expected + " but was " + actual);
+  }
+}
@@ -0,0 +1,56 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class PartArrayTest {
+
+  @Test
+  public void testPresentInIndexOrder() {
+    PartArray<Integer> array = new PartArray<>();
+    assertTrue(array.present().isEmpty());
+    array.set(130, 130);
+    array.set(2, 2);
+    array.set(AdaptivePartSizer.MAX_PARTS - 1, AdaptivePartSizer.MAX_PARTS - 1);
+    array.set(63, 63);
+    array.set(64, 64);
+    assertEquals(Arrays.asList(2, 63, 64, 130, AdaptivePartSizer.MAX_PARTS - 1), array.present());
+    assertEquals(64, array.get(64));
+    assertNull(array.get(65));
+    assertNull(array.get(5000));
+  }
+
+  @Test
+  public void testConcurrentSets() throws Exception {
+    PartArray<Integer> array = new PartArray<>();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        final int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = thread; i < 1000; i += 8) {
+            array.set(i, i);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(IntStream.range(0, 1000).boxed().collect(Collectors.toList()), array.present());
+  }
+}
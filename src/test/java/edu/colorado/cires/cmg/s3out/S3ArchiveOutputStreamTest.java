@@ -0,0 +1,281 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.colorado.cires.cmg.s3out.S3ArchiveOutputStream.Format;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class S3ArchiveOutputStreamTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final String KEY = "archive";
+  private static final int CHUNK_SIZE = 100;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  private static S3ArchiveOutputStream archiveStream(Format format, boolean autoComplete) {
+    S3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3OutputStream out = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build())
+        .partSizeBytes(1000)
+        .autoComplete(false)
+        .build();
+    return new S3ArchiveOutputStream(out, format, Deflater.DEFAULT_COMPRESSION, 3, CHUNK_SIZE, autoComplete);
+  }
+
+  private static Map<String, byte[]> entries() {
+    Random random = new Random(11);
+    Map<String, byte[]> entries = new LinkedHashMap<>();
+    entries.put("empty.txt", new byte[0]);
+    entries.put("dir/", new byte[0]);
+    entries.put("dir/small.txt", "hello archive".getBytes(StandardCharsets.UTF_8));
+    byte[] random1 = new byte[CHUNK_SIZE * 3];
+    random.nextBytes(random1);
+    entries.put("dir/chunk-multiple.bin", random1);
+    StringBuilder text = new StringBuilder();
+    while (text.length() < 5000) {
+      text.append("line ").append(random.nextInt(20)).append(" of compressible text\n");
+    }
+    entries.put("text.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+    byte[] random2 = new byte[1234];
+    random.nextBytes(random2);
+    entries.put("dir/élève.bin", random2);
+    return entries;
+  }
+
+  private static void writeEntries(S3ArchiveOutputStream out, Map<String, byte[]> entries, boolean withSize) throws IOException {
+    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+      byte[] bytes = entry.getValue();
+      if (withSize) {
+        out.putNextEntry(entry.getKey(), bytes.length);
+      } else {
+        out.putNextEntry(entry.getKey());
+      }
+      for (int i = 0; i < bytes.length; i += 37) {
+        out.write(bytes, i, Math.min(37, bytes.length - i));
+      }
+    }
+  }
+
+  @Test
+  public void testZip() throws Exception {
+    Map<String, byte[]> entries = entries();
+    try (S3ArchiveOutputStream out = archiveStream(Format.ZIP, true)) {
+      writeEntries(out, entries, false);
+    }
+
+    try (ZipFile zip = new ZipFile(BUCKET_DIR.resolve(KEY).toFile())) {
+      Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        ZipEntry zipEntry = zipEntries.nextElement();
+        assertEquals(entry.getKey(), zipEntry.getName());
+        assertEquals(entry.getKey().endsWith("/"), zipEntry.isDirectory());
+        try (InputStream in = zip.getInputStream(zipEntry)) {
+          assertArrayEquals(entry.getValue(), IOUtils.toByteArray(in));
+        }
+      }
+      assertFalse(zipEntries.hasMoreElements());
+      assertTrue(zip.getEntry("text.txt").getCompressedSize() < entries.get("text.txt").length / 2);
+    }
+
+    try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(BUCKET_DIR.resolve(KEY)))) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        assertEquals(entry.getKey(), zip.getNextEntry().getName());
+        assertArrayEquals(entry.getValue(), IOUtils.toByteArray(zip));
+      }
+      assertNull(zip.getNextEntry());
+    }
+  }
+
+  @Test
+  public void testZip64EntryCount() throws Exception {
+    int count = 0x10000 + 5;
+    try (S3ArchiveOutputStream out = archiveStream(Format.ZIP, true)) {
+      for (int i = 0; i < count; i++) {
+        out.putNextEntry("e" + i);
+        out.write(i);
+      }
+    }
+    try (ZipFile zip = new ZipFile(BUCKET_DIR.resolve(KEY).toFile())) {
+      assertEquals(count, zip.size());
+      try (InputStream in = zip.getInputStream(zip.getEntry("e" + (count - 1)))) {
+        assertEquals((count - 1) & 0xFF, in.read());
+      }
+    }
+  }
+
+  @Test
+  public void testMaxCompressedSize() {
+    int chunkSize = 1024 * 1024;
+    assertTrue(S3ArchiveOutputStream.maxCompressedSize(0xFFFFFFFFL - 1000, chunkSize) >= 0xFFFFFFFFL);
+    assertTrue(S3ArchiveOutputStream.maxCompressedSize(0xFFFFFFFFL, chunkSize) >= 0xFFFFFFFFL);
+    assertTrue(S3ArchiveOutputStream.maxCompressedSize(0xF0000000L, chunkSize) < 0xFFFFFFFFL);
+    byte[] random = new byte[chunkSize];
+    new Random(5).nextBytes(random);
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    deflater.setInput(random);
+    deflater.finish();
+    byte[] buffer = new byte[chunkSize * 2];
+    int compressed = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+    deflater.end();
+    assertTrue(compressed <= S3ArchiveOutputStream.maxCompressedSize(chunkSize, chunkSize));
+  }
+
+  @Test
+  public void testZip64Entry() throws Exception {
+    long size = 0x100000000L + 1000;
+    byte[] small = "after the large entry".getBytes(StandardCharsets.UTF_8);
+    S3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3OutputStream s3Out = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build())
+        .autoComplete(false)
+        .build();
+    try (S3ArchiveOutputStream out = new S3ArchiveOutputStream(s3Out, Format.ZIP, Deflater.BEST_SPEED, 3, 1024 * 1024, true)) {
+      out.putNextEntry("large.bin", size);
+      byte[] buffer = new byte[1024 * 1024];
+      for (long written = 0; written < size; written += buffer.length) {
+        out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+      }
+      out.putNextEntry("small.txt");
+      out.write(small);
+    }
+
+    // the local header declares ZIP64 sizes, which a reader needs to parse the 8-byte sizes in the data descriptor
+    ByteBuffer header = ByteBuffer.allocate(30 + 9 + 4).order(ByteOrder.LITTLE_ENDIAN);
+    try (FileChannel channel = FileChannel.open(BUCKET_DIR.resolve(KEY))) {
+      channel.read(header);
+    }
+    assertEquals(45, header.getShort(4));
+    assertEquals(-1, header.getInt(18));
+    assertEquals(-1, header.getInt(22));
+    assertEquals(20, header.getShort(28));
+    assertEquals(0x0001, header.getShort(39));
+    assertEquals(16, header.getShort(41));
+
+    try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(BUCKET_DIR.resolve(KEY)))) {
+      assertEquals("large.bin", zip.getNextEntry().getName());
+      byte[] buffer = new byte[1024 * 1024];
+      long read = 0;
+      for (int n = zip.read(buffer); n != -1; n = zip.read(buffer)) {
+        read += n;
+      }
+      assertEquals(size, read);
+      assertEquals("small.txt", zip.getNextEntry().getName());
+      assertArrayEquals(small, IOUtils.toByteArray(zip));
+      assertNull(zip.getNextEntry());
+    }
+    try (ZipFile zip = new ZipFile(BUCKET_DIR.resolve(KEY).toFile())) {
+      assertEquals(size, zip.getEntry("large.bin").getSize());
+      try (InputStream in = zip.getInputStream(zip.getEntry("small.txt"))) {
+        assertArrayEquals(small, IOUtils.toByteArray(in));
+      }
+    }
+  }
+
+  @Test
+  public void testTar() throws Exception {
+    Map<String, byte[]> entries = entries();
+    String longName = String.join("/", Arrays.asList(new String[30])).replace("null", "directory") + "/file.txt";
+    entries.put(longName, "long".getBytes(StandardCharsets.UTF_8));
+    String splitName = "prefix-" + String.join("", Arrays.asList(new String[10])).replace("null", "abcdefghij") + "/name.txt";
+    entries.put(splitName, "split".getBytes(StandardCharsets.UTF_8));
+    try (S3ArchiveOutputStream out = archiveStream(Format.TAR, true)) {
+      writeEntries(out, entries, true);
+    }
+
+    byte[] tar = Files.readAllBytes(BUCKET_DIR.resolve(KEY));
+    assertEquals(0, tar.length % 512);
+    Map<String, byte[]> read = new LinkedHashMap<>();
+    int offset = 0;
+    String paxPath = null;
+    while (tar[offset] != 0) {
+      byte[] header = Arrays.copyOfRange(tar, offset, offset + 512);
+      long checksum = 0;
+      for (int i = 0; i < 512; i++) {
+        checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+      }
+      assertEquals(checksum, Long.parseLong(field(header, 148, 7), 8));
+      assertEquals("ustar", field(header, 257, 6));
+      int size = Integer.parseInt(field(header, 124, 12), 8);
+      byte[] content = Arrays.copyOfRange(tar, offset + 512, offset + 512 + size);
+      offset += 512 + (size + 511) / 512 * 512;
+      if (header[156] == 'x') {
+        String record = new String(content, StandardCharsets.UTF_8);
+        assertEquals(content.length, Integer.parseInt(record.substring(0, record.indexOf(' '))));
+        paxPath = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+        continue;
+      }
+      String prefix = field(header, 345, 155);
+      String name = paxPath != null ? paxPath : prefix.isEmpty() ? field(header, 0, 100) : prefix + "/" + field(header, 0, 100);
+      paxPath = null;
+      assertEquals(name.endsWith("/") ? '5' : '0', (char) header[156]);
+      read.put(name, content);
+    }
+    assertEquals(tar.length - 1024, offset);
+    assertEquals(entries.keySet(), read.keySet());
+    entries.forEach((name, bytes) -> assertArrayEquals(bytes, read.get(name), name));
+  }
+
+  private static String field(byte[] header, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, StandardCharsets.UTF_8).trim();
+  }
+
+  @Test
+  public void testTarSizeMismatch() throws Exception {
+    try (S3ArchiveOutputStream out = archiveStream(Format.TAR, true)) {
+      assertThrows(IllegalArgumentException.class, () -> out.putNextEntry("unknown"));
+      out.putNextEntry("short", 10);
+      out.write(new byte[5]);
+      assertThrows(IOException.class, out::closeEntry);
+      out.putNextEntry("long", 2);
+      assertThrows(IOException.class, () -> out.write(new byte[3]));
+      out.write(new byte[2]);
+    }
+  }
+
+  @Test
+  public void testNotCompleted() throws Exception {
+    try (S3ArchiveOutputStream out = archiveStream(Format.ZIP, false)) {
+      writeEntries(out, entries(), false);
+    }
+    assertFalse(Files.exists(BUCKET_DIR.resolve(KEY)));
+  }
+}
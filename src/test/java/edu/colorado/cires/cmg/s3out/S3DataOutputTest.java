@@ -0,0 +1,87 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class S3DataOutputTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  private static void writeRecords(DataOutput out) throws IOException {
+    for (int i = 0; i < 20; i++) {
+      out.writeBoolean(i % 2 == 0);
+      out.writeByte(i);
+      out.writeShort(-i * 1000);
+      out.writeChar('a' + i);
+      out.writeInt(Integer.MIN_VALUE + i);
+      out.writeLong(Long.MAX_VALUE - i);
+      out.writeFloat(i / 3F);
+      out.writeDouble(-i / 7D);
+      out.writeBytes("bytes" + i);
+      out.writeChars("charsé" + i);
+      out.writeUTF("ascii " + i);
+      out.writeUTF("café € \u0000 " + i);
+      out.write(new byte[] {1, 2, 3});
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 3, 7, 13, 64, 100000})
+  public void testSameEncodingAsDataOutputStream(int partSize) throws Exception {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    writeRecords(new DataOutputStream(expected));
+
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    try (S3DataOutput out = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("records.bin").build())
+        .partSizeBytes(partSize)
+        .autoComplete(false)
+        .build()
+        .dataOutput()) {
+      writeRecords(out);
+      out.done();
+    }
+
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(BUCKET_DIR.resolve("records.bin")));
+  }
+
+  @Test
+  public void testUtfTooLong() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    char[] chars = new char[40000];
+    Arrays.fill(chars, 'é');
+    try (S3DataOutput out = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("records.bin").build())
+        .partSizeBytes(100)
+        .autoComplete(false)
+        .build()
+        .dataOutput()) {
+      assertThrows(UTFDataFormatException.class, () -> out.writeUTF(new String(chars)));
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class S3FileUploaderTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-file-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "test.txt,100,1,src/test/resources/test.txt",
+      "foo/bar/test.txt,100,4,src/test/resources/test-exact-buffer.txt",
+      "test.txt,7,3,src/test/resources/test.txt",
+      "test.txt,1,8,src/test/resources/test.txt",
+  })
+  public void testUploadFile(String key, int partSize, int concurrency, String source) throws Exception {
+    Path sourcePath = Paths.get(source);
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    new S3FileUploader(s3, partSize, concurrency).uploadFile(sourcePath, MultipartUploadRequest.builder().bucket(BUCKET).key(key).build());
+
+    assertArrayEquals(Files.readAllBytes(sourcePath), Files.readAllBytes(BUCKET_DIR.resolve(key)));
+    assertEquals(0, s3.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testPartSize() throws Exception {
+    long mib = 1024 * 1024;
+    assertEquals(5 * mib, S3FileUploader.partSize(0, 5 * mib));
+    assertEquals(5 * mib, S3FileUploader.partSize(10000 * 5 * mib, 5 * mib));
+    assertEquals(5 * mib + 1, S3FileUploader.partSize(10000 * 5 * mib + 1, 5 * mib));
+    assertThrows(IllegalArgumentException.class, () -> S3FileUploader.partSize(10000L * Integer.MAX_VALUE + 10000, 5 * mib));
+  }
+
+  @Test
+  public void testAbortAfterPartsInFlight() throws Exception {
+    Path sourcePath = Paths.get("src/test/resources/test.txt");
+    FileS3ClientMultipartUpload file = FileS3ClientMultipartUpload.builder().rootDir(MOCK_BUCKETS_DIR).build();
+    FileS3ClientMultipartUpload s3 = spy(file);
+    CountDownLatch inFlight = new CountDownLatch(3);
+    CountDownLatch finished = new CountDownLatch(3);
+    AtomicBoolean aborted = new AtomicBoolean();
+    AtomicInteger partsAfterAbort = new AtomicInteger();
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 1) {
+        inFlight.await();
+        throw new IllegalStateException("part 1 failed");
+      }
+      // the other parts are still in flight when part 1 fails, and finish even if interrupted, as a SDK request may
+      inFlight.countDown();
+      long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+      while (System.nanoTime() < end) {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          // keep going
+        }
+      }
+      if (aborted.get()) {
+        partsAfterAbort.incrementAndGet();
+      }
+      try {
+        return invocation.callRealMethod();
+      } finally {
+        finished.countDown();
+      }
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+    doAnswer(invocation -> {
+      aborted.set(true);
+      return invocation.callRealMethod();
+    }).when(s3).abortMultipartUpload(any(), any(), any());
+
+    IllegalStateException e = assertThrows(IllegalStateException.class, () -> new S3FileUploader(s3, 7, 4)
+        .uploadFile(sourcePath, MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build()));
+
+    assertEquals("part 1 failed", e.getMessage());
+    assertTrue(finished.await(10, TimeUnit.SECONDS));
+    assertTrue(aborted.get());
+    assertEquals(0, partsAfterAbort.get());
+    assertEquals(0, s3.getPendingUploadCount());
+    assertFalse(Files.exists(BUCKET_DIR.resolve("test.txt")));
+  }
+
+  @Test
+  public void testMissingFile() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    assertThrows(NoSuchFileException.class, () -> new S3FileUploader(s3, 100, 2)
+        .uploadFile(Paths.get("src/test/resources/missing.txt"), MultipartUploadRequest.builder().bucket(BUCKET).key("missing.txt").build()));
+    assertFalse(Files.exists(BUCKET_DIR.resolve("missing.txt")));
+  }
+}
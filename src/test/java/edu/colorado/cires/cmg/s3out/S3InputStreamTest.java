@@ -0,0 +1,88 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class S3InputStreamTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-read-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final Path SOURCE = Paths.get("src/test/resources/test.txt");
+  private static final String KEY = "foo/test.txt";
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR.resolve(KEY).getParent());
+    Files.copy(SOURCE, BUCKET_DIR.resolve(KEY), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "100,1,100",
+      "10,3,1",
+      "10,3,7",
+      "1,2,25",
+      "110,4,100",
+      "200,1,100",
+  })
+  public void testRead(int rangeSize, int prefetchCount, int copyBufferSize) throws Exception {
+    S3ClientRangeRead s3 = FileMockS3ClientRangeRead.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (InputStream inputStream = new S3InputStream(s3, BUCKET, KEY, rangeSize, prefetchCount)) {
+      if (copyBufferSize == 1) {
+        int b;
+        while ((b = inputStream.read()) != -1) {
+          outputStream.write(b);
+        }
+      } else {
+        IOUtils.copy(inputStream, outputStream, copyBufferSize);
+      }
+    }
+
+    assertArrayEquals(Files.readAllBytes(SOURCE), outputStream.toByteArray());
+  }
+
+  @Test
+  public void testSeekAndSkip() throws Exception {
+    byte[] expected = Files.readAllBytes(SOURCE);
+    S3ClientRangeRead s3 = FileMockS3ClientRangeRead.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (S3InputStream inputStream = new S3InputStream(s3, BUCKET, KEY, 10, 3)) {
+      assertEquals(expected.length, inputStream.length());
+
+      inputStream.seek(25);
+      assertEquals(expected[25], (byte) inputStream.read());
+
+      assertEquals(10, inputStream.skip(10));
+      assertEquals(36, inputStream.position());
+      assertEquals(expected[36], (byte) inputStream.read());
+
+      inputStream.seek(5);
+      assertEquals(expected[5], (byte) inputStream.read());
+
+      inputStream.seek(95);
+      byte[] rest = IOUtils.toByteArray(inputStream);
+      assertArrayEquals(Arrays.copyOfRange(expected, 95, expected.length), rest);
+
+      assertEquals(0, inputStream.skip(10));
+      assertEquals(-1, inputStream.read());
+    }
+  }
+}
@@ -1,19 +1,44 @@
 package edu.colorado.cires.cmg.s3out;
 
 import static org.junit.jupiter.api.Assertions.*;
-
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 public class S3OutputStreamTest {
 
@@ -168,4 +193,621 @@ public class S3OutputStreamTest {
     assertEquals(0, s3.getUploadStateMap().size());
   }
 
-}
\ No newline at end of file
+  @ParameterizedTest
+  @CsvSource({
+      "100,true,7",
+      "49,false,25",
+      "1,true,3",
+      "100,false,110",
+  })
+  public void testChannel(int maxBufferSize, boolean direct, int chunkSize) throws Exception {
+    String key = "test.txt";
+    Path source = Paths.get("src/test/resources/test.txt");
+    byte[] bytes = Files.readAllBytes(source);
+
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (
+        S3OutputStream outputStream = new S3OutputStream(s3, MultipartUploadRequest.builder().bucket(BUCKET).key(key).build(), maxBufferSize, false, 1);
+        WritableByteChannel channel = outputStream.channel();
+    ) {
+      for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+        int len = Math.min(chunkSize, bytes.length - offset);
+        ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(len) : ByteBuffer.allocate(len);
+        chunk.put(bytes, offset, len).flip();
+        assertEquals(len, channel.write(chunk));
+        assertFalse(chunk.hasRemaining());
+      }
+      outputStream.done();
+    }
+
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve(key)));
+    assertEquals(0, s3.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testWriteOwned() throws Exception {
+    S3ClientMultipartUpload s3 = mock(S3ClientMultipartUpload.class);
+    when(s3.createMultipartUpload(any(MultipartUploadRequest.class))).thenReturn("uploadId");
+    when(s3.uploadPart(any(), any(), any(), anyInt(), any())).thenReturn(CompletedPart.builder().build());
+
+    ByteBuffer part = ByteBuffer.allocateDirect(10);
+    part.put(new byte[10]).flip();
+    ByteBuffer small = ByteBuffer.allocateDirect(5);
+
+    try (S3OutputStream outputStream = new S3OutputStream(s3, MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build(), 10, true, 1)) {
+      outputStream.writeOwned(part);
+      outputStream.writeOwned(small);
+    }
+
+    // the owned direct buffer is uploaded as-is, the partial one is copied into a heap part buffer
+    verify(s3).uploadPart(eq(BUCKET), eq("test.txt"), eq("uploadId"), eq(1), argThat(ByteBuffer::isDirect));
+    verify(s3).uploadPart(eq(BUCKET), eq("test.txt"), eq("uploadId"), eq(2), argThat(b -> !b.isDirect()));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "test.txt,100,false,src/test/resources/test.txt",
+      "test.txt,100,true,src/test/resources/test.txt",
+      "foo/bar/test.txt,100,false,src/test/resources/test-exact-buffer.txt",
+      "foo/bar/test.txt,50,true,src/test/resources/test-exact-buffer.txt",
+      "test.txt,1,false,src/test/resources/test.txt",
+      "test.txt,3,true,src/test/resources/test.txt",
+  })
+  public void testTransferFrom(String key, int maxBufferSize, boolean channel, String source) throws Exception {
+    Path sourcePath = Paths.get(source);
+
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (
+        InputStream inputStream = Files.newInputStream(sourcePath);
+        S3OutputStream outputStream = new S3OutputStream(s3, MultipartUploadRequest.builder().bucket(BUCKET).key(key).build(), maxBufferSize, false, 1);
+    ) {
+      long transferred = channel ? outputStream.transferFrom(Channels.newChannel(inputStream)) : outputStream.transferFrom(inputStream);
+      assertEquals(Files.size(sourcePath), transferred);
+      outputStream.done();
+    }
+
+    assertArrayEquals(Files.readAllBytes(sourcePath), Files.readAllBytes(BUCKET_DIR.resolve(key)));
+    assertEquals(0, s3.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testCreateFailure() throws Exception {
+    S3ClientMultipartUpload s3 = mock(S3ClientMultipartUpload.class);
+    when(s3.createMultipartUpload(any(MultipartUploadRequest.class))).thenThrow(new IllegalStateException("create failed"));
+
+    S3OutputStream outputStream = new S3OutputStream(s3, MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build(), 10, true, 1);
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      IOException thrown = assertThrows(IOException.class, () -> {
+        while (true) {
+          outputStream.write(new byte[10]);
+        }
+      });
+      assertEquals("create failed", thrown.getCause().getMessage());
+    });
+
+    IOException thrown = assertThrows(IOException.class, outputStream::close);
+    assertEquals("create failed", thrown.getCause().getMessage());
+    verify(s3, never()).uploadPart(any(), any(), any(), anyInt(), any());
+    verify(s3, never()).abortMultipartUpload(any(), any(), any());
+  }
+
+  @Test
+  public void testUploadPartFailure() throws Exception {
+    S3ClientMultipartUpload s3 = mock(S3ClientMultipartUpload.class);
+    when(s3.createMultipartUpload(any(MultipartUploadRequest.class))).thenReturn("uploadId");
+    when(s3.uploadPart(any(), any(), any(), anyInt(), any())).thenThrow(new IllegalStateException("upload failed"));
+
+    S3OutputStream outputStream = new S3OutputStream(s3, MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build(), 10, true, 1);
+    outputStream.write(new byte[25]);
+
+    IOException thrown = assertThrows(IOException.class, outputStream::close);
+    assertEquals("upload failed", thrown.getCause().getMessage());
+    verify(s3).abortMultipartUpload(BUCKET, "test.txt", "uploadId");
+    verify(s3, never()).completeMultipartUpload(any(), any(), any(), any());
+    verify(s3, never()).completeMultipartUploadWithETag(any(), any(), any(), any());
+  }
+
+  @Test
+  public void testAbortCancelsQueuedAndInFlightParts() throws Exception {
+    S3ClientMultipartUpload s3 = mock(S3ClientMultipartUpload.class);
+    when(s3.createMultipartUpload(any(MultipartUploadRequest.class))).thenReturn("uploadId");
+    CountDownLatch uploading = new CountDownLatch(1);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    when(s3.uploadPart(any(), any(), any(), anyInt(), any())).thenAnswer(invocation -> {
+      uploading.countDown();
+      try {
+        // a part upload that never finishes on its own
+        new CountDownLatch(1).await();
+      } catch (InterruptedException e) {
+        interrupted.set(true);
+        throw new IllegalStateException("interrupted", e);
+      }
+      return null;
+    });
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build())
+        .partSizeBytes(10)
+        .uploadQueueSize(3)
+        .autoComplete(false)
+        .build();
+    // one part in flight, one waiting for a permit and three in the queue
+    outputStream.write(new byte[50]);
+    assertTrue(uploading.await(5, TimeUnit.SECONDS));
+
+    long start = System.nanoTime();
+    outputStream.close();
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+    verify(s3, times(1)).uploadPart(any(), any(), any(), anyInt(), any());
+    verify(s3).abortMultipartUpload(BUCKET, "test.txt", "uploadId");
+    verify(s3, never()).completeMultipartUploadWithETag(any(), any(), any(), any());
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!interrupted.get() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(interrupted.get());
+  }
+
+  @Test
+  public void testStatistics() throws Exception {
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    doAnswer(invocation -> {
+      Thread.sleep(20);
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    byte[] bytes = new byte[75_000];
+    new Random(5).nextBytes(bytes);
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("test.bin").build())
+        .partSizeBytes(10_000)
+        .build();
+    try {
+      outputStream.write(bytes, 0, 10_003);
+      assertEquals(10_003, outputStream.getStatistics().getBytesWritten());
+      // the upload thread waits for the next part
+      Thread.sleep(100);
+      outputStream.write(bytes, 10_003, bytes.length - 10_003);
+      assertEquals(75_000, outputStream.getStatistics().getBytesWritten());
+    } finally {
+      outputStream.close();
+    }
+
+    UploadStatistics statistics = outputStream.getStatistics();
+    assertEquals(75_000, statistics.getBytesWritten());
+    assertEquals(8, statistics.getPartsUploaded());
+    assertEquals(0, statistics.getBytesInFlight());
+    assertTrue(statistics.getProducerBlockedNanos() > 0);
+    assertTrue(statistics.getConsumerIdleNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    LatencyHistogram latency = statistics.getPartLatency();
+    assertEquals(8, latency.getCount());
+    assertTrue(latency.getP50Nanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    assertTrue(latency.getP99Nanos() >= latency.getP50Nanos());
+    assertEquals(latency.getMaxNanos(), latency.getP99Nanos());
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve("test.bin")));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "100000,1",
+      "100000,1000",
+      "100000,30000",
+      "8192,100",
+      "20000,8192",
+  })
+  public void testGrowingFirstBuffer(int partSize, int chunkSize) throws Exception {
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    List<Integer> partSizes = new CopyOnWriteArrayList<>();
+    doAnswer(invocation -> {
+      partSizes.add(invocation.<ByteBuffer>getArgument(4).remaining());
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    byte[] bytes = new byte[partSize * 3 + 123];
+    new Random(17).nextBytes(bytes);
+    try (S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("test.bin").build())
+        .partSizeBytes(partSize)
+        .build()) {
+      assertEquals(Math.min(partSize, S3OutputStream.INITIAL_BUFFER_SIZE), outputStream.getBufferCapacity());
+      for (int i = 0; i < bytes.length; i += chunkSize) {
+        outputStream.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+      }
+      assertEquals(partSize, outputStream.getBufferCapacity());
+    }
+
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve("test.bin")));
+    assertEquals(Arrays.asList(partSize, partSize, partSize, 123), partSizes);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "10,40,1",
+      "10,40,7",
+      "5,5,100",
+      "1,200,3",
+  })
+  public void testAdaptivePartSize(int minPartSize, int maxPartSize, int copyBufferSize) throws Exception {
+    String key = "test.txt";
+    Path source = Paths.get("src/test/resources/test.txt");
+
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+        .partSizeBytes(minPartSize)
+        .partSizer(new AdaptivePartSizer(minPartSize, maxPartSize, minPartSize))
+        .autoComplete(false)
+        .build();
+    try (InputStream inputStream = Files.newInputStream(source)) {
+      IOUtils.copy(inputStream, outputStream, copyBufferSize);
+      outputStream.done();
+    } finally {
+      outputStream.close();
+    }
+
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(BUCKET_DIR.resolve(key)));
+    assertEquals(0, s3.getUploadStateMap().size());
+    List<PartSizeDecision> decisions = outputStream.getPartSizeDecisions();
+    assertEquals(PartSizeDecision.Reason.INITIAL, decisions.get(0).getReason());
+    for (PartSizeDecision decision : decisions) {
+      assertTrue(decision.getPartSize() >= minPartSize && decision.getPartSize() <= maxPartSize);
+    }
+  }
+
+  @Test
+  public void testAdaptivePartSizeBuilder() throws Exception {
+    S3ClientMultipartUpload s3 = mock(S3ClientMultipartUpload.class);
+    MultipartUploadRequest request = MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build();
+    assertThrows(IllegalArgumentException.class, () -> S3OutputStream.builder().s3(s3).uploadRequest(request).adaptivePartSizeMib(4, 10).build());
+    assertThrows(IllegalArgumentException.class, () -> S3OutputStream.builder().s3(s3).uploadRequest(request).adaptivePartSizeMib(10, 5).build());
+    assertThrows(IllegalArgumentException.class, () -> S3OutputStream.builder().s3(s3).uploadRequest(request).adaptivePartSizeMib(5, 2048).build());
+    try (S3OutputStream outputStream = S3OutputStream.builder().s3(s3).uploadRequest(request).build()) {
+      assertTrue(outputStream.getPartSizeDecisions().isEmpty());
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "10,1,2",
+      "1,3,8",
+      "7,2,4",
+  })
+  public void testConcurrentUploadWithThrottling(int maxBufferSize, int queueSize, int initialLimit) throws Exception {
+    String key = "test.txt";
+    Path source = Paths.get("src/test/resources/test.txt");
+
+    FileMockS3ClientMultipartUpload mock = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    AtomicBoolean throttled = new AtomicBoolean();
+    S3ClientMultipartUpload s3 = spy(mock);
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 2 && throttled.compareAndSet(false, true)) {
+        throw S3Exception.builder().statusCode(503).message("SlowDown").build();
+      }
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    UploadConcurrencyLimiter limiter = UploadConcurrencyLimiter.builder().initialLimit(initialLimit).maxLimit(8).build();
+    try (
+        InputStream inputStream = Files.newInputStream(source);
+        S3OutputStream outputStream = S3OutputStream.builder()
+            .s3(s3)
+            .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+            .partSizeBytes(maxBufferSize)
+            .uploadQueueSize(queueSize)
+            .concurrencyLimiter(limiter)
+            .autoComplete(false)
+            .build();
+    ) {
+      IOUtils.copy(inputStream, outputStream);
+      outputStream.done();
+    }
+
+    assertTrue(throttled.get());
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(BUCKET_DIR.resolve(key)));
+    assertEquals(0, mock.getUploadStateMap().size());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testFirstFailureIsReported() throws Exception {
+    String key = "test.txt";
+
+    FileMockS3ClientMultipartUpload mock = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    CountDownLatch firstFailed = new CountDownLatch(1);
+    S3ClientMultipartUpload s3 = spy(mock);
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 1) {
+        firstFailed.countDown();
+        throw new IllegalStateException("first");
+      }
+      // a later part fails after the first, as a consequence of it
+      firstFailed.await();
+      Thread.sleep(100);
+      throw new IllegalStateException("second");
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+        .partSizeBytes(10)
+        .uploadQueueSize(2)
+        .concurrencyLimiter(UploadConcurrencyLimiter.builder().initialLimit(2).build())
+        .build();
+    outputStream.write(new byte[20]);
+    IOException e = assertThrows(IOException.class, outputStream::close);
+    assertEquals("first", e.getCause().getMessage());
+    assertEquals(0, mock.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testHedgedUpload() throws Exception {
+    String key = "test.txt";
+    Path source = Paths.get("src/test/resources/test.txt");
+
+    FileMockS3ClientMultipartUpload mock = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    AtomicBoolean stalled = new AtomicBoolean();
+    S3ClientMultipartUpload s3 = spy(mock);
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 8 && stalled.compareAndSet(false, true)) {
+        try {
+          Thread.sleep(30000);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException("cancelled", e);
+        }
+      }
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    HedgingPolicy hedgingPolicy = HedgingPolicy.builder().minSamples(2).maxExtraRequestRatio(1D).build();
+    long start = System.nanoTime();
+    try (
+        InputStream inputStream = Files.newInputStream(source);
+        S3OutputStream outputStream = S3OutputStream.builder()
+            .s3(s3)
+            .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+            .partSizeBytes(10)
+            .hedgingPolicy(hedgingPolicy)
+            .autoComplete(false)
+            .build();
+    ) {
+      IOUtils.copy(inputStream, outputStream);
+      outputStream.done();
+    }
+
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).getSeconds() < 10);
+    assertTrue(stalled.get());
+    assertTrue(hedgingPolicy.getHedgedRequests() >= 1L);
+    verify(s3, times(2)).uploadPart(any(), any(), any(), eq(8), any());
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(BUCKET_DIR.resolve(key)));
+    assertEquals(0, mock.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testAbandonWaitsForPartsInFlight() throws Exception {
+    FileMockS3ClientMultipartUpload mock = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3ClientMultipartUpload s3 = spy(mock);
+    List<String> events = new CopyOnWriteArrayList<>();
+    CountDownLatch uploading = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      uploading.countDown();
+      // a request that has been sent may still store its part after it is interrupted
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+      while (System.nanoTime() < deadline) {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+      Object completedPart = invocation.callRealMethod();
+      events.add("part");
+      return completedPart;
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+    doAnswer(invocation -> {
+      events.add("abort");
+      return invocation.callRealMethod();
+    }).when(s3).abortMultipartUpload(any(), any(), any());
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build())
+        .partSizeBytes(10)
+        .autoComplete(false)
+        .build();
+    outputStream.write(new byte[15]);
+    assertTrue(uploading.await(10, TimeUnit.SECONDS));
+    outputStream.close();
+
+    assertEquals(Arrays.asList("part", "abort"), events);
+    assertEquals(0, mock.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testHedgedUploadUsesLastETag() throws Exception {
+    String key = "test.txt";
+    Path source = Paths.get("src/test/resources/test.txt");
+
+    FileMockS3ClientMultipartUpload mock = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    AtomicBoolean stalled = new AtomicBoolean();
+    S3ClientMultipartUpload s3 = spy(mock);
+    // as under SSE-KMS, each request for a part gets a different ETag, and the slow request finishes after it is cancelled
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 8) {
+        String eTag = "\"hedge\"";
+        if (stalled.compareAndSet(false, true)) {
+          eTag = "\"primary\"";
+          long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+          while (!Thread.interrupted() && System.nanoTime() < deadline) {
+            Thread.yield();
+          }
+        }
+        CompletedPart completedPart = (CompletedPart) invocation.callRealMethod();
+        return completedPart.toBuilder().eTag(eTag).build();
+      }
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    HedgingPolicy hedgingPolicy = HedgingPolicy.builder().minSamples(2).maxExtraRequestRatio(1D).minDelayMillis(0).build();
+    try (
+        InputStream inputStream = Files.newInputStream(source);
+        S3OutputStream outputStream = S3OutputStream.builder()
+            .s3(s3)
+            .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+            .partSizeBytes(10)
+            .hedgingPolicy(hedgingPolicy)
+            .build();
+    ) {
+      IOUtils.copy(inputStream, outputStream);
+    }
+
+    assertTrue(hedgingPolicy.getHedgedRequests() >= 1L);
+    verify(s3).completeMultipartUploadWithETag(eq(BUCKET), eq(key), any(), argThat(parts -> parts.stream()
+        .anyMatch(part -> part.partNumber() == 8 && "\"primary\"".equals(part.eTag()))));
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(BUCKET_DIR.resolve(key)));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "10,1",
+      "7,3",
+      "200,1",
+  })
+  public void testFanOut(int maxBufferSize, int queueSize) throws Exception {
+    String key = "test.txt";
+    String archiveBucket = "my-archive-bucket";
+    Path archiveBucketDir = MOCK_BUCKETS_DIR.resolve(archiveBucket);
+    FileUtils.deleteQuietly(archiveBucketDir.toFile());
+    Files.createDirectories(archiveBucketDir);
+    Path source = Paths.get("src/test/resources/test.txt");
+
+    FileMockS3ClientMultipartUpload primary = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    FileMockS3ClientMultipartUpload archive = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (
+        InputStream inputStream = Files.newInputStream(source);
+        S3OutputStream outputStream = S3OutputStream.builder()
+            .s3(primary)
+            .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+            .addDestination(archive, MultipartUploadRequest.builder().bucket(archiveBucket).key("archive/" + key).build())
+            .partSizeBytes(maxBufferSize)
+            .uploadQueueSize(queueSize)
+            .autoComplete(false)
+            .build();
+    ) {
+      IOUtils.copy(inputStream, outputStream);
+      outputStream.done();
+    }
+
+    byte[] expected = Files.readAllBytes(source);
+    assertArrayEquals(expected, Files.readAllBytes(BUCKET_DIR.resolve(key)));
+    assertArrayEquals(expected, Files.readAllBytes(archiveBucketDir.resolve("archive").resolve(key)));
+    assertEquals(0, primary.getUploadStateMap().size());
+    assertEquals(0, archive.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testFanOutFailure() throws Exception {
+    FileMockS3ClientMultipartUpload primary = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    S3ClientMultipartUpload archive = mock(S3ClientMultipartUpload.class);
+    when(archive.createMultipartUpload(any(MultipartUploadRequest.class))).thenReturn("archiveUploadId");
+    when(archive.uploadPart(any(), any(), any(), anyInt(), any())).thenThrow(new IllegalStateException("upload failed"));
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(primary)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build())
+        .addDestination(archive, MultipartUploadRequest.builder().bucket("my-archive-bucket").key("test.txt").build())
+        .partSizeBytes(10)
+        .build();
+    outputStream.write(new byte[25]);
+
+    IOException thrown = assertThrows(IOException.class, outputStream::close);
+    assertEquals("upload failed", thrown.getCause().getMessage());
+    verify(primary).abortMultipartUpload(eq(BUCKET), eq("test.txt"), any());
+    verify(archive).abortMultipartUpload("my-archive-bucket", "test.txt", "archiveUploadId");
+    verify(primary, never()).completeMultipartUploadWithETag(any(), any(), any(), any());
+    assertEquals(0, primary.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testVerifyETag() throws Exception {
+    String key = "test.txt";
+    Path source = Paths.get("src/test/resources/test.txt");
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+        .partSizeBytes(50)
+        .verifyETag(true)
+        .autoComplete(false)
+        .build();
+    try (InputStream inputStream = Files.newInputStream(source)) {
+      IOUtils.copy(inputStream, outputStream);
+      outputStream.done();
+    }
+    assertNull(outputStream.getETag());
+    outputStream.close();
+
+    byte[] bytes = Files.readAllBytes(source);
+    List<byte[]> partMd5s = Arrays.asList(
+        ETags.md5(ByteBuffer.wrap(bytes, 0, 50)),
+        ETags.md5(ByteBuffer.wrap(bytes, 50, 50)),
+        ETags.md5(ByteBuffer.wrap(bytes, 100, bytes.length - 100)));
+    assertEquals(ETags.multipart(partMd5s), outputStream.getETag());
+    assertTrue(outputStream.getETag().endsWith("-3"));
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve(key)));
+  }
+
+  @Test
+  public void testVerifyETagPartMismatch() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    doAnswer(invocation -> {
+      CompletedPart completedPart = (CompletedPart) invocation.callRealMethod();
+      return completedPart.partNumber() == 2 ? completedPart.toBuilder().eTag("\"0123\"").build() : completedPart;
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build())
+        .partSizeBytes(10)
+        .verifyETag(true)
+        .build();
+    outputStream.write(new byte[25]);
+
+    IOException thrown = assertThrows(IOException.class, outputStream::close);
+    assertTrue(thrown.getCause().getMessage().startsWith("ETag of part 2 uploaded to " + BUCKET + ":test.txt was 0123"));
+    verify(s3).abortMultipartUpload(eq(BUCKET), eq("test.txt"), any());
+    verify(s3, never()).completeMultipartUploadWithETag(any(), any(), any(), any());
+    assertNull(outputStream.getETag());
+  }
+
+  @Test
+  public void testVerifyETagCompletionMismatch() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    doAnswer(invocation -> {
+      invocation.callRealMethod();
+      return "\"0123-3\"";
+    }).when(s3).completeMultipartUploadWithETag(any(), any(), any(), any());
+
+    S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key("test.txt").build())
+        .partSizeBytes(10)
+        .verifyETag(true)
+        .build();
+    outputStream.write(new byte[25]);
+
+    IOException thrown = assertThrows(IOException.class, outputStream::close);
+    assertTrue(thrown.getMessage().startsWith("ETag of completed upload " + BUCKET + ":test.txt was 0123-3"));
+    assertNull(outputStream.getETag());
+  }
+
+}
@@ -0,0 +1,193 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class S3PackWriterTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final KeyNamingPolicy NAMING = (index, start) -> String.format("packs/pack-%03d.bin", index);
+
+  private final S3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+  private final S3PackReader reader = S3PackReader.builder()
+      .s3(FileMockS3ClientRangeRead.builder().mockBucketDir(MOCK_BUCKETS_DIR).build())
+      .bucket(BUCKET)
+      .build();
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR.resolve("packs"));
+  }
+
+  private S3PackWriter packWriter(long maxPackBytes) {
+    return new S3PackWriter(NAMING, maxPackBytes, key -> S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+        .partSizeBytes(64)
+        .autoComplete(false)
+        .build());
+  }
+
+  @Test
+  public void testPacks() throws Exception {
+    Random random = new Random(3);
+    Map<String, byte[]> files = new LinkedHashMap<>();
+    for (int i = 0; i < 40; i++) {
+      byte[] bytes = new byte[random.nextInt(50)];
+      random.nextBytes(bytes);
+      files.put("dir/file-" + i + (i % 7 == 0 ? "-élève" : ""), bytes);
+    }
+
+    List<PackEntry> written = new ArrayList<>();
+    try (S3PackWriter writer = packWriter(200)) {
+      int i = 0;
+      for (Map.Entry<String, byte[]> file : files.entrySet()) {
+        if (i++ % 2 == 0) {
+          written.add(writer.add(file.getKey(), file.getValue()));
+        } else {
+          written.add(writer.add(file.getKey(), new ByteArrayInputStream(file.getValue())));
+        }
+      }
+    }
+
+    List<String> packKeys = new ArrayList<>();
+    for (PackEntry entry : written) {
+      if (!packKeys.contains(entry.getPackKey())) {
+        packKeys.add(entry.getPackKey());
+      }
+    }
+    assertTrue(packKeys.size() > 1);
+    assertEquals("packs/pack-000.bin", packKeys.get(0));
+
+    List<PackEntry> indexed = new ArrayList<>();
+    for (String packKey : packKeys) {
+      List<PackEntry> index = reader.readIndex(packKey);
+      long dataLength = index.stream().mapToLong(PackEntry::getLength).sum();
+      assertTrue(dataLength - index.get(index.size() - 1).getLength() < 200);
+      indexed.addAll(index);
+    }
+    assertEquals(written.size(), indexed.size());
+    for (int i = 0; i < written.size(); i++) {
+      PackEntry expected = written.get(i);
+      PackEntry actual = indexed.get(i);
+      assertEquals(expected.getName(), actual.getName());
+      assertEquals(expected.getPackKey(), actual.getPackKey());
+      assertEquals(expected.getOffset(), actual.getOffset());
+      assertEquals(expected.getLength(), actual.getLength());
+      assertEquals(expected.getChecksum(), actual.getChecksum());
+      assertArrayEquals(files.get(actual.getName()), reader.read(actual));
+    }
+  }
+
+  @Test
+  public void testLargeIndex() throws Exception {
+    String longName = new String(new char[2000]).replace('\0', 'n');
+    List<PackEntry> written = new ArrayList<>();
+    try (S3PackWriter writer = packWriter(Long.MAX_VALUE)) {
+      for (int i = 0; i < 50; i++) {
+        written.add(writer.add(longName + i, ("content " + i).getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+    List<PackEntry> index = reader.readIndex("packs/pack-000.bin");
+    assertEquals(50, index.size());
+    assertEquals(longName + 49, index.get(49).getName());
+    assertEquals("content 49", new String(reader.read(index.get(49)), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testChecksumMismatch() throws Exception {
+    PackEntry entry;
+    try (S3PackWriter writer = packWriter(1000)) {
+      entry = writer.add("a", "abcdef".getBytes(StandardCharsets.UTF_8));
+    }
+    try (FileChannel channel = FileChannel.open(BUCKET_DIR.resolve(entry.getPackKey()), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {'x'}), 2);
+    }
+    assertThrows(IOException.class, () -> reader.read(entry));
+  }
+
+  @Test
+  public void testFailedReadKeepsPack() throws Exception {
+    PackEntry a;
+    PackEntry c;
+    try (S3PackWriter writer = packWriter(1000)) {
+      a = writer.add("a", "first".getBytes(StandardCharsets.UTF_8));
+      InputStream failing = new InputStream() {
+        private int count;
+
+        @Override
+        public int read() throws IOException {
+          if (count++ < 20) {
+            return 'b';
+          }
+          throw new IOException("test");
+        }
+      };
+      assertThrows(IOException.class, () -> writer.add("b", failing));
+      assertEquals("packs/pack-000.bin", writer.getCurrentPackKey());
+      assertThrows(ArrayIndexOutOfBoundsException.class, () -> writer.add("b", new byte[1], 0, 2));
+      assertThrows(IllegalArgumentException.class, () -> writer.add(new String(new char[70000]), new byte[1]));
+      c = writer.add("c", "third".getBytes(StandardCharsets.UTF_8));
+    }
+
+    List<PackEntry> index = reader.readIndex("packs/pack-000.bin");
+    assertEquals(2, index.size());
+    assertEquals("first", new String(reader.read(index.get(0)), StandardCharsets.UTF_8));
+    assertEquals("third", new String(reader.read(index.get(1)), StandardCharsets.UTF_8));
+    assertEquals(a.getOffset(), index.get(0).getOffset());
+    assertEquals(c.getOffset(), index.get(1).getOffset());
+  }
+
+  @Test
+  public void testFailedWriteAbortsPack() throws Exception {
+    S3ClientMultipartUpload failing = spy(s3);
+    doThrow(new IllegalStateException("test")).when(failing).uploadPart(any(), any(), any(), anyInt(), any());
+    try (S3PackWriter writer = new S3PackWriter(NAMING, 100000, key -> S3OutputStream.builder()
+        .s3(failing)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+        .partSizeBytes(64)
+        .autoComplete(false)
+        .build())) {
+      writer.add("a", new byte[200]);
+      // the failed part upload is reported by a later write
+      assertThrows(IOException.class, () -> {
+        for (int i = 0; i < 1000; i++) {
+          writer.add("b" + i, new byte[200]);
+          Thread.sleep(1);
+        }
+      });
+      assertNull(writer.getCurrentPackKey());
+    }
+    assertFalse(Files.exists(BUCKET_DIR.resolve("packs/pack-000.bin")));
+  }
+}
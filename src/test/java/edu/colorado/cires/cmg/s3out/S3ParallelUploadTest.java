@@ -0,0 +1,151 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class S3ParallelUploadTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final String KEY = "parallel.bin";
+  private static final int PART_SIZE = 10;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'25,25,25'",
+      "'3,4,5,0,6'",
+      "'10,10,10'",
+      "'0,0,0'",
+      "'47'",
+      "'7,0,31,2,2,2,2,9,10,11'",
+  })
+  public void testSegmentsInOrder(String segmentSizes) throws Exception {
+    FileMockS3ClientMultipartUpload mock = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3ClientMultipartUpload s3 = spy(mock);
+    Map<Integer, Integer> partSizes = new ConcurrentHashMap<>();
+    doAnswer(invocation -> {
+      partSizes.put(invocation.getArgument(3), invocation.<ByteBuffer>getArgument(4).remaining());
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    Random random = new Random(7);
+    List<byte[]> segments = new ArrayList<>();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (String size : segmentSizes.split(",")) {
+      byte[] bytes = new byte[Integer.parseInt(size)];
+      random.nextBytes(bytes);
+      segments.add(bytes);
+      expected.write(bytes);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(segments.size());
+    try (S3ParallelUpload upload = new S3ParallelUpload(s3, MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build(), PART_SIZE)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (byte[] bytes : segments) {
+        S3SegmentOutputStream segment = upload.openSegment(10);
+        futures.add(executor.submit(() -> {
+          try (S3SegmentOutputStream out = segment) {
+            for (int i = 0; i < bytes.length; i += 3) {
+              out.write(bytes, i, Math.min(3, bytes.length - i));
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      upload.commit();
+    } finally {
+      executor.shutdown();
+    }
+
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+    assertEquals(0, mock.getUploadStateMap().size());
+    int lastPartNumber = partSizes.keySet().stream().mapToInt(Integer::intValue).max().getAsInt();
+    partSizes.forEach((partNumber, size) -> assertTrue(partNumber == lastPartNumber || size >= PART_SIZE));
+  }
+
+  @Test
+  public void testCommitRequiresClosedSegments() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    try (S3ParallelUpload upload = new S3ParallelUpload(s3, MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build(), PART_SIZE)) {
+      upload.openSegment(2).write(new byte[5]);
+      assertThrows(IllegalStateException.class, upload::commit);
+    }
+    verify(s3).abortMultipartUpload(eq(BUCKET), eq(KEY), any());
+    assertFalse(Files.exists(BUCKET_DIR.resolve(KEY)));
+  }
+
+  @Test
+  public void testSegmentWritesDoNotLockUpload() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (S3ParallelUpload upload = new S3ParallelUpload(s3, MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build(), PART_SIZE)) {
+      S3SegmentOutputStream segment = upload.openSegment(10);
+      // as commit() does while completing the upload
+      synchronized (upload) {
+        executor.submit(() -> {
+          segment.write(new byte[25]);
+          segment.write(1);
+          return null;
+        }).get(10, TimeUnit.SECONDS);
+      }
+      segment.close();
+      upload.commit();
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(26, Files.size(BUCKET_DIR.resolve(KEY)));
+  }
+
+  @Test
+  public void testReservedParts() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    try (S3ParallelUpload upload = new S3ParallelUpload(s3, MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build(), PART_SIZE)) {
+      S3SegmentOutputStream segment = upload.openSegment(2);
+      segment.write(new byte[20]);
+      assertThrows(IOException.class, () -> segment.write(new byte[10]));
+      assertThrows(IllegalArgumentException.class, () -> upload.openSegment(9999));
+      upload.openSegment(9998);
+    }
+    assertEquals(0, s3.getUploadStateMap().size());
+  }
+}
@@ -0,0 +1,216 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class S3RecordOutputStreamTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final String KEY = "records.ndjson";
+  private static final String INDEX_KEY = KEY + ".index";
+  private static final int PART_SIZE = 20;
+  private static final int MAX_PART_SIZE = 30;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  private static S3RecordOutputStream recordStream(S3ClientMultipartUpload s3, boolean autoComplete) {
+    MultipartUploadRequest dataRequest = MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build();
+    MultipartUploadRequest indexRequest = MultipartUploadRequest.builder().bucket(BUCKET).key(INDEX_KEY).build();
+    return new S3RecordOutputStream(
+        S3OutputStream.builder().s3(s3).uploadRequest(dataRequest).partSizeBytes(PART_SIZE).autoComplete(false).build(),
+        () -> S3OutputStream.builder().s3(s3).uploadRequest(indexRequest).autoComplete(false).build(),
+        PART_SIZE,
+        MAX_PART_SIZE,
+        autoComplete);
+  }
+
+  @Test
+  public void testRecordAlignedParts() throws Exception {
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    Map<Integer, Integer> partSizes = new ConcurrentHashMap<>();
+    doAnswer(invocation -> {
+      if (KEY.equals(invocation.getArgument(1))) {
+        partSizes.put(invocation.getArgument(3), invocation.<ByteBuffer>getArgument(4).remaining());
+      }
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    // the 45 byte record does not end within the tolerance and is split across parts
+    int[] recordSizes = {7, 7, 7, 3, 12, 45, 1, 1, 19, 20, 2, 9};
+    List<Long> recordStarts = new ArrayList<>();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    S3RecordOutputStream out = recordStream(s3, true);
+    try {
+      for (int i = 0; i < recordSizes.length; i++) {
+        recordStarts.add((long) expected.size());
+        byte[] record = new byte[recordSizes[i]];
+        for (int j = 0; j < record.length - 1; j++) {
+          record[j] = (byte) ('a' + i);
+        }
+        record[record.length - 1] = '\n';
+        for (int j = 0; j < record.length; j += 4) {
+          out.write(record, j, Math.min(4, record.length - j));
+        }
+        expected.write(record);
+        out.endRecord();
+      }
+    } finally {
+      out.close();
+    }
+
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+
+    TreeMap<Integer, Integer> sortedPartSizes = new TreeMap<>(partSizes);
+    List<Long> partStarts = new ArrayList<>();
+    long offset = 0;
+    for (Map.Entry<Integer, Integer> entry : sortedPartSizes.entrySet()) {
+      partStarts.add(offset);
+      offset += entry.getValue();
+      assertTrue(entry.getKey().equals(sortedPartSizes.lastKey()) || entry.getValue() >= PART_SIZE);
+      assertTrue(entry.getValue() <= MAX_PART_SIZE);
+    }
+
+    RecordIndex index = out.getIndex();
+    assertEquals(expected.size(), index.getLength());
+    assertEquals(recordSizes.length, index.getRecordCount());
+    long previousEnd = 0;
+    for (int group = 0; group < index.getGroupCount(); group++) {
+      long groupOffset = index.getGroupOffset(group);
+      assertEquals(previousEnd, groupOffset);
+      assertEquals(recordStarts.get((int) index.getFirstRecord(group)).longValue(), groupOffset);
+      previousEnd = groupOffset + index.getGroupLength(group);
+    }
+    assertEquals(expected.size(), previousEnd);
+
+    // every part that contains a record start begins a group at its first record
+    int group = 0;
+    for (int part = 0; part < partStarts.size(); part++) {
+      long start = partStarts.get(part);
+      long end = part + 1 < partStarts.size() ? partStarts.get(part + 1) : expected.size();
+      Long firstStart = recordStarts.stream().filter(s -> s >= start && s < end).findFirst().orElse(null);
+      if (firstStart != null) {
+        assertEquals(firstStart.longValue(), index.getGroupOffset(group++));
+      }
+    }
+    assertEquals(index.getGroupCount(), group);
+
+    try (InputStream in = Files.newInputStream(BUCKET_DIR.resolve(INDEX_KEY))) {
+      RecordIndex read = RecordIndex.read(in);
+      assertEquals(index.getGroupCount(), read.getGroupCount());
+      assertEquals(index.getLength(), read.getLength());
+      assertEquals(index.getRecordCount(), read.getRecordCount());
+      for (int i = 0; i < index.getGroupCount(); i++) {
+        assertEquals(index.getGroupOffset(i), read.getGroupOffset(i));
+        assertEquals(index.getFirstRecord(i), read.getFirstRecord(i));
+      }
+    }
+  }
+
+  @Test
+  public void testUnterminatedLastRecord() throws Exception {
+    S3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3RecordOutputStream out = recordStream(s3, true);
+    try {
+      out.write("first\n".getBytes(StandardCharsets.UTF_8));
+      out.endRecord();
+      out.write("second".getBytes(StandardCharsets.UTF_8));
+    } finally {
+      out.close();
+    }
+    assertEquals("first\nsecond", new String(Files.readAllBytes(BUCKET_DIR.resolve(KEY)), StandardCharsets.UTF_8));
+    assertEquals(2, out.getIndex().getRecordCount());
+    assertEquals(1, out.getIndex().getGroupCount());
+  }
+
+  @Test
+  public void testPartBuffersAreReused() throws Exception {
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    Set<byte[]> partArrays = Collections.newSetFromMap(new IdentityHashMap<>());
+    AtomicInteger parts = new AtomicInteger();
+    doAnswer(invocation -> {
+      if (KEY.equals(invocation.getArgument(1))) {
+        partArrays.add(invocation.<ByteBuffer>getArgument(4).array());
+        parts.incrementAndGet();
+      }
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (S3RecordOutputStream out = recordStream(s3, true)) {
+      for (int i = 0; i < 100; i++) {
+        byte[] record = ("record " + i + "\n").getBytes(StandardCharsets.UTF_8);
+        out.write(record);
+        expected.write(record);
+        out.endRecord();
+      }
+    }
+
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+    // buffers are allocated for the parts being written, queued, and uploaded at once, not for every part
+    assertTrue(parts.get() > 40);
+    assertTrue(partArrays.size() < parts.get() / 3, "part buffers allocated: " + partArrays.size());
+  }
+
+  @Test
+  public void testWriteAfterClose() throws Exception {
+    S3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3RecordOutputStream out = recordStream(s3, true);
+    out.write("record\n".getBytes(StandardCharsets.UTF_8));
+    out.endRecord();
+    out.close();
+    assertEquals("Stream closed", assertThrows(IOException.class, () -> out.write(1)).getMessage());
+    assertEquals("Stream closed", assertThrows(IOException.class, () -> out.write(new byte[10])).getMessage());
+    assertEquals("Stream closed", assertThrows(IOException.class, out::endRecord).getMessage());
+    assertEquals("record\n", new String(Files.readAllBytes(BUCKET_DIR.resolve(KEY)), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testNoIndexWhenAborted() throws Exception {
+    S3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3RecordOutputStream out = recordStream(s3, false);
+    try {
+      out.write(new byte[50]);
+      out.endRecord();
+    } finally {
+      out.close();
+    }
+    assertNull(out.getIndex());
+    assertFalse(Files.exists(BUCKET_DIR.resolve(KEY)));
+    assertFalse(Files.exists(BUCKET_DIR.resolve(INDEX_KEY)));
+  }
+}
@@ -0,0 +1,141 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class S3RollingOutputStreamTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-rolling-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  private static S3RollingOutputStream.Builder builder(S3ClientMultipartUpload s3) {
+    return S3RollingOutputStream.builder()
+        .s3(s3)
+        .bucket(BUCKET)
+        .keyNamingPolicy((index, start) -> "logs/part-" + index);
+  }
+
+  @Test
+  public void testRotateBySize() throws Exception {
+    Path source = Paths.get("src/test/resources/test.txt");
+    byte[] bytes = Files.readAllBytes(source);
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (S3RollingOutputStream outputStream = builder(s3).maxObjectBytes(40).build()) {
+      for (int i = 0; i < bytes.length; i += 10) {
+        outputStream.write(bytes, i, Math.min(10, bytes.length - i));
+      }
+    }
+
+    ByteArrayOutputStream combined = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      combined.write(Files.readAllBytes(BUCKET_DIR.resolve("logs/part-" + i)));
+    }
+    assertEquals(40, Files.size(BUCKET_DIR.resolve("logs/part-0")));
+    assertEquals(30, Files.size(BUCKET_DIR.resolve("logs/part-2")));
+    assertFalse(Files.exists(BUCKET_DIR.resolve("logs/part-3")));
+    assertArrayEquals(bytes, combined.toByteArray());
+    assertEquals(0, s3.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testRotateByAge() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (S3RollingOutputStream outputStream = builder(s3).maxObjectAge(Duration.ofMillis(200)).build()) {
+      outputStream.write("first".getBytes(StandardCharsets.UTF_8));
+      assertEquals("logs/part-0", outputStream.getCurrentKey());
+      Thread.sleep(1000);
+      assertNull(outputStream.getCurrentKey());
+      assertTrue(Files.exists(BUCKET_DIR.resolve("logs/part-0")));
+      outputStream.write("second".getBytes(StandardCharsets.UTF_8));
+    }
+
+    assertEquals("first", new String(Files.readAllBytes(BUCKET_DIR.resolve("logs/part-0")), StandardCharsets.UTF_8));
+    assertEquals("second", new String(Files.readAllBytes(BUCKET_DIR.resolve("logs/part-1")), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRotateBySizeCancelsAgeRotation() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (S3RollingOutputStream outputStream = builder(s3).maxObjectBytes(5).maxObjectAge(Duration.ofHours(1)).build()) {
+      for (int i = 0; i < 20; i++) {
+        outputStream.write("first".getBytes(StandardCharsets.UTF_8));
+      }
+      outputStream.write("last".getBytes(StandardCharsets.UTF_8));
+      assertEquals(1, outputStream.getScheduledAgeRotations());
+    }
+
+    assertEquals("last", new String(Files.readAllBytes(BUCKET_DIR.resolve("logs/part-20")), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testAbortCurrentWhenNotDone() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+
+    try (S3RollingOutputStream outputStream = builder(s3).maxObjectBytes(5).autoComplete(false).build()) {
+      outputStream.write("first".getBytes(StandardCharsets.UTF_8));
+      outputStream.write("sec".getBytes(StandardCharsets.UTF_8));
+    }
+
+    assertTrue(Files.exists(BUCKET_DIR.resolve("logs/part-0")));
+    assertFalse(Files.exists(BUCKET_DIR.resolve("logs/part-1")));
+    assertEquals(0, s3.getUploadStateMap().size());
+  }
+
+  @Test
+  public void testBackgroundCompletionFailure() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    doThrow(new IllegalStateException("complete failed"))
+        .when(s3).completeMultipartUploadWithETag(eq(BUCKET), eq("logs/part-0"), any(), any());
+
+    S3RollingOutputStream outputStream = builder(s3).maxObjectBytes(5).build();
+    outputStream.write("first".getBytes(StandardCharsets.UTF_8));
+    outputStream.rotateNow();
+
+    IOException thrown = assertThrows(IOException.class, outputStream::close);
+    assertEquals("complete failed", thrown.getCause().getMessage());
+    assertThrows(IOException.class, () -> outputStream.write(1));
+  }
+
+  @Test
+  public void testDatePartitioned() {
+    KeyNamingPolicy policy = KeyNamingPolicy.datePartitioned("prefix", ".gz");
+    assertEquals("prefix/2026/10/16/part-00042.gz", policy.keyFor(42, Instant.parse("2026-10-16T23:59:59Z")));
+  }
+
+  @Test
+  public void testValidation() {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    assertThrows(IllegalArgumentException.class, () -> builder(s3).build());
+    assertThrows(IllegalArgumentException.class, () -> S3RollingOutputStream.builder().s3(s3).bucket(BUCKET).maxObjectBytes(5).build());
+  }
+}
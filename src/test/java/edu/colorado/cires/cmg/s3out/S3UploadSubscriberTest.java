@@ -0,0 +1,227 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class S3UploadSubscriberTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final String KEY = "reactive.bin";
+  private static final int PART_SIZE = 10;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  /**
+   * Emits elements only on demand, from whichever thread requests them, and overwrites each element after it has been delivered.
+   */
+  private static class TestPublisher implements Publisher<ByteBuffer>, Subscription {
+
+    private final List<byte[]> elements;
+    private final Throwable error;
+    private Subscriber<? super ByteBuffer> subscriber;
+    private long demand;
+    private int index;
+    private boolean emitting;
+    private volatile boolean cancelled;
+
+    private TestPublisher(List<byte[]> elements, Throwable error) {
+      this.elements = elements;
+      this.error = error;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> s) {
+      subscriber = s;
+      s.onSubscribe(this);
+    }
+
+    @Override
+    public synchronized void request(long n) {
+      assertTrue(n > 0);
+      demand += n;
+      if (emitting) {
+        return;
+      }
+      emitting = true;
+      try {
+        while (!cancelled && demand > 0 && index < elements.size()) {
+          demand--;
+          byte[] reused = elements.get(index++).clone();
+          subscriber.onNext(ByteBuffer.wrap(reused));
+          Arrays.fill(reused, (byte) 0);
+        }
+        if (!cancelled && index == elements.size()) {
+          index++;
+          if (error == null) {
+            subscriber.onComplete();
+          } else {
+            subscriber.onError(error);
+          }
+        }
+      } finally {
+        emitting = false;
+      }
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+  }
+
+  private static S3UploadSubscriber subscriber(S3ClientMultipartUpload s3, int maxConcurrentParts) {
+    return S3UploadSubscriber.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(KEY).build())
+        .partSizeBytes(PART_SIZE)
+        .maxConcurrentParts(maxConcurrentParts)
+        .build();
+  }
+
+  private static List<byte[]> elements(int count, int maxSize) {
+    Random random = new Random(13);
+    List<byte[]> elements = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      byte[] bytes = new byte[random.nextInt(maxSize + 1)];
+      random.nextBytes(bytes);
+      elements.add(bytes);
+    }
+    return elements;
+  }
+
+  private static byte[] concat(List<byte[]> elements) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] bytes : elements) {
+      out.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testUpload() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    for (int maxSize : new int[] {3, 25, 95}) {
+      List<byte[]> elements = elements(60, maxSize);
+      S3UploadSubscriber subscriber = subscriber(s3, 2);
+      new TestPublisher(elements, null).subscribe(subscriber);
+      UploadResult result = subscriber.getResult().get(10, TimeUnit.SECONDS);
+      byte[] expected = concat(elements);
+      assertArrayEquals(expected, Files.readAllBytes(BUCKET_DIR.resolve(KEY)));
+      assertEquals(expected.length, result.getLength());
+      assertEquals(KEY, result.getKey());
+      assertNotNull(result.getETag());
+      assertEquals(0, s3.getUploadStateMap().size());
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    FileMockS3ClientMultipartUpload s3 = FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build();
+    S3UploadSubscriber subscriber = subscriber(s3, 1);
+    new TestPublisher(new ArrayList<>(), null).subscribe(subscriber);
+    assertEquals(0L, subscriber.getResult().get(10, TimeUnit.SECONDS).getLength());
+    assertEquals(0L, Files.size(BUCKET_DIR.resolve(KEY)));
+  }
+
+  @Test
+  public void testPartFailure() throws Exception {
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    IllegalStateException failure = new IllegalStateException("test");
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 3) {
+        throw failure;
+      }
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+    S3UploadSubscriber subscriber = subscriber(s3, 2);
+    TestPublisher publisher = new TestPublisher(elements(100, 25), null);
+    publisher.subscribe(subscriber);
+    ExecutionException e = assertThrows(ExecutionException.class, () -> subscriber.getResult().get(10, TimeUnit.SECONDS));
+    assertSame(failure, e.getCause());
+    assertTrue(publisher.cancelled);
+    verify(s3, timeout(1000)).abortMultipartUpload(eq(BUCKET), eq(KEY), any());
+    assertFalse(Files.exists(BUCKET_DIR.resolve(KEY)));
+  }
+
+  @Test
+  public void testPublisherError() throws Exception {
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    IllegalStateException failure = new IllegalStateException("test");
+    S3UploadSubscriber subscriber = subscriber(s3, 2);
+    new TestPublisher(elements(10, 25), failure).subscribe(subscriber);
+    ExecutionException e = assertThrows(ExecutionException.class, () -> subscriber.getResult().get(10, TimeUnit.SECONDS));
+    assertSame(failure, e.getCause());
+    verify(s3).abortMultipartUpload(eq(BUCKET), eq(KEY), any());
+    assertFalse(Files.exists(BUCKET_DIR.resolve(KEY)));
+  }
+
+  @Test
+  public void testAbortWaitsForPartsInFlight() throws Exception {
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    List<String> events = new CopyOnWriteArrayList<>();
+    CountDownLatch uploading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      uploading.countDown();
+      release.await(10, TimeUnit.SECONDS);
+      Object completedPart = invocation.callRealMethod();
+      events.add("part");
+      return completedPart;
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+    doAnswer(invocation -> {
+      events.add("abort");
+      return invocation.callRealMethod();
+    }).when(s3).abortMultipartUpload(any(), any(), any());
+    IllegalStateException failure = new IllegalStateException("test");
+    S3UploadSubscriber subscriber = subscriber(s3, 2);
+    new TestPublisher(Arrays.asList(new byte[PART_SIZE + 1]), failure).subscribe(subscriber);
+
+    assertTrue(uploading.await(10, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertFalse(subscriber.getResult().isDone());
+    assertTrue(events.isEmpty());
+    release.countDown();
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> subscriber.getResult().get(10, TimeUnit.SECONDS));
+    assertSame(failure, e.getCause());
+    assertEquals(Arrays.asList("part", "abort"), events);
+  }
+}
@@ -0,0 +1,44 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class SharedBufferTest {
+
+  @Test
+  public void testReleasedToPoolByLastReference() {
+    BufferPool pool = new BufferPool(10, 1);
+    ByteBuffer buffer = pool.acquire();
+    buffer.put(new byte[4]).flip();
+
+    SharedBuffer shared = new SharedBuffer(buffer, pool);
+    shared.retain();
+    shared.retain();
+    assertEquals(4, shared.view().remaining());
+
+    shared.release();
+    shared.release();
+    assertNotSame(buffer, pool.acquire());
+
+    shared.release();
+    assertSame(buffer, pool.acquire());
+    assertEquals(10, buffer.remaining());
+
+    assertThrows(IllegalStateException.class, shared::retain);
+  }
+
+  @Test
+  public void testViewsAreIndependent() {
+    SharedBuffer shared = new SharedBuffer(ByteBuffer.wrap(new byte[] {1, 2, 3}), null);
+    ByteBuffer first = shared.view();
+    first.get();
+    assertEquals(3, shared.view().remaining());
+    assertEquals(2, first.remaining());
+    shared.release();
+  }
+}
@@ -0,0 +1,55 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class SpscRingTest {
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 3, 8})
+  public void testHandOffInOrder(int capacity) throws Exception {
+    SpscRing<Integer> ring = new SpscRing<>(capacity);
+    int count = 100000;
+    AtomicReference<Exception> error = new AtomicReference<>();
+    Thread producer = new Thread(() -> {
+      try {
+        for (int i = 0; i < count; i++) {
+          ring.put(i);
+        }
+      } catch (Exception e) {
+        error.set(e);
+      }
+    });
+
+    assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+      producer.start();
+      for (int i = 0; i < count; i++) {
+        assertEquals(i, ring.take());
+        assertTrue(ring.size() <= capacity);
+      }
+      producer.join();
+    });
+    assertEquals(null, error.get());
+    assertEquals(0, ring.size());
+  }
+
+  @Test
+  public void testInterruptedWhileWaiting() throws Exception {
+    SpscRing<Integer> ring = new SpscRing<>(1);
+    ring.put(1);
+    Thread.currentThread().interrupt();
+    assertThrows(InterruptedException.class, () -> ring.put(2));
+    assertEquals(1, ring.take());
+    Thread.currentThread().interrupt();
+    assertThrows(InterruptedException.class, ring::take);
+    assertThrows(IllegalArgumentException.class, () -> new SpscRing<>(0));
+  }
+}
@@ -0,0 +1,117 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class UploadConcurrencyLimiterTest {
+
+  @Test
+  public void testAdditiveIncrease() throws Exception {
+    UploadConcurrencyLimiter limiter = UploadConcurrencyLimiter.builder().initialLimit(2).maxLimit(3).build();
+
+    limiter.release(limiter.acquire(), 100, false);
+    assertEquals(2, limiter.getLimit());
+    limiter.release(limiter.acquire(), 100, false);
+    assertEquals(3, limiter.getLimit());
+    for (int i = 0; i < 6; i++) {
+      limiter.release(limiter.acquire(), 100, false);
+    }
+    assertEquals(3, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testMultiplicativeDecrease() throws Exception {
+    UploadConcurrencyLimiter limiter = UploadConcurrencyLimiter.builder().initialLimit(8).build();
+
+    long first = limiter.acquire();
+    long second = limiter.acquire();
+    Thread.sleep(1);
+    limiter.release(first, 100, true);
+    assertEquals(4, limiter.getLimit());
+
+    // started before the decrease, does not back off again
+    limiter.release(second, 100, true);
+    assertEquals(4, limiter.getLimit());
+
+    limiter.release(limiter.acquire(), 100, true);
+    assertEquals(2, limiter.getLimit());
+    limiter.release(limiter.acquire(), 100, true);
+    limiter.release(limiter.acquire(), 100, true);
+    assertEquals(1, limiter.getLimit());
+  }
+
+  @Test
+  public void testLatencySpike() throws Exception {
+    UploadConcurrencyLimiter limiter = UploadConcurrencyLimiter.builder().initialLimit(4).maxLimit(4).latencyTolerance(1.5).build();
+
+    limiter.release(limiter.acquire(), 1000000, false);
+    long permit = limiter.acquire();
+    Thread.sleep(20);
+    limiter.release(permit, 1000000, false);
+    assertEquals(2, limiter.getLimit());
+  }
+
+  @Test
+  public void testSmallPartIsNotASpike() throws Exception {
+    UploadConcurrencyLimiter limiter = UploadConcurrencyLimiter.builder().initialLimit(4).maxLimit(4).latencyTolerance(10).build();
+
+    for (int i = 0; i < 5; i++) {
+      long permit = limiter.acquire();
+      Thread.sleep(5);
+      limiter.release(permit, 1000000, false);
+    }
+    long permit = limiter.acquire();
+    Thread.sleep(20);
+    limiter.release(permit, 1, false);
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void testLatencyStartsAfterWait() throws Exception {
+    UploadConcurrencyLimiter limiter = UploadConcurrencyLimiter.builder().initialLimit(4).maxLimit(4).latencyTolerance(3).build();
+
+    long permit = limiter.acquire();
+    Thread.sleep(10);
+    limiter.release(permit, 1000000, false);
+    permit = limiter.acquire();
+    Thread.sleep(50);
+    long start = System.nanoTime();
+    Thread.sleep(10);
+    limiter.release(permit, start, 1000000, false);
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void testAcquireBlocks() throws Exception {
+    UploadConcurrencyLimiter limiter = UploadConcurrencyLimiter.builder().initialLimit(1).maxLimit(1).build();
+    long permit = limiter.acquire();
+
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(() -> {
+      try {
+        limiter.release(limiter.acquire(), 1, false);
+        acquired.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    thread.start();
+    assertEquals(false, acquired.await(100, TimeUnit.MILLISECONDS));
+    limiter.release(permit, 1, false);
+    assertEquals(true, acquired.await(10, TimeUnit.SECONDS));
+    thread.join();
+  }
+
+  @Test
+  public void testBuilderValidation() throws Exception {
+    assertThrows(IllegalArgumentException.class, () -> UploadConcurrencyLimiter.builder().minLimit(0).build());
+    assertThrows(IllegalArgumentException.class, () -> UploadConcurrencyLimiter.builder().initialLimit(20).build());
+    assertThrows(IllegalArgumentException.class, () -> UploadConcurrencyLimiter.builder().latencyTolerance(1).build());
+    assertThrows(IllegalArgumentException.class, () -> UploadConcurrencyLimiter.builder().backoffRatio(1).build());
+  }
+}
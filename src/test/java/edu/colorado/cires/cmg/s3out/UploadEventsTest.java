@@ -0,0 +1,177 @@
+package edu.colorado.cires.cmg.s3out;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+public class UploadEventsTest {
+
+  private static final Path MOCK_BUCKETS_DIR = Paths.get("target/mock-buckets");
+  private static final String BUCKET = "my-test-bucket";
+  private static final Path BUCKET_DIR = MOCK_BUCKETS_DIR.resolve(BUCKET);
+  private static final String PREFIX = "edu.colorado.cires.cmg.s3out.";
+
+  @BeforeEach
+  public void setup() throws Exception {
+    FileUtils.deleteQuietly(BUCKET_DIR.toFile());
+    Files.createDirectories(BUCKET_DIR);
+  }
+
+  private static Recording startRecording() {
+    Recording recording = new Recording();
+    for (String name : new String[]{"Stream", "BufferAllocation", "Enqueue", "PartUpload", "PartRetry", "Request"}) {
+      recording.enable(PREFIX + name);
+    }
+    recording.start();
+    return recording;
+  }
+
+  private static List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+    return events.stream()
+        .filter(event -> event.getEventType().getName().equals(PREFIX + name))
+        .sorted(Comparator.comparing(RecordedEvent::getStartTime))
+        .collect(Collectors.toList());
+  }
+
+  private static List<RecordedEvent> record(Recording recording) throws Exception {
+    recording.stop();
+    Path file = Files.createTempFile(Paths.get("target"), "upload-events", ".jfr");
+    try {
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      recording.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testStreamEvents() throws Exception {
+    String key = "events.bin";
+    S3ClientMultipartUpload s3 = spy(FileMockS3ClientMultipartUpload.builder().mockBucketDir(MOCK_BUCKETS_DIR).build());
+    AtomicBoolean throttled = new AtomicBoolean();
+    doAnswer(invocation -> {
+      if (invocation.<Integer>getArgument(3) == 2 && throttled.compareAndSet(false, true)) {
+        throw S3Exception.builder().statusCode(503).message("SlowDown").build();
+      }
+      return invocation.callRealMethod();
+    }).when(s3).uploadPart(any(), any(), any(), anyInt(), any());
+
+    byte[] bytes = new byte[25_000];
+    new Random(3).nextBytes(bytes);
+    Recording recording = startRecording();
+    try (S3OutputStream outputStream = S3OutputStream.builder()
+        .s3(s3)
+        .uploadRequest(MultipartUploadRequest.builder().bucket(BUCKET).key(key).build())
+        .partSizeBytes(10_000)
+        .build()) {
+      outputStream.write(bytes);
+    }
+    List<RecordedEvent> events = record(recording);
+    assertArrayEquals(bytes, Files.readAllBytes(BUCKET_DIR.resolve(key)));
+
+    List<RecordedEvent> streams = filter(events, "Stream");
+    assertEquals(1, streams.size());
+    RecordedEvent stream = streams.get(0);
+    assertEquals(BUCKET, stream.getString("bucket"));
+    assertEquals(key, stream.getString("key"));
+    assertEquals(3, stream.getInt("parts"));
+    assertEquals(25_000L, stream.getLong("bytes"));
+    assertTrue(stream.getBoolean("completed"));
+    String uploadId = stream.getString("uploadId");
+    assertFalse(uploadId == null || uploadId.isEmpty());
+
+    assertEquals(3, filter(events, "Enqueue").size());
+    // the first buffer grows from 8 KiB to the part size, the next two parts each take a buffer
+    assertEquals(4, filter(events, "BufferAllocation").size());
+
+    List<RecordedEvent> parts = filter(events, "PartUpload");
+    assertEquals(4, parts.size());
+    for (RecordedEvent part : parts) {
+      assertEquals(uploadId, part.getString("uploadId"));
+      boolean retried = part.getInt("partNumber") == 2 && part.getInt("attempt") == 1;
+      assertEquals(!retried, part.getBoolean("succeeded"));
+    }
+    assertEquals(Collections.singletonList(5_000L), parts.stream()
+        .filter(part -> part.getInt("partNumber") == 3)
+        .map(part -> part.getLong("bytes"))
+        .collect(Collectors.toList()));
+
+    List<RecordedEvent> retries = filter(events, "PartRetry");
+    assertEquals(1, retries.size());
+    assertEquals(2, retries.get(0).getInt("partNumber"));
+    assertEquals(1, retries.get(0).getInt("attempt"));
+  }
+
+  @Test
+  public void testRequestEvents() throws Exception {
+    S3Client s3Client = mock(S3Client.class);
+    when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+        .thenReturn(CreateMultipartUploadResponse.builder().uploadId("myUploadId").build());
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenReturn(UploadPartResponse.builder().eTag("1").build());
+    when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+        .thenReturn(CompleteMultipartUploadResponse.builder().eTag("2").build());
+    when(s3Client.abortMultipartUpload(any(AbortMultipartUploadRequest.class))).thenThrow(S3Exception.builder().statusCode(404).build());
+
+    AwsS3ClientMultipartUpload s3 = AwsS3ClientMultipartUpload.builder().s3(s3Client).build();
+    Recording recording = startRecording();
+    String uploadId = s3.createMultipartUpload("myBucket", "myKey");
+    s3.uploadPart("myBucket", "myKey", uploadId, 1, ByteBuffer.allocate(100));
+    s3.completeMultipartUpload("myBucket", "myKey", uploadId, Collections.emptyList());
+    try {
+      s3.abortMultipartUpload("myBucket", "myKey", uploadId);
+    } catch (S3Exception e) {
+      // recorded as a failed request
+    }
+    List<RecordedEvent> requests = filter(record(recording), "Request");
+
+    assertEquals(4, requests.size());
+    assertEquals("CreateMultipartUpload", requests.get(0).getString("operation"));
+    assertEquals("UploadPart", requests.get(1).getString("operation"));
+    assertEquals(1, requests.get(1).getInt("partNumber"));
+    assertEquals(100L, requests.get(1).getLong("bytes"));
+    assertEquals("CompleteMultipartUpload", requests.get(2).getString("operation"));
+    assertEquals("AbortMultipartUpload", requests.get(3).getString("operation"));
+    for (RecordedEvent request : requests) {
+      assertEquals("myBucket", request.getString("bucket"));
+      assertEquals("myKey", request.getString("key"));
+      assertEquals("myUploadId", request.getString("uploadId"));
+    }
+    assertTrue(requests.get(2).getBoolean("succeeded"));
+    assertFalse(requests.get(3).getBoolean("succeeded"));
+  }
+}